@@ -0,0 +1,189 @@
+package io.sease.crh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+
+/**
+ * An embedded core, with a generated index, used by the benchmarks.
+ * <br/> <br/>
+ * The index contains documents belonging to 5 tiers (1 to 5), and each chain member (/rh1 ... /rh5) matches only the
+ * documents of its own tier. The title of a document in tier N contains the terms "w1" ... "wN" (plus some random
+ * terms), so the query "wN" has no matches for the members which precede /rhN: in other words, the query decides
+ * which member wins.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class BenchmarkCore implements Closeable {
+	final static int TIERS = 5;
+	final static String CORE_NAME = "bench";
+	final static String COMPOSITE = "/composite";
+
+	private final static String [] HOME_FILES = {
+			"solr.xml",
+			"bench/core.properties",
+			"bench/conf/solrconfig.xml",
+			"bench/conf/schema.xml"
+	};
+
+	private final static int VOCABULARY = 1000;
+	private final static int BATCH_SIZE = 1000;
+
+	private final Path home;
+	private final CoreContainer container;
+	private final SolrCore core;
+
+	private BenchmarkCore(final Path home, final CoreContainer container) {
+		this.home = home;
+		this.container = container;
+		this.core = container.getCore(CORE_NAME);
+	}
+
+	/**
+	 * Starts a new embedded core, with a composite handler which uses the first N members and the given rule.
+	 *
+	 * @param members how many members there are in the chain.
+	 * @param rule the rule of the non-final chain members (the final member always uses "always").
+	 * @param probe true if the composite handler uses the count probe mode.
+	 * @param documents how many documents will be indexed.
+	 * @return a new embedded core.
+	 * @throws IOException in case of I/O failure while preparing the Solr home.
+	 * @throws SolrServerException in case of failure while indexing.
+	 */
+	static BenchmarkCore start(final int members, final String rule, final boolean probe, final int documents) throws IOException, SolrServerException {
+		System.setProperty("crh.chain", IntStream.rangeClosed(1, members).mapToObj(index -> "/rh" + index).collect(Collectors.joining(",")));
+		System.setProperty("crh.rules", Stream.concat(
+				IntStream.range(1, members).mapToObj(index -> rule),
+				Stream.of(RuleCompiler.ALWAYS_KEYWORD)).collect(Collectors.joining(",")));
+		System.setProperty("crh.probe", String.valueOf(probe));
+
+		final Path home = home();
+		final CoreContainer container = new CoreContainer(home.toString());
+		container.load();
+
+		final BenchmarkCore benchmarkCore = new BenchmarkCore(home, container);
+		benchmarkCore.index(documents);
+		return benchmarkCore;
+	}
+
+	/**
+	 * Returns the request handler with the given name.
+	 *
+	 * @param name the request handler name.
+	 * @return the request handler with the given name.
+	 */
+	SolrRequestHandler handler(final String name) {
+		return core.getRequestHandler(name);
+	}
+
+	/**
+	 * Executes a request, the same way the dispatch filter would do (minus the response writing).
+	 *
+	 * @param name the request handler name.
+	 * @param handler the request handler.
+	 * @param params the request parameters.
+	 * @return the response.
+	 */
+	SolrQueryResponse execute(final String name, final SolrRequestHandler handler, final SolrParams params) {
+		final LocalSolrQueryRequest request = new LocalSolrQueryRequest(core, params);
+		request.getContext().put(CommonParams.PATH, name);
+
+		final SolrQueryResponse response = new SolrQueryResponse();
+		SolrRequestInfo.setRequestInfo(new SolrRequestInfo(request, response));
+		try {
+			core.execute(handler, request, response);
+			if (response.getException() != null) {
+				throw new IllegalStateException(response.getException());
+			}
+			return response;
+		} finally {
+			SolrRequestInfo.clearRequestInfo();
+			request.close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			core.close();
+			container.shutdown();
+		} finally {
+			try (final Stream<Path> files = Files.walk(home)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+	}
+
+	private void index(final int documents) throws IOException, SolrServerException {
+		final Random random = new Random(documents);
+		try (final EmbeddedSolrServer server = new EmbeddedSolrServer(container, CORE_NAME) {
+			@Override
+			public void close() {
+				// The container is owned by this class
+			}
+		}) {
+			final List<SolrInputDocument> batch = new ArrayList<>(BATCH_SIZE);
+			for (int id = 0; id < documents; id++) {
+				final int tier = 1 + id % TIERS;
+				final StringBuilder title = new StringBuilder();
+				for (int term = 1; term <= tier; term++) {
+					title.append('w').append(term).append(' ');
+				}
+				for (int term = 0; term < 5; term++) {
+					title.append('v').append(random.nextInt(VOCABULARY)).append(' ');
+				}
+
+				final SolrInputDocument document = new SolrInputDocument();
+				document.setField("id", String.valueOf(id));
+				document.setField("tier", tier);
+				document.setField("title", title.toString());
+				batch.add(document);
+
+				if (batch.size() == BATCH_SIZE) {
+					server.add(batch);
+					batch.clear();
+				}
+			}
+
+			if (!batch.isEmpty()) {
+				server.add(batch);
+			}
+			server.commit();
+		}
+	}
+
+	private static Path home() throws IOException {
+		final Path home = Files.createTempDirectory("crh-benchmarks");
+		for (final String file : HOME_FILES) {
+			final Path target = home.resolve(file);
+			Files.createDirectories(target.getParent());
+			try (final InputStream source = BenchmarkCore.class.getResourceAsStream("/solr-home/" + file)) {
+				Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		return home;
+	}
+}
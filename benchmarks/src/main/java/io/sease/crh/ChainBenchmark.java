@@ -0,0 +1,119 @@
+package io.sease.crh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.response.SolrQueryResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end benchmark of a composite request, against an embedded core.
+ * <br/> <br/>
+ * The "composite" benchmark executes the whole chain, while the "winner" benchmark (the baseline) directly executes
+ * the member that wins, like a client which already knows it. The difference between the two is the cost of the
+ * fall-through steps plus the overhead of the composite handler.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ChainBenchmark {
+	/**
+	 * How many members there are in the chain.
+	 */
+	@Param({"1", "2", "3", "4", "5"})
+	public int members;
+
+	/**
+	 * The position of the winning member: first, middle or last.
+	 */
+	@Param({"first", "middle", "last"})
+	public String winner;
+
+	/**
+	 * The rule of the non-final chain members.
+	 */
+	@Param({"gt0", "between1and1000000", "gt0&maxscorege0"})
+	public String rule;
+
+	@Param({"false"})
+	public boolean probe;
+
+	@Param({"100000"})
+	public int documents;
+
+	private BenchmarkCore core;
+	private SolrRequestHandler composite;
+	private SolrRequestHandler winnerHandler;
+	private String winnerName;
+	private SolrParams params;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		core = BenchmarkCore.start(members, rule, probe, documents);
+
+		final int position = position(winner, members);
+		winnerName = "/rh" + position;
+		composite = core.handler(BenchmarkCore.COMPOSITE);
+		winnerHandler = core.handler(winnerName);
+
+		final ModifiableSolrParams query = new ModifiableSolrParams();
+		query.set(CommonParams.Q, "w" + position);
+		params = query;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		core.close();
+	}
+
+	@Benchmark
+	public SolrQueryResponse composite() {
+		return core.execute(BenchmarkCore.COMPOSITE, composite, params);
+	}
+
+	@Benchmark
+	public SolrQueryResponse winner() {
+		return core.execute(winnerName, winnerHandler, params);
+	}
+
+	/**
+	 * Returns the (1-based) position of the winning member.
+	 *
+	 * @param winner the winner position name (first, middle or last).
+	 * @param members how many members there are in the chain.
+	 * @return the (1-based) position of the winning member.
+	 */
+	static int position(final String winner, final int members) {
+		switch (winner) {
+			case "first":
+				return 1;
+			case "middle":
+				return (members + 1) / 2;
+			case "last":
+				return members;
+			default:
+				throw new IllegalArgumentException("Unknown winner position: " + winner);
+		}
+	}
+}
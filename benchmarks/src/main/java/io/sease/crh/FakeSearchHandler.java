@@ -0,0 +1,102 @@
+package io.sease.crh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.handler.component.SearchHandler;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.BasicResultContext;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocSlice;
+import org.apache.solr.search.SolrReturnFields;
+
+/**
+ * A fake chain member, used by the {@link LoadTest}: it doesn't search anything, it just waits for an (injected)
+ * latency and then produces a given number of hits.
+ * <br/> <br/>
+ * The query decides whether the member produces hits: the query "wN" has no hits for the members which precede the
+ * Nth member (like the index generated by {@link BenchmarkCore}).
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class FakeSearchHandler extends SearchHandler {
+	/**
+	 * The latency distribution.
+	 */
+	enum Distribution {
+		FIXED,
+		EXPONENTIAL;
+
+		/**
+		 * Returns a latency sample.
+		 *
+		 * @param mean the mean latency, in nanoseconds.
+		 * @return a latency sample, in nanoseconds.
+		 */
+		long sample(final long mean) {
+			return this == FIXED
+					? mean
+					: (long) (-Math.log(1d - ThreadLocalRandom.current().nextDouble()) * mean);
+		}
+	}
+
+	private final int position;
+	private final long latency;
+	private final Distribution distribution;
+	private final int hits;
+
+	/**
+	 * Builds a new fake member.
+	 *
+	 * @param position the (1-based) position of the member in the chain.
+	 * @param latency the mean latency, in milliseconds.
+	 * @param distribution the latency distribution.
+	 * @param hits the maximum number of hits, when the member has hits.
+	 */
+	FakeSearchHandler(final int position, final double latency, final Distribution distribution, final int hits) {
+		this.position = position;
+		this.latency = (long) (latency * TimeUnit.MILLISECONDS.toNanos(1));
+		this.distribution = distribution;
+		this.hits = Math.max(1, hits);
+	}
+
+	@Override
+	public void handleRequest(final SolrQueryRequest request, final SolrQueryResponse response) {
+		try {
+			handleRequestBody(request, response);
+		} catch (final Exception exception) {
+			response.setException(exception);
+		}
+	}
+
+	@Override
+	public void handleRequestBody(final SolrQueryRequest request, final SolrQueryResponse response) {
+		final long wait = distribution.sample(latency);
+		if (wait > 0) {
+			LockSupport.parkNanos(wait);
+		}
+
+		final int count = position >= winner(request) ? 1 + ThreadLocalRandom.current().nextInt(hits) : 0;
+		final int [] docs = new int[count];
+		final float [] scores = new float[count];
+		for (int index = 0; index < count; index++) {
+			docs[index] = index;
+			scores[index] = count - index;
+		}
+
+		response.addResponse(new BasicResultContext(
+				new DocSlice(0, count, docs, scores, count, count),
+				new SolrReturnFields(),
+				null,
+				null,
+				request));
+	}
+
+	private static int winner(final SolrQueryRequest request) {
+		final String query = request.getParams().get(CommonParams.Q, "w1");
+		return Integer.parseInt(query.substring(1));
+	}
+}
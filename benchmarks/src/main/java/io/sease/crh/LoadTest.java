@@ -0,0 +1,343 @@
+package io.sease.crh;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.handler.component.SearchHandler;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequestBase;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+
+/**
+ * A load-test harness for the composite handler, which runs offline.
+ * <br/> <br/>
+ * For each chain shape (i.e. chain length) the harness drives the composite handler from many threads, for a given
+ * time, and reports the throughput and the latency percentiles (recorded in an HDR histogram). Chain members are
+ * either fake members, with injected latency and hits (see {@link FakeSearchHandler}), or the members of an embedded
+ * core (see {@link BenchmarkCore}).
+ * <br/> <br/>
+ * The winning position of each request is drawn from a configurable distribution (e.g. 0.6,0.3,0.1 means the first
+ * member wins 60% of the requests, the second 30% and the third 10%), so the harness reproduces the fall-through
+ * depth of the actual traffic. Run it without arguments for the list of options.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public final class LoadTest {
+	private final static long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+	/**
+	 * The system under test: executes a composite request.
+	 */
+	interface Target extends Closeable {
+		SolrQueryResponse execute(SolrParams params);
+	}
+
+	/**
+	 * The harness options.
+	 */
+	final static class Options {
+		boolean embedded;
+		int [] members = {1, 2, 3, 4, 5};
+		double [] winners = {1d};
+		int threads = Runtime.getRuntime().availableProcessors() * 2;
+		int warmup = 10;
+		int duration = 30;
+		String rule = "gt0";
+		double latency = 1d;
+		FakeSearchHandler.Distribution distribution = FakeSearchHandler.Distribution.EXPONENTIAL;
+		int hits = 10;
+		boolean probe;
+		int documents = 100000;
+		File output;
+		final NamedList<Object> settings = new SimpleOrderedMap<>();
+
+		static Options parse(final String [] args) {
+			final Options options = new Options();
+			for (int index = 0; index < args.length - 1; index += 2) {
+				final String value = args[index + 1];
+				switch (args[index]) {
+					case "--mode":
+						options.embedded = "embedded".equals(value);
+						break;
+					case "--members":
+						options.members = Arrays.stream(value.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+						break;
+					case "--winners":
+						options.winners = Arrays.stream(value.split(",")).map(String::trim).mapToDouble(Double::parseDouble).toArray();
+						break;
+					case "--threads":
+						options.threads = Integer.parseInt(value);
+						break;
+					case "--warmup":
+						options.warmup = Integer.parseInt(value);
+						break;
+					case "--duration":
+						options.duration = Integer.parseInt(value);
+						break;
+					case "--rule":
+						options.rule = value;
+						break;
+					case "--latency":
+						options.latency = Double.parseDouble(value);
+						break;
+					case "--distribution":
+						options.distribution = FakeSearchHandler.Distribution.valueOf(value.toUpperCase(Locale.ROOT));
+						break;
+					case "--hits":
+						options.hits = Integer.parseInt(value);
+						break;
+					case "--probe":
+						options.probe = Boolean.parseBoolean(value);
+						break;
+					case "--documents":
+						options.documents = Integer.parseInt(value);
+						break;
+					case "--output":
+						options.output = new File(value);
+						break;
+					case "--set":
+						final int separator = value.indexOf('=');
+						options.settings.add(value.substring(0, separator), value.substring(separator + 1));
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown option: " + args[index]);
+				}
+			}
+			return options;
+		}
+	}
+
+	private LoadTest() {}
+
+	public static void main(final String [] args) throws Exception {
+		if (args.length == 0) {
+			usage();
+		}
+
+		final Options options = Options.parse(args);
+		System.out.printf(Locale.ROOT, "%-8s %-10s %12s %10s %10s %10s %10s %10s %10s %8s%n",
+				"members", "mode", "req/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+
+		for (final int members : options.members) {
+			try (final Target target = options.embedded ? embedded(options, members) : fake(options, members)) {
+				final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+				final AtomicLong errors = new AtomicLong();
+
+				run(target, options, members, recorder, errors, options.warmup);
+				recorder.getIntervalHistogram();
+				errors.set(0);
+
+				run(target, options, members, recorder, errors, options.duration);
+				final Histogram histogram = recorder.getIntervalHistogram();
+				report(options, members, histogram, errors.get());
+			}
+		}
+	}
+
+	/**
+	 * Drives the given target from many threads, for the given time.
+	 *
+	 * @param target the system under test.
+	 * @param options the harness options.
+	 * @param members how many members there are in the chain.
+	 * @param recorder the latency recorder.
+	 * @param errors the errors counter.
+	 * @param seconds how long the load lasts.
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the load threads.
+	 */
+	static void run(
+			final Target target,
+			final Options options,
+			final int members,
+			final Recorder recorder,
+			final AtomicLong errors,
+			final int seconds) throws InterruptedException {
+		final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		final CountDownLatch completed = new CountDownLatch(options.threads);
+		for (int thread = 0; thread < options.threads; thread++) {
+			final Thread load = new Thread(() -> {
+				try {
+					final ModifiableSolrParams params = new ModifiableSolrParams();
+					while (System.nanoTime() < end) {
+						params.set(CommonParams.Q, "w" + winner(options.winners, members));
+
+						final long start = System.nanoTime();
+						try {
+							if (target.execute(params).getException() != null) {
+								errors.incrementAndGet();
+							}
+						} catch (final RuntimeException exception) {
+							errors.incrementAndGet();
+						}
+						recorder.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)));
+					}
+				} finally {
+					completed.countDown();
+				}
+			}, "load-" + thread);
+			load.setDaemon(true);
+			load.start();
+		}
+		completed.await();
+	}
+
+	/**
+	 * Returns the (1-based) position of the winner of a request, drawn from the given distribution. Positions
+	 * beyond the chain length are folded into the final member.
+	 *
+	 * @param winners the winner distribution.
+	 * @param members how many members there are in the chain.
+	 * @return the (1-based) position of the winner of a request.
+	 */
+	static int winner(final double [] winners, final int members) {
+		double draw = ThreadLocalRandom.current().nextDouble() * Arrays.stream(winners).sum();
+		for (int index = 0; index < winners.length; index++) {
+			draw -= winners[index];
+			if (draw < 0) {
+				return Math.min(index + 1, members);
+			}
+		}
+		return Math.min(winners.length, members);
+	}
+
+	/**
+	 * Creates a target with fake chain members.
+	 *
+	 * @param options the harness options.
+	 * @param members how many members there are in the chain.
+	 * @return a target with fake chain members.
+	 */
+	static Target fake(final Options options, final int members) {
+		final SearchHandler [] handlers = new SearchHandler[members];
+		final List<String> chain = new ArrayList<>(members);
+		final List<String> rules = new ArrayList<>(members);
+		for (int index = 0; index < members; index++) {
+			handlers[index] = new FakeSearchHandler(index + 1, options.latency, options.distribution, options.hits);
+			chain.add("/fake" + (index + 1));
+			rules.add(index < members - 1 ? options.rule : RuleCompiler.ALWAYS_KEYWORD);
+		}
+
+		final CompositeRequestHandler composite = new CompositeRequestHandler() {
+			@Override
+			SearchHandler member(final SolrQueryRequest request, final int index) {
+				return handlers[index];
+			}
+		};
+
+		final NamedList<Object> args = options.settings.clone();
+		args.add(CompositeRequestHandler.CHAIN_KEY, String.join(",", chain));
+		args.add(CompositeRequestHandler.RULES_KEY, String.join(",", rules));
+		composite.init(args);
+
+		return new Target() {
+			@Override
+			public SolrQueryResponse execute(final SolrParams params) {
+				final SolrQueryRequest request = new SolrQueryRequestBase(null, new ModifiableSolrParams(params)) {};
+				request.getContext().put(CommonParams.PATH, "/composite");
+
+				final SolrQueryResponse response = new SolrQueryResponse();
+				response.addResponseHeader(new SimpleOrderedMap<>());
+				SolrRequestInfo.setRequestInfo(new SolrRequestInfo(request, response));
+				try {
+					composite.handleRequestBody(request, response);
+					return response;
+				} finally {
+					SolrRequestInfo.clearRequestInfo();
+					request.close();
+				}
+			}
+
+			@Override
+			public void close() {
+				composite.close();
+			}
+		};
+	}
+
+	/**
+	 * Creates a target backed by an embedded core.
+	 *
+	 * @param options the harness options.
+	 * @param members how many members there are in the chain.
+	 * @return a target backed by an embedded core.
+	 * @throws Exception in case the embedded core cannot be started.
+	 */
+	static Target embedded(final Options options, final int members) throws Exception {
+		final BenchmarkCore core = BenchmarkCore.start(Math.min(members, BenchmarkCore.TIERS), options.rule, options.probe, options.documents);
+		final SolrRequestHandler composite = core.handler(BenchmarkCore.COMPOSITE);
+		return new Target() {
+			@Override
+			public SolrQueryResponse execute(final SolrParams params) {
+				return core.execute(BenchmarkCore.COMPOSITE, composite, new ModifiableSolrParams(params));
+			}
+
+			@Override
+			public void close() throws IOException {
+				core.close();
+			}
+		};
+	}
+
+	private static void report(final Options options, final int members, final Histogram histogram, final long errors) throws IOException {
+		System.out.printf(Locale.ROOT, "%-8d %-10s %12.1f %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f %8d%n",
+				members,
+				options.embedded ? "embedded" : "fake",
+				histogram.getTotalCount() / (double) options.duration,
+				histogram.getMean() / 1000d,
+				histogram.getValueAtPercentile(50) / 1000d,
+				histogram.getValueAtPercentile(90) / 1000d,
+				histogram.getValueAtPercentile(99) / 1000d,
+				histogram.getValueAtPercentile(99.9) / 1000d,
+				histogram.getMaxValue() / 1000d,
+				errors);
+
+		if (options.output != null) {
+			if (!options.output.isDirectory() && !options.output.mkdirs()) {
+				throw new IOException("Unable to create the output directory " + options.output);
+			}
+			try (final PrintStream out = new PrintStream(new File(options.output, "members-" + members + ".hgrm"), "UTF-8")) {
+				histogram.outputPercentileDistribution(out, 1000d);
+			}
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java -cp benchmarks.jar io.sease.crh.LoadTest [options]");
+		System.out.println();
+		System.out.println("  --mode fake|embedded       fake members with injected latency, or an embedded core (default fake)");
+		System.out.println("  --members 1,2,3,4,5        the chain lengths (one run for each)");
+		System.out.println("  --winners 0.6,0.3,0.1      the distribution of the winning position (default: the first member)");
+		System.out.println("  --threads N                the number of load threads (default 2 x processors)");
+		System.out.println("  --warmup S                 the warmup time, in seconds (default 10)");
+		System.out.println("  --duration S               the measurement time, in seconds (default 30)");
+		System.out.println("  --rule gt0                 the rule of the non-final members (default gt0)");
+		System.out.println("  --latency MS               fake mode: the mean latency of each member, in msecs (default 1)");
+		System.out.println("  --distribution D           fake mode: fixed or exponential latency (default exponential)");
+		System.out.println("  --hits N                   fake mode: the maximum hits of a matching member (default 10)");
+		System.out.println("  --set key=value            fake mode: an additional composite handler setting (repeatable)");
+		System.out.println("  --probe true|false         embedded mode: the count probe mode (default false)");
+		System.out.println("  --documents N              embedded mode: the index size (default 100000)");
+		System.out.println("  --output DIR               writes the latency distribution of each run (.hgrm) in the given folder");
+		System.exit(1);
+	}
+}
@@ -0,0 +1,109 @@
+package io.sease.crh;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequestBase;
+import org.apache.solr.response.BasicResultContext;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocSlice;
+import org.apache.solr.search.SolrReturnFields;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Micro-benchmarks of the per-step overhead of the composite handler: the request and response cloning, the hits
+ * count extraction and the rule evaluation. No core is needed here.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepOverheadBenchmark {
+	@Param({"gt0", "eq1|gt10", "between1and1000000", "gt0&maxscorege1.5"})
+	public String rule;
+
+	private CompositeRequestHandler handler;
+	private Rule compiled;
+	private SolrQueryRequest request;
+	private SolrQueryResponse response;
+	private SolrQueryResponse result;
+	private ModifiableSolrParams params;
+	private long hits;
+
+	@Setup
+	public void setUp() {
+		handler = new CompositeRequestHandler();
+		compiled = RuleCompiler.compile(rule);
+
+		params = new ModifiableSolrParams();
+		params.set(CommonParams.Q, "nike shoes");
+		params.set(CommonParams.FQ, "brand:nike", "category:shoes");
+		params.set(CommonParams.ROWS, 10);
+		request = new SolrQueryRequestBase(null, params) {};
+
+		response = new SolrQueryResponse();
+		response.addResponseHeader(new SimpleOrderedMap<>());
+
+		result = new SolrQueryResponse();
+		result.add(CompositeRequestHandler.RESPONSE_KEY, new BasicResultContext(
+				new DocSlice(0, 3, new int[] {1, 2, 3}, new float[] {3f, 2f, 1f}, 3, 3f),
+				new SolrReturnFields(),
+				null,
+				null,
+				null));
+	}
+
+	@TearDown
+	public void tearDown() {
+		request.close();
+	}
+
+	@Benchmark
+	public SolrQueryRequest newRequest() {
+		try (final SolrQueryRequest step = handler.newFrom(request, params, new HashMap<>())) {
+			return step;
+		}
+	}
+
+	@Benchmark
+	public SolrQueryRequest newRequestCopy() {
+		try (final SolrQueryRequest step = handler.newFrom(request, params)) {
+			return step;
+		}
+	}
+
+	@Benchmark
+	public SolrQueryResponse newResponse() {
+		return handler.newFrom(response);
+	}
+
+	@Benchmark
+	public int howManyFound() {
+		return handler.howManyFound(result);
+	}
+
+	@Benchmark
+	public boolean ruleEvaluation() {
+		return compiled.test(hits++ & 15, 1.5f);
+	}
+}
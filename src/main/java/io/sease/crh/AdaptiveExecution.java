@@ -0,0 +1,99 @@
+package io.sease.crh;
+
+import static java.util.Optional.ofNullable;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+
+/**
+ * The "adaptive" {@link ExecutionStrategy} (see {@link CompositeRequestHandler#ADAPTIVE_KEY}): when the member which
+ * usually wins for the class of the incoming query can be confidently predicted (see {@link WinStatistics}), that
+ * member is executed straight away, on a dedicated thread, while the preceding members are sequentially walked on the
+ * request thread. Otherwise, the chain is sequentially walked.
+ * <br/> <br/>
+ * The results are still examined in chain order, so the outcome is the same of the {@link SequentialExecution}: if a
+ * preceding member wins, the likely winner execution is cancelled (but not interrupted, if already running); if the
+ * likely winner doesn't win, the walk continues with the following members.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class AdaptiveExecution implements ExecutionStrategy {
+	private final CompositeRequestHandler engine;
+	private final ExecutorService executor;
+	private final WinStatistics statistics;
+	private final SequentialExecution sequential;
+
+	/**
+	 * Builds a new adaptive execution of the given handler chain.
+	 *
+	 * @param engine the handler which owns the chain.
+	 * @param executor the executor which runs the likely winner.
+	 * @param statistics the win statistics the likely winner is predicted from.
+	 */
+	AdaptiveExecution(final CompositeRequestHandler engine, final ExecutorService executor, final WinStatistics statistics) {
+		this.engine = engine;
+		this.executor = executor;
+		this.statistics = statistics;
+		this.sequential = new SequentialExecution(engine);
+	}
+
+	@Override
+	public Optional<Map.Entry<String, SolrQueryResponse>> execute(final SolrQueryRequest request, final SolrQueryResponse response) {
+		final int likely = statistics.predict(WinStatistics.classify(request.getParams().get(CommonParams.Q)));
+		return likely > 0
+				? engine.walked(request, execute(request, response, likely))
+				: sequential.execute(request, response);
+	}
+
+	/**
+	 * Executes the likely winner while the preceding members are sequentially walked.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @param likely the index of the likely winner.
+	 * @return the first chain member (i.e. its name and response) whose rule accepts the result, or nothing.
+	 */
+	Optional<Map.Entry<String, SolrQueryResponse>> execute(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response,
+			final int likely) {
+		final int size = engine.chain.size();
+		if (engine.skipped(request, likely)) {
+			final Optional<Map.Entry<String, SolrQueryResponse>> preceding = sequential.execute(request, response, 0, likely);
+			return preceding.isPresent() ? preceding : sequential.execute(request, response, likely + 1, size);
+		}
+
+		// The searcher is lazily acquired by the request, and that is not thread-safe: do that here, once.
+		request.getSearcher();
+
+		final Date now = ofNullable(SolrRequestInfo.getRequestInfo()).map(SolrRequestInfo::getNOW).orElse(null);
+		final AtomicBoolean settled = new AtomicBoolean();
+		final Future<Map.Entry<String, SolrQueryResponse>> execution =
+				executor.submit(engine.speculativeStep(request, response, likely, now, settled));
+		try {
+			final Optional<Map.Entry<String, SolrQueryResponse>> preceding = sequential.execute(request, response, 0, likely);
+			if (preceding.isPresent()) {
+				return preceding;
+			}
+
+			final Map.Entry<String, SolrQueryResponse> result = SpeculativeExecution.await(execution);
+			if (engine.accept(request, likely, result.getValue())) {
+				return Optional.of(result);
+			}
+		} finally {
+			settled.set(true);
+			execution.cancel(false);
+		}
+		return sequential.execute(request, response, likely + 1, size);
+	}
+}
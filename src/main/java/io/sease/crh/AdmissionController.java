@@ -0,0 +1,128 @@
+package io.sease.crh;
+
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.solr.common.SolrException;
+
+/**
+ * The admission controller of a {@link CompositeRequestHandler} (see
+ * {@link CompositeRequestHandler#ADMISSION_PERMITS_KEY}).
+ * <br/> <br/>
+ * The controller caps the number of concurrent chain steps: each composite request acquires a number of permits
+ * equal to the steps it is expected to execute, that is, the (exponentially weighted) average fall-through depth
+ * recently observed for its query class (see {@link WinStatistics#classify(String)}). So, when the node is busy,
+ * expensive fall-through traffic is throttled before cheap first-hit traffic.
+ * <br/> <br/>
+ * A request which cannot be admitted immediately waits in a bounded queue, for a bounded time: if the queue is full,
+ * or the wait times out, the request is rejected with a 503 (Service Unavailable).
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class AdmissionController {
+	final static float DEPTH_WEIGHT = 0.05f;
+
+	private final int capacity;
+	private final int maxQueued;
+	private final long wait;
+	private final Semaphore permits;
+	private final AtomicInteger queued = new AtomicInteger();
+	private final float [] depth = new float[WinStatistics.CLASSES];
+
+	/**
+	 * Builds a new admission controller.
+	 *
+	 * @param capacity the maximum number of concurrent chain steps.
+	 * @param maxQueued the maximum number of requests waiting for admission.
+	 * @param wait the maximum wait time, in msecs.
+	 */
+	AdmissionController(final int capacity, final int maxQueued, final long wait) {
+		this.capacity = capacity;
+		this.maxQueued = maxQueued;
+		this.wait = wait;
+		this.permits = new Semaphore(capacity, true);
+		Arrays.fill(depth, 1f);
+	}
+
+	/**
+	 * Admits a request of the given query class. Each successful call must be paired with a call to
+	 * {@link #release(int)}.
+	 *
+	 * @param queryClass the query class.
+	 * @return the number of acquired permits.
+	 * @throws SolrException (503) in case the request cannot be admitted.
+	 */
+	int admit(final int queryClass) {
+		final int weight = weight(queryClass);
+		try {
+			// The timed version honours the fairness, so cheap requests don't overtake the queued ones
+			if (permits.tryAcquire(weight, 0, TimeUnit.MILLISECONDS)) {
+				return weight;
+			}
+
+			if (queued.incrementAndGet() > maxQueued) {
+				queued.decrementAndGet();
+				throw rejected("the admission queue is full");
+			}
+
+			try {
+				if (permits.tryAcquire(weight, wait, TimeUnit.MILLISECONDS)) {
+					return weight;
+				}
+				throw rejected("the admission wait timed out");
+			} finally {
+				queued.decrementAndGet();
+			}
+		} catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw rejected("the admission wait has been interrupted");
+		}
+	}
+
+	/**
+	 * Releases the permits acquired by an admitted request.
+	 *
+	 * @param weight the number of acquired permits (see {@link #admit(int)}).
+	 */
+	void release(final int weight) {
+		permits.release(weight);
+	}
+
+	/**
+	 * Records the fall-through depth (i.e. the number of chain members actually evaluated) of a completed request.
+	 *
+	 * @param queryClass the query class.
+	 * @param steps the fall-through depth.
+	 */
+	synchronized void learn(final int queryClass, final int steps) {
+		depth[queryClass] += DEPTH_WEIGHT * (steps - depth[queryClass]);
+	}
+
+	/**
+	 * Returns the number of permits a request of the given query class has to acquire.
+	 *
+	 * @param queryClass the query class.
+	 * @return the number of permits a request of the given query class has to acquire, in [1, capacity].
+	 */
+	synchronized int weight(final int queryClass) {
+		return Math.max(1, Math.min(capacity, Math.round(depth[queryClass])));
+	}
+
+	/**
+	 * Returns the number of available permits.
+	 *
+	 * @return the number of available permits.
+	 */
+	int available() {
+		return permits.availablePermits();
+	}
+
+	private SolrException rejected(final String reason) {
+		return new SolrException(
+				SolrException.ErrorCode.SERVICE_UNAVAILABLE,
+				"The composite request cannot be admitted: " + reason + ".");
+	}
+}
@@ -0,0 +1,146 @@
+package io.sease.crh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocList;
+import org.apache.solr.search.DocSlice;
+
+import com.carrotsearch.hppc.IntHashSet;
+
+/**
+ * Accumulates the results of several chain members in a single page.
+ * <br/> <br/>
+ * The hits of each member are appended (in the member order) to the hits collected so far, skipping the documents
+ * that have been already collected, until the requested page (i.e. start + rows) is filled. Documents are
+ * deduplicated by internal id, using a primitive set, and for each hit the accumulator keeps the member which
+ * produced it (the "provenance").
+ * <br/> <br/>
+ * The buffers grow with the collected hits, so a huge page (e.g. rows=2147483647, which clients use for "all the
+ * results") doesn't allocate anything in advance.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class Backfill {
+	private final static int INITIAL_CAPACITY = 16;
+
+	private final int start;
+	private final int limit;
+	private int [] docs;
+	private float [] scores;
+	private int [] provenance;
+	private final IntHashSet collected = new IntHashSet();
+
+	private int size;
+	private long matches;
+	private float maxScore = Float.NEGATIVE_INFINITY;
+	private boolean scored = true;
+
+	/**
+	 * Builds a new accumulator for the given page.
+	 *
+	 * @param start the offset of the page.
+	 * @param rows the size of the page.
+	 */
+	Backfill(final int start, final int rows) {
+		this.start = Math.max(0, start);
+		this.limit = limit(start, rows);
+
+		final int capacity = Math.min(limit, INITIAL_CAPACITY);
+		this.docs = new int[capacity];
+		this.scores = new float[capacity];
+		this.provenance = new int[capacity];
+	}
+
+	/**
+	 * Returns the number of hits needed for filling the given page (i.e. start + rows), without overflowing.
+	 *
+	 * @param start the offset of the page.
+	 * @param rows the size of the page.
+	 * @return the number of hits needed for filling the given page, at most {@link Integer#MAX_VALUE}.
+	 */
+	static int limit(final int start, final int rows) {
+		return (int) Math.min(Integer.MAX_VALUE, (long) Math.max(0, start) + Math.max(0, rows));
+	}
+
+	/**
+	 * Appends the hits of a chain member.
+	 *
+	 * @param member the chain member index.
+	 * @param documents the chain member hits; they must include the whole page (i.e. start from offset 0).
+	 * @return how many hits have been actually appended.
+	 */
+	int add(final int member, final DocList documents) {
+		final int before = size;
+		final boolean hasScores = documents.hasScores();
+		scored &= hasScores;
+		matches = Math.max(matches, documents.matches());
+
+		final DocIterator iterator = documents.iterator();
+		while (iterator.hasNext() && !full()) {
+			final int doc = iterator.nextDoc();
+			final float score = hasScores ? iterator.score() : 0f;
+			if (collected.add(doc)) {
+				if (size == docs.length) {
+					grow();
+				}
+				docs[size] = doc;
+				scores[size] = score;
+				provenance[size] = member;
+				maxScore = Math.max(maxScore, score);
+				size++;
+			}
+		}
+		return size - before;
+	}
+
+	/**
+	 * Returns true if the requested page has been filled.
+	 *
+	 * @return true if the requested page has been filled.
+	 */
+	boolean full() {
+		return size == limit;
+	}
+
+	private void grow() {
+		final int capacity = (int) Math.min(limit, Math.max(INITIAL_CAPACITY, docs.length * 2L));
+		docs = Arrays.copyOf(docs, capacity);
+		scores = Arrays.copyOf(scores, capacity);
+		provenance = Arrays.copyOf(provenance, capacity);
+	}
+
+	/**
+	 * Returns the merged page. The number of matches is the highest number of matches among the chain members (and, in
+	 * any case, not lower than the number of collected hits), while scores are available only if all members produced
+	 * them.
+	 *
+	 * @return the merged page.
+	 */
+	DocList docList() {
+		return new DocSlice(
+				start,
+				Math.max(0, size - start),
+				docs,
+				scored ? scores : null,
+				Math.max(matches, size),
+				scored && size > 0 ? maxScore : 0f);
+	}
+
+	/**
+	 * Returns the provenance of each hit of the merged page, that is, the name of the chain member which produced it.
+	 *
+	 * @param chain the chain members.
+	 * @return the provenance of each hit of the merged page, in the same order.
+	 */
+	List<String> provenance(final List<String> chain) {
+		final List<String> result = new ArrayList<>(Math.max(0, size - start));
+		for (int index = start; index < size; index++) {
+			result.add(chain.get(provenance[index]));
+		}
+		return result;
+	}
+}
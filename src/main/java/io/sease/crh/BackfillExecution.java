@@ -0,0 +1,138 @@
+package io.sease.crh;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.BasicResultContext;
+import org.apache.solr.response.ResultContext;
+import org.apache.solr.response.SolrQueryResponse;
+
+/**
+ * The "backfill" {@link ExecutionStrategy} (see {@link CompositeRequestHandler#BACKFILL_KEY}): the rules are not used,
+ * and the hits of each member are appended (without duplicates) to the hits of the previous members, until the
+ * requested page is filled (see {@link Backfill}).
+ * <br/> <br/>
+ * The backfill mode doesn't apply to distributed requests: they are sequentially walked (see
+ * {@link SequentialExecution}).
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class BackfillExecution implements ExecutionStrategy {
+	private final CompositeRequestHandler engine;
+	private final SequentialExecution sequential;
+
+	/**
+	 * Builds a new backfill execution of the given handler chain.
+	 *
+	 * @param engine the handler which owns the chain.
+	 */
+	BackfillExecution(final CompositeRequestHandler engine) {
+		this.engine = engine;
+		this.sequential = new SequentialExecution(engine);
+	}
+
+	/**
+	 * Walks the chain appending the hits of each member to the hits of the previous members, until the requested page
+	 * is filled. Each member is asked for the whole page (i.e. start=0, rows=start + rows).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @return the response of the first member, which carries the merged result and the provenance of each hit, or
+	 * 			nothing.
+	 */
+	@Override
+	public Optional<Map.Entry<String, SolrQueryResponse>> execute(final SolrQueryRequest request, final SolrQueryResponse response) {
+		if (DistributedProbe.distributed(request)) {
+			return sequential.execute(request, response);
+		}
+
+		final int start = request.getParams().getInt(CommonParams.START, CommonParams.START_DEFAULT);
+		final int rows = request.getParams().getInt(CommonParams.ROWS, CommonParams.ROWS_DEFAULT);
+		final Backfill merged = new Backfill(start, rows);
+
+		Map.Entry<String, SolrQueryResponse> first = null;
+		ResultContext template = null;
+		int index = 0;
+		for (; index < engine.chain.size() && !merged.full(); index++) {
+			if (engine.skipped(request, index)) {
+				continue;
+			}
+
+			final ModifiableSolrParams page = new ModifiableSolrParams();
+			page.set(CommonParams.START, 0);
+			page.set(CommonParams.ROWS, Backfill.limit(start, rows));
+
+			final Map.Entry<String, SolrQueryResponse> result = engine.executeStep(
+					request,
+					response,
+					SolrParams.wrapDefaults(page, engine.params(request, index)),
+					engine.member(request, index),
+					index,
+					request.getContext(),
+					false);
+			if (result.getValue().getException() != null) {
+				engine.completed(request, index, index + 1);
+				return Optional.of(result);
+			}
+
+			final Object value = result.getValue().getValues().get(CompositeRequestHandler.RESPONSE_KEY);
+			if (!(value instanceof ResultContext) || ((ResultContext) value).getDocList() == null) {
+				continue;
+			}
+
+			if (first == null) {
+				first = result;
+				template = (ResultContext) value;
+			} else if (!returnFields(template).equals(returnFields((ResultContext) value))) {
+				// The merged hits are written with the return fields of the first member
+				throw new SolrException(
+						SolrException.ErrorCode.SERVER_ERROR,
+						"The backfill mode requires the chain members to return the same fields: "
+							+ first.getKey() + " returns " + returnFields(template) + ", "
+							+ result.getKey() + " returns " + returnFields((ResultContext) value) + ".");
+			}
+			merged.add(index, ((ResultContext) value).getDocList());
+		}
+
+		engine.completed(request, first != null ? engine.chain.indexOf(first.getKey()) : -1, index);
+		if (first == null) {
+			return Optional.empty();
+		}
+
+		// Only the result of the first member is replaced: the other member responses are just discarded
+		final NamedList<Object> values = first.getValue().getValues();
+		values.setVal(
+				values.indexOf(CompositeRequestHandler.RESPONSE_KEY, 0),
+				new BasicResultContext(
+						merged.docList(),
+						template.getReturnFields(),
+						template.getSearcher(),
+						template.getQuery(),
+						template.getRequest()));
+		values.add(CompositeRequestHandler.PROVENANCE_KEY, merged.provenance(engine.chain));
+		return Optional.of(first);
+	}
+
+	/**
+	 * Returns the field list (i.e. the "fl" parameter, after the member defaults, appends and invariants have been
+	 * applied) of the given chain member result.
+	 *
+	 * @param result the chain member result.
+	 * @return the field list of the given chain member result, or an empty list if the member didn't specify any.
+	 */
+	static List<String> returnFields(final ResultContext result) {
+		final SolrParams params = result.getRequest() != null ? result.getRequest().getParams() : null;
+		final String [] fields = params != null ? params.getParams(CommonParams.FL) : null;
+		return fields != null ? Arrays.asList(fields) : Collections.emptyList();
+	}
+}
@@ -0,0 +1,40 @@
+package io.sease.crh;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+
+/**
+ * Factory for the {@link ExecutorService} instances used for running chain members outside the request thread.
+ * <br/> <br/>
+ * The target platform of this project is Java 8, so virtual threads (Java 21+) are looked up reflectively: when
+ * they are requested but not available in the running JVM, a bounded platform thread pool is used instead.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class ChainExecutors {
+	private ChainExecutors() {}
+
+	/**
+	 * Creates a new {@link ExecutorService}.
+	 *
+	 * @param name the prefix used for naming the executor threads.
+	 * @param threads the maximum number of (platform) threads.
+	 * @param virtual true if virtual threads should be used, if available.
+	 * @return a new {@link ExecutorService}.
+	 */
+	static ExecutorService newExecutor(final String name, final int threads, final boolean virtual) {
+		if (virtual) {
+			try {
+				final Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) factory.invoke(null);
+			} catch (final ReflectiveOperationException exception) {
+				// Virtual threads are not available in this JVM: fall back to platform threads
+			}
+		}
+		return ExecutorUtil.newMDCAwareFixedThreadPool(threads, new DefaultSolrThreadFactory(name));
+	}
+}
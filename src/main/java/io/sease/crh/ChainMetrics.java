@@ -0,0 +1,280 @@
+package io.sease.crh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.metrics.SolrMetricManager;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+
+/**
+ * The per-step metrics of a {@link CompositeRequestHandler}.
+ * <br/> <br/>
+ * For each chain member there's a latency {@link Timer}, an invocations and a wins {@link Counter} and a
+ * "fallThroughRatio" {@link Gauge} (i.e. how many invocations didn't produce the winning response), a "skips"
+ * {@link Counter} (i.e. how many times the member has been skipped because of its circuit breaker or the degraded
+ * chain) and, if circuit breakers are enabled, a "breaker" {@link Gauge} with the breaker state. In addition, the
+ * "steps" {@link Histogram} tracks how many chain members have been evaluated for each composite request, and the
+ * "degraded" {@link Counter} how many requests have been executed with the degraded chain, and the "coalesced"
+ * {@link Counter} how many requests have shared the outcome of an identical in-flight request (see
+ * {@link SingleFlight}). Finally, the "rejected" {@link Counter} tracks how many requests have been rejected by the
+ * {@link AdmissionController}.
+ * <br/> <br/>
+ * Until they are registered (see
+ * {@link #registered(SolrInfoBean, SolrMetricManager, String, String, String, List, CircuitBreaker[])}) metrics are
+ * still collected, but they are not visible anywhere. Once registered, they are exposed under /admin/metrics, using
+ * the handler scope, e.g.
+ *
+ * <pre>
+ * QUERY./search.chain./rh1.latency
+ * QUERY./search.chain./rh1.invocations
+ * QUERY./search.chain./rh1.wins
+ * QUERY./search.chain./rh1.fallThroughRatio
+ * QUERY./search.chain./rh1.skips
+ * QUERY./search.chain./rh1.breaker
+ * QUERY./search.steps
+ * QUERY./search.degraded
+ * QUERY./search.coalesced
+ * QUERY./search.rejected
+ * </pre>
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class ChainMetrics {
+	final static String CHAIN_SCOPE = "chain";
+	final static String LATENCY = "latency";
+	final static String INVOCATIONS = "invocations";
+	final static String WINS = "wins";
+	final static String FALL_THROUGH_RATIO = "fallThroughRatio";
+	final static String STEPS = "steps";
+	final static String SKIPS = "skips";
+	final static String BREAKER = "breaker";
+	final static String DEGRADED = "degraded";
+	final static String COALESCED = "coalesced";
+	final static String REJECTED = "rejected";
+
+	private final Timer [] latency;
+	private final Counter [] invocations;
+	private final Counter [] wins;
+	private final Counter [] skips;
+	private final Histogram steps;
+	private final Counter degraded;
+	private final Counter coalesced;
+	private final Counter rejected;
+
+	private ChainMetrics(
+			final Timer [] latency,
+			final Counter [] invocations,
+			final Counter [] wins,
+			final Counter [] skips,
+			final Histogram steps,
+			final Counter degraded,
+			final Counter coalesced,
+			final Counter rejected) {
+		this.latency = latency;
+		this.invocations = invocations;
+		this.wins = wins;
+		this.skips = skips;
+		this.steps = steps;
+		this.degraded = degraded;
+		this.coalesced = coalesced;
+		this.rejected = rejected;
+	}
+
+	/**
+	 * Creates a new set of metrics which are not registered anywhere.
+	 *
+	 * @param members how many members there are in the chain.
+	 * @return a new set of metrics which are not registered anywhere.
+	 */
+	static ChainMetrics unregistered(final int members) {
+		final Timer [] latency = new Timer[members];
+		final Counter [] invocations = new Counter[members];
+		final Counter [] wins = new Counter[members];
+		final Counter [] skips = new Counter[members];
+		for (int index = 0; index < members; index++) {
+			latency[index] = new Timer();
+			invocations[index] = new Counter();
+			wins[index] = new Counter();
+			skips[index] = new Counter();
+		}
+		return new ChainMetrics(
+				latency,
+				invocations,
+				wins,
+				skips,
+				new Histogram(new ExponentiallyDecayingReservoir()),
+				new Counter(),
+				new Counter(),
+				new Counter());
+	}
+
+	/**
+	 * Creates a new set of metrics and registers them in the given registry.
+	 *
+	 * @param info the owning handler.
+	 * @param manager the {@link SolrMetricManager}.
+	 * @param registry the registry name.
+	 * @param category the handler category.
+	 * @param scope the handler scope (i.e. its name).
+	 * @param chain the chain members.
+	 * @param breakers the circuit breakers of the chain members, or null if they are not enabled.
+	 * @return a new set of metrics, registered in the given registry.
+	 */
+	static ChainMetrics registered(
+			final SolrInfoBean info,
+			final SolrMetricManager manager,
+			final String registry,
+			final String category,
+			final String scope,
+			final List<String> chain,
+			final CircuitBreaker [] breakers) {
+		final int members = chain.size();
+		final Timer [] latency = new Timer[members];
+		final Counter [] invocations = new Counter[members];
+		final Counter [] wins = new Counter[members];
+		final Counter [] skips = new Counter[members];
+		for (int index = 0; index < members; index++) {
+			final String member = chain.get(index);
+			latency[index] = manager.timer(info, registry, LATENCY, category, scope, CHAIN_SCOPE, member);
+			invocations[index] = manager.counter(info, registry, INVOCATIONS, category, scope, CHAIN_SCOPE, member);
+			wins[index] = manager.counter(info, registry, WINS, category, scope, CHAIN_SCOPE, member);
+			skips[index] = manager.counter(info, registry, SKIPS, category, scope, CHAIN_SCOPE, member);
+
+			if (breakers != null) {
+				final CircuitBreaker breaker = breakers[index];
+				manager.registerGauge(
+						info,
+						registry,
+						(Gauge<Integer>) breaker::state,
+						true,
+						BREAKER,
+						category, scope, CHAIN_SCOPE, member);
+			}
+
+			final Counter memberInvocations = invocations[index];
+			final Counter memberWins = wins[index];
+			manager.registerGauge(
+					info,
+					registry,
+					(Gauge<Double>) () -> fallThroughRatio(memberInvocations, memberWins),
+					true,
+					FALL_THROUGH_RATIO,
+					category, scope, CHAIN_SCOPE, member);
+		}
+
+		return new ChainMetrics(
+				latency,
+				invocations,
+				wins,
+				skips,
+				manager.histogram(info, registry, STEPS, category, scope),
+				manager.counter(info, registry, DEGRADED, category, scope),
+				manager.counter(info, registry, COALESCED, category, scope),
+				manager.counter(info, registry, REJECTED, category, scope));
+	}
+
+	/**
+	 * Records a completed invocation of the given chain member.
+	 *
+	 * @param index the chain member index.
+	 * @param elapsed the invocation time, in nanoseconds.
+	 */
+	void invoked(final int index, final long elapsed) {
+		invocations[index].inc();
+		latency[index].update(elapsed, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records the outcome of a composite request.
+	 *
+	 * @param index the index of the winning chain member, or -1 if no member won.
+	 * @param evaluated how many chain members have been evaluated (executed or probed) for producing the outcome.
+	 */
+	void completed(final int index, final int evaluated) {
+		if (index >= 0) {
+			wins[index].inc();
+		}
+		steps.update(evaluated);
+	}
+
+	/**
+	 * Records that the given chain member has been skipped.
+	 *
+	 * @param index the chain member index.
+	 */
+	void skipped(final int index) {
+		skips[index].inc();
+	}
+
+	/**
+	 * Records that a composite request has been executed with the degraded chain.
+	 */
+	void degradedExecution() {
+		degraded.inc();
+	}
+
+	/**
+	 * Records that a composite request has shared the outcome of an identical in-flight request.
+	 */
+	void coalescedExecution() {
+		coalesced.inc();
+	}
+
+	/**
+	 * Records that a composite request has been rejected by the admission controller.
+	 */
+	void rejectedExecution() {
+		rejected.inc();
+	}
+
+	Timer latency(final int index) {
+		return latency[index];
+	}
+
+	Counter invocations(final int index) {
+		return invocations[index];
+	}
+
+	Counter wins(final int index) {
+		return wins[index];
+	}
+
+	Counter skips(final int index) {
+		return skips[index];
+	}
+
+	Histogram steps() {
+		return steps;
+	}
+
+	Counter degraded() {
+		return degraded;
+	}
+
+	Counter coalesced() {
+		return coalesced;
+	}
+
+	Counter rejected() {
+		return rejected;
+	}
+
+	/**
+	 * Returns the ratio of invocations of a given chain member that didn't produce the winning response.
+	 *
+	 * @param invocations the invocations counter of the chain member.
+	 * @param wins the wins counter of the chain member.
+	 * @return the fall-through ratio, or 0 if the chain member has never been invoked.
+	 */
+	static double fallThroughRatio(final Counter invocations, final Counter wins) {
+		final long count = invocations.getCount();
+		return count == 0 ? 0d : (double) Math.max(0, count - wins.getCount()) / count;
+	}
+}
@@ -0,0 +1,194 @@
+package io.sease.crh;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+/**
+ * The execution trace of a composite request (see {@link CompositeRequestHandler#SLOW_LOG_THRESHOLD_KEY}).
+ * <br/> <br/>
+ * The trace records, for each chain member which has been reached, how long it took, how many hits it produced, the
+ * outcome of its rule and, if it hasn't been executed, the reason why (e.g. its circuit breaker was open). It also
+ * records the time spent around the chain members, like cloning the requests and copying the winning response.
+ * <br/> <br/>
+ * Chain members can run on different threads (see {@link CompositeRequestHandler#SPECULATIVE_LOOKAHEAD_KEY}), so all
+ * the methods are synchronized: a trace is only built for debug requests and sampled requests, so that's not a
+ * concern.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class ChainTrace {
+	final static String ACCEPTED = "accepted";
+	final static String REJECTED = "rejected";
+	final static String EXECUTED = "executed";
+	final static String FAILED = "failed";
+	final static String SKIPPED = "skipped";
+	final static String ABANDONED = "abandoned";
+
+	final static String CLONING = "cloning";
+	final static String COPYING = "copying";
+	final static String LADDER = "ladder";
+	final static String DEFERRED = "deferred";
+
+	/**
+	 * The trace of a single chain member.
+	 */
+	private final static class Step {
+		private long elapsed = -1;
+		private long hits = -1;
+		private String outcome;
+		private String reason;
+		private NamedList<Object> timing;
+	}
+
+	private final List<String> chain;
+	private final Step [] steps;
+	private final Map<String, Long> phases = new LinkedHashMap<>();
+	private final long start = System.nanoTime();
+	private long elapsed = -1;
+	private String winner;
+
+	/**
+	 * Builds a new (empty) trace.
+	 *
+	 * @param chain the chain members.
+	 */
+	ChainTrace(final List<String> chain) {
+		this.chain = chain;
+		this.steps = new Step[chain.size()];
+	}
+
+	/**
+	 * Records the execution of a chain member.
+	 *
+	 * @param index the chain member index.
+	 * @param elapsed the execution time, in nanoseconds.
+	 * @param hits the number of hits produced by the chain member, or -1 if they are not available.
+	 * @param failed true if the execution failed.
+	 */
+	synchronized void executed(final int index, final long elapsed, final long hits, final boolean failed) {
+		final Step step = step(index);
+		step.elapsed = elapsed;
+		step.hits = hits;
+		if (failed) {
+			step.outcome = FAILED;
+		} else if (step.outcome == null) {
+			step.outcome = EXECUTED;
+		}
+	}
+
+	/**
+	 * Records the outcome of a chain member.
+	 *
+	 * @param index the chain member index.
+	 * @param outcome the outcome (e.g. {@link #ACCEPTED}, {@link #SKIPPED}).
+	 * @param reason what determined the outcome, other than the member rule (e.g. the count probe), or null.
+	 */
+	synchronized void outcome(final int index, final String outcome, final String reason) {
+		final Step step = step(index);
+		step.outcome = outcome;
+		step.reason = reason;
+	}
+
+	/**
+	 * Records the timing (see {@link org.apache.solr.util.RTimerTree}) collected by a chain member.
+	 *
+	 * @param index the chain member index.
+	 * @param timing the timing collected by the chain member.
+	 */
+	synchronized void timing(final int index, final NamedList<Object> timing) {
+		step(index).timing = timing;
+	}
+
+	/**
+	 * Adds the given time to a phase of the execution which doesn't belong to a single chain member.
+	 *
+	 * @param phase the phase name (e.g. {@link #CLONING}).
+	 * @param elapsed the time spent in the phase, in nanoseconds.
+	 */
+	synchronized void phase(final String phase, final long elapsed) {
+		phases.merge(phase, elapsed, Long::sum);
+	}
+
+	/**
+	 * Records the winning chain member.
+	 *
+	 * @param winner the name of the winning chain member, or null if no member won.
+	 */
+	synchronized void winner(final String winner) {
+		this.winner = winner;
+	}
+
+	/**
+	 * Stops the trace clock (subsequent calls have no effect).
+	 *
+	 * @return the total execution time, in nanoseconds.
+	 */
+	synchronized long finish() {
+		if (elapsed < 0) {
+			elapsed = System.nanoTime() - start;
+		}
+		return elapsed;
+	}
+
+	/**
+	 * Returns this trace as a {@link NamedList}, suitable for the debug section of the response.
+	 *
+	 * @return this trace as a {@link NamedList}.
+	 */
+	synchronized NamedList<Object> asNamedList() {
+		final NamedList<Object> trace = new SimpleOrderedMap<>();
+		trace.add("time", millis(elapsed >= 0 ? elapsed : System.nanoTime() - start));
+		if (winner != null) {
+			trace.add("winner", winner);
+		}
+		phases.forEach((phase, time) -> trace.add(phase, millis(time)));
+
+		final NamedList<Object> members = new SimpleOrderedMap<>();
+		for (int index = 0; index < steps.length; index++) {
+			final Step step = steps[index];
+			if (step == null) {
+				continue;
+			}
+
+			final NamedList<Object> member = new SimpleOrderedMap<>();
+			member.add("index", index);
+			member.add("outcome", step.outcome);
+			if (step.reason != null) {
+				member.add("reason", step.reason);
+			}
+			if (step.elapsed >= 0) {
+				member.add("time", millis(step.elapsed));
+			}
+			if (step.hits >= 0) {
+				member.add("hits", step.hits);
+			}
+			if (step.timing != null) {
+				member.add("timing", step.timing);
+			}
+			members.add(chain.get(index), member);
+		}
+		trace.add("steps", members);
+		return trace;
+	}
+
+	@Override
+	public String toString() {
+		return asNamedList().toString();
+	}
+
+	private Step step(final int index) {
+		if (steps[index] == null) {
+			steps[index] = new Step();
+		}
+		return steps[index];
+	}
+
+	private static double millis(final long nanos) {
+		return nanos / 1_000_000d;
+	}
+}
@@ -0,0 +1,149 @@
+package io.sease.crh;
+
+/**
+ * The circuit breaker of a chain member.
+ * <br/> <br/>
+ * The breaker keeps a rolling window with the outcome of the last N executions of the member: whether the execution
+ * was slow (i.e. slower than the latency threshold) and whether it failed (i.e. an error or a timeout). Once the
+ * window holds enough samples, the breaker opens when
+ *
+ * <ul>
+ *     <li>the latency percentile is above the threshold (that is, the ratio of slow executions is above 1 - percentile), or</li>
+ *     <li>the error rate is above the threshold.</li>
+ * </ul>
+ *
+ * An open breaker doesn't allow any execution (the member is skipped) until the cooldown period elapses: then a
+ * single trial execution is allowed (half-open). If the trial is fine the breaker closes (with an empty window),
+ * otherwise it opens again. If the trial outcome never arrives (e.g. the trial has been cancelled) another trial is
+ * allowed after a further cooldown period.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class CircuitBreaker {
+	final static int CLOSED = 0;
+	final static int OPEN = 1;
+	final static int HALF_OPEN = 2;
+
+	private final boolean [] slow;
+	private final boolean [] failed;
+	private final long latencyThreshold;
+	private final double slowRate;
+	private final double errorRate;
+	private final int minSamples;
+	private final long cooldown;
+
+	private int size;
+	private int position;
+	private int slowCount;
+	private int failedCount;
+	private int state = CLOSED;
+	private long openedAt;
+
+	/**
+	 * Builds a new (closed) circuit breaker.
+	 *
+	 * @param window the size of the rolling window (number of executions).
+	 * @param minSamples the minimum number of executions in the window, before opening.
+	 * @param latencyThreshold the latency threshold in nanoseconds, or 0 if the latency doesn't open the breaker.
+	 * @param percentile the latency percentile which is compared with the threshold, in (0, 1).
+	 * @param errorRate the maximum error rate, in (0, 1].
+	 * @param cooldown how long (in nanoseconds) the breaker stays open before allowing a trial execution.
+	 */
+	CircuitBreaker(
+			final int window,
+			final int minSamples,
+			final long latencyThreshold,
+			final double percentile,
+			final double errorRate,
+			final long cooldown) {
+		this.slow = new boolean[Math.max(1, window)];
+		this.failed = new boolean[slow.length];
+		this.minSamples = Math.max(1, Math.min(minSamples, slow.length));
+		this.latencyThreshold = latencyThreshold;
+		this.slowRate = 1d - percentile;
+		this.errorRate = errorRate;
+		this.cooldown = cooldown;
+	}
+
+	/**
+	 * Returns true if the chain member can be executed.
+	 *
+	 * @return true if the chain member can be executed, false if it must be skipped.
+	 */
+	synchronized boolean allow() {
+		if (state == CLOSED) {
+			return true;
+		}
+
+		final long now = System.nanoTime();
+		if (now - openedAt < cooldown) {
+			return false;
+		}
+
+		state = HALF_OPEN;
+		openedAt = now;
+		return true;
+	}
+
+	/**
+	 * Records the outcome of an execution.
+	 *
+	 * @param latency the execution time, in nanoseconds.
+	 * @param failure true if the execution failed (i.e. error or timeout).
+	 */
+	synchronized void record(final long latency, final boolean failure) {
+		final boolean tooSlow = latencyThreshold > 0 && latency > latencyThreshold;
+		if (state == HALF_OPEN) {
+			if (failure || tooSlow) {
+				open();
+			} else {
+				close();
+			}
+			return;
+		} else if (state == OPEN) {
+			// A late outcome of an execution which started before opening
+			return;
+		}
+
+		if (size == slow.length) {
+			slowCount -= slow[position] ? 1 : 0;
+			failedCount -= failed[position] ? 1 : 0;
+		} else {
+			size++;
+		}
+
+		slow[position] = tooSlow;
+		failed[position] = failure;
+		slowCount += tooSlow ? 1 : 0;
+		failedCount += failure ? 1 : 0;
+		position = (position + 1) % slow.length;
+
+		if (size >= minSamples
+				&& ((latencyThreshold > 0 && slowCount > slowRate * size) || failedCount > errorRate * size)) {
+			open();
+		}
+	}
+
+	/**
+	 * Returns the state of this breaker.
+	 *
+	 * @return the state of this breaker ({@link #CLOSED}, {@link #OPEN} or {@link #HALF_OPEN}).
+	 */
+	synchronized int state() {
+		return state;
+	}
+
+	private void open() {
+		state = OPEN;
+		openedAt = System.nanoTime();
+	}
+
+	private void close() {
+		state = CLOSED;
+		size = 0;
+		position = 0;
+		slowCount = 0;
+		failedCount = 0;
+	}
+}
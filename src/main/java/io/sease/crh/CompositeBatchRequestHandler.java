@@ -0,0 +1,265 @@
+package io.sease.crh;
+
+import static java.util.Optional.ofNullable;
+import static org.apache.solr.common.params.SolrParams.toSolrParams;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.ContentStream;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.servlet.SolrRequestParsers;
+
+/**
+ * A {@link SolrRequestHandler} which executes the chain of a {@link CompositeRequestHandler} for many queries, in a
+ * single request.
+ * <br/> <br/>
+ * Each entry of the batch is a query string (e.g. q=nike%20shoes&amp;fq=brand:nike), and entries can be passed in
+ * the request body (one per line) or using the (repeatable) {@link #BATCH_KEY} parameter. The other request
+ * parameters are shared by all entries, as defaults. All entries are executed in parallel, on a dedicated executor,
+ * against the same {@link org.apache.solr.search.SolrIndexSearcher} of the batch request.
+ * <br/> <br/>
+ * The response contains a block for each entry, in the same order, tagged with the winning chain member:
+ *
+ * <pre>
+ * "responses": [
+ *     { "entry": 0, "winner": "/rh1", "response": { "numFound": 1, ... } },
+ *     { "entry": 1, "winner": "/rh3", "response": { "numFound": 12, ... } },
+ *     ...
+ * ]
+ * </pre>
+ *
+ * Documents are not materialized by the handler: as usual, each result is written by the response writer once the
+ * request has been executed. Note that nothing is streamed: the response is added once all the entries have been
+ * executed, so the whole batch (i.e. the result of each entry) is held in memory until it is written.
+ *
+ * <pre>
+ * &lt;requestHandler name="/batch" class="io.sease.crh.CompositeBatchRequestHandler"&gt;
+ *     &lt;str name="handler"&gt;/search&lt;/str&gt;
+ *     &lt;int name="threads"&gt;8&lt;/int&gt;
+ * &lt;/requestHandler&gt;
+ * </pre>
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class CompositeBatchRequestHandler extends RequestHandlerBase implements Closeable {
+	final static String HANDLER_KEY = "handler";
+	final static String THREADS_KEY = "threads";
+	final static String VIRTUAL_THREADS_KEY = "virtualThreads";
+	final static String MAX_ENTRIES_KEY = "maxEntries";
+	final static String BATCH_KEY = "batch";
+
+	final static String RESPONSES_KEY = "responses";
+	final static String ENTRY_KEY = "entry";
+	final static String WINNER_KEY = "winner";
+	final static String ERROR_KEY = "error";
+
+	final static int DEFAULT_MAX_ENTRIES = 10000;
+
+	String handlerName;
+	int maxEntries;
+	private ExecutorService executor;
+
+	@Override
+	public void init(final NamedList args) {
+		super.init(args);
+		final SolrParams configuration = toSolrParams(args);
+		handlerName = configuration.get(HANDLER_KEY);
+		if (handlerName == null || handlerName.trim().isEmpty()) {
+			throw new SolrException(
+					SolrException.ErrorCode.SERVER_ERROR,
+					"The handler parameter is required, and it must refer to a CompositeRequestHandler.");
+		}
+
+		maxEntries = configuration.getInt(MAX_ENTRIES_KEY, DEFAULT_MAX_ENTRIES);
+		if (executor == null) {
+			executor = ChainExecutors.newExecutor(
+					"compositeBatchHandler",
+					configuration.getInt(THREADS_KEY, CompositeRequestHandler.DEFAULT_SPECULATIVE_THREADS),
+					configuration.getBool(VIRTUAL_THREADS_KEY, false));
+		}
+	}
+
+	@Override
+	public void close() {
+		if (executor != null) {
+			ExecutorUtil.shutdownAndAwaitTermination(executor);
+		}
+	}
+
+	@Override
+	public void handleRequestBody(final SolrQueryRequest request, final SolrQueryResponse response) throws Exception {
+		final CompositeRequestHandler composite = composite(request);
+		final List<SolrParams> entries = entries(request);
+
+		final ModifiableSolrParams shared = new ModifiableSolrParams(request.getParams());
+		shared.remove(BATCH_KEY);
+
+		// The searcher is lazily acquired by the request, and that is not thread-safe: do that here, once.
+		request.getSearcher();
+
+		final Date now = ofNullable(SolrRequestInfo.getRequestInfo()).map(SolrRequestInfo::getNOW).orElse(null);
+		final List<Future<NamedList<Object>>> executions = new ArrayList<>(entries.size());
+		try {
+			for (int index = 0; index < entries.size(); index++) {
+				executions.add(executor.submit(entry(composite, request, response, index, SolrParams.wrapDefaults(entries.get(index), shared), now)));
+			}
+
+			final List<NamedList<Object>> responses = new ArrayList<>(entries.size());
+			for (final Future<NamedList<Object>> execution : executions) {
+				responses.add(execution.get());
+			}
+			response.add(RESPONSES_KEY, responses);
+		} catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, exception);
+		} catch (final ExecutionException exception) {
+			throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, exception.getCause());
+		} finally {
+			executions.forEach(execution -> execution.cancel(false));
+		}
+	}
+
+	/**
+	 * Creates the execution of a single batch entry.
+	 * <br/> <br/>
+	 * The handler instance which executes the entry is resolved from the entry params, as for a regular composite
+	 * request: the live configuration and the per-request chain and rules overrides (see
+	 * {@link CompositeRequestHandler#engine(SolrQueryRequest)}) apply to each entry.
+	 *
+	 * @param composite the {@link CompositeRequestHandler} the batch handler refers to.
+	 * @param request the batch request.
+	 * @param response the batch response.
+	 * @param index the entry index.
+	 * @param params the entry params (including the shared ones).
+	 * @param now the NOW associated with the batch request, if any.
+	 * @return the execution of a single batch entry, which produces the corresponding response block.
+	 */
+	Callable<NamedList<Object>> entry(
+			final CompositeRequestHandler composite,
+			final SolrQueryRequest request,
+			final SolrQueryResponse response,
+			final int index,
+			final SolrParams params,
+			final Date now) {
+		final Map<Object, Object> context = ofNullable(request.getContext()).map(HashMap::new).orElseGet(HashMap::new);
+		context.put(CommonParams.PATH, handlerName);
+		return () -> {
+			final NamedList<Object> block = new SimpleOrderedMap<>();
+			block.add(ENTRY_KEY, index);
+
+			final SolrRequestInfo requestInfo = new SolrRequestInfo(request, response);
+			if (now != null) {
+				requestInfo.setNOW(now);
+			}
+
+			SolrRequestInfo.setRequestInfo(requestInfo);
+			try (final SolrQueryRequest entryRequest = composite.newFrom(request, params, context)) {
+				CountProbe.defaults(entryRequest, composite);
+
+				final SolrQueryResponse entryResponse = new SolrQueryResponse();
+				entryResponse.addResponseHeader(new SimpleOrderedMap<>());
+
+				final Optional<Map.Entry<String, SolrQueryResponse>> winner = composite.engine(entryRequest).execute(entryRequest, entryResponse);
+				block.add(WINNER_KEY, winner.map(Map.Entry::getKey).orElse(null));
+
+				final SolrQueryResponse result = winner.map(Map.Entry::getValue).orElse(entryResponse);
+				if (result.getException() != null) {
+					block.add(ERROR_KEY, result.getException().getMessage());
+				} else {
+					block.add(CompositeRequestHandler.RESPONSE_KEY, result.getValues().get(CompositeRequestHandler.RESPONSE_KEY));
+				}
+			} catch (final RuntimeException exception) {
+				block.add(ERROR_KEY, exception.getMessage());
+			} finally {
+				SolrRequestInfo.clearRequestInfo();
+			}
+			return block;
+		};
+	}
+
+	/**
+	 * Returns the batch entries of the given request.
+	 *
+	 * @param request the batch request.
+	 * @return the batch entries of the given request, as a list of parameters.
+	 * @throws IOException in case of I/O failure while reading the request body.
+	 */
+	List<SolrParams> entries(final SolrQueryRequest request) throws IOException {
+		final List<SolrParams> entries = new ArrayList<>();
+		for (final String entry : ofNullable(request.getParams().getParams(BATCH_KEY)).orElseGet(() -> new String[0])) {
+			add(entries, entry);
+		}
+
+		final Iterable<ContentStream> streams = request.getContentStreams();
+		if (streams != null) {
+			for (final ContentStream stream : streams) {
+				try (final Reader reader = stream.getReader(); final BufferedReader lines = new BufferedReader(reader)) {
+					String line;
+					while ((line = lines.readLine()) != null) {
+						add(entries, line);
+					}
+				}
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the {@link CompositeRequestHandler} this batch handler refers to.
+	 *
+	 * @param request the batch request.
+	 * @return the {@link CompositeRequestHandler} this batch handler refers to.
+	 */
+	CompositeRequestHandler composite(final SolrQueryRequest request) {
+		final SolrRequestHandler handler = request.getCore().getRequestHandler(handlerName);
+		if (!(handler instanceof CompositeRequestHandler)) {
+			throw new SolrException(
+					SolrException.ErrorCode.SERVER_ERROR,
+					"The handler " + handlerName + " is not a CompositeRequestHandler.");
+		}
+		return (CompositeRequestHandler) handler;
+	}
+
+	private void add(final List<SolrParams> entries, final String entry) {
+		if (entry == null || entry.trim().isEmpty()) {
+			return;
+		}
+
+		if (entries.size() == maxEntries) {
+			throw new SolrException(
+					SolrException.ErrorCode.BAD_REQUEST,
+					"Too many batch entries (the maximum is " + maxEntries + ")");
+		}
+		entries.add(SolrRequestParsers.parseQueryString(entry.trim()));
+	}
+
+	@Override
+	public String getDescription() {
+		return "A RequestHandler that executes the chain of a CompositeRequestHandler for many queries.";
+	}
+}
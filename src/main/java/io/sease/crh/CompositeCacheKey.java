@@ -0,0 +1,133 @@
+package io.sease.crh;
+
+import static java.util.Arrays.asList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+
+/**
+ * The key of the composite result cache.
+ * <br/> <br/>
+ * A key is composed by the name of the composite handler, a normalized signature of the request parameters and a
+ * fingerprint of the chain configuration (chain and rules), so a change in the configuration never hits entries
+ * computed with a different one. Parameters that don't affect the search results (e.g. the response format) are
+ * not part of the signature, the order of parameters is not relevant, and the same applies to the order of filters.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class CompositeCacheKey {
+	final static Set<String> IGNORED_PARAMS = new HashSet<>(asList(
+			CommonParams.WT,
+			CommonParams.VERSION,
+			CommonParams.OMIT_HEADER,
+			CommonParams.HEADER_ECHO_PARAMS,
+			CommonParams.DEBUG,
+			CommonParams.DEBUG_QUERY,
+			"indent",
+			"json.nl",
+			"json.wrf",
+			"_",
+			CompositeRequestHandler.AFFINITY_KEY));
+
+	private final String handler;
+	private final String configuration;
+	private final String signature;
+	private final SolrParams params;
+	private final int hashCode;
+
+	/**
+	 * Builds a new key.
+	 *
+	 * @param handler the composite handler name.
+	 * @param configuration the chain configuration fingerprint.
+	 * @param params the request parameters.
+	 */
+	CompositeCacheKey(final String handler, final String configuration, final SolrParams params) {
+		this.handler = handler;
+		this.configuration = configuration;
+		this.params = normalize(params);
+		this.signature = this.params.toString();
+		this.hashCode = 31 * (31 * String.valueOf(handler).hashCode() + configuration.hashCode()) + signature.hashCode();
+	}
+
+	/**
+	 * Returns the name of the composite handler this key belongs to.
+	 *
+	 * @return the name of the composite handler this key belongs to.
+	 */
+	String handler() {
+		return handler;
+	}
+
+	/**
+	 * Returns the (normalized) request parameters, which can be used for replaying the request (e.g. autowarming).
+	 *
+	 * @return the (normalized) request parameters.
+	 */
+	SolrParams params() {
+		return params;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof CompositeCacheKey)) return false;
+
+		final CompositeCacheKey that = (CompositeCacheKey) obj;
+		return hashCode == that.hashCode
+				&& signature.equals(that.signature)
+				&& configuration.equals(that.configuration)
+				&& String.valueOf(handler).equals(String.valueOf(that.handler));
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return handler + "?" + signature;
+	}
+
+	/**
+	 * Creates a normalized copy of the given parameters: names are sorted, the ignored parameters are removed and
+	 * filter queries are sorted as well.
+	 *
+	 * @param params the request parameters.
+	 * @return a normalized copy of the given parameters.
+	 */
+	static SolrParams normalize(final SolrParams params) {
+		final List<String> names = new ArrayList<>();
+		for (final Iterator<String> iterator = params.getParameterNamesIterator(); iterator.hasNext();) {
+			final String name = iterator.next();
+			if (!IGNORED_PARAMS.contains(name)) {
+				names.add(name);
+			}
+		}
+		Collections.sort(names);
+
+		final ModifiableSolrParams normalized = new ModifiableSolrParams();
+		for (final String name : names) {
+			final String [] values = params.getParams(name);
+			if (CommonParams.FQ.equals(name) && values.length > 1) {
+				final String [] sorted = values.clone();
+				Arrays.sort(sorted);
+				normalized.set(name, sorted);
+			} else {
+				normalized.set(name, values);
+			}
+		}
+		return normalized;
+	}
+}
@@ -1,39 +1,70 @@
 package io.sease.crh;
 
-import static java.lang.Integer.parseInt;
 import static java.util.Arrays.stream;
 import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.toList;
 import static org.apache.solr.common.params.SolrParams.toSolrParams;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.util.*;
-import java.util.function.Function;
-import java.util.function.IntPredicate;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
 
+import org.apache.lucene.index.IndexReader;
+import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.GroupParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.ShardParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.ExecutorUtil;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.PluginBag;
+import org.apache.solr.core.PluginInfo;
+import org.apache.solr.core.RequestParams;
+import org.apache.solr.core.SolrConfig;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.RequestHandlerBase;
 import org.apache.solr.handler.component.SearchHandler;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.request.LocalSolrQueryRequest;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.request.SolrQueryRequestBase;
 import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.request.SolrRequestInfo;
 import org.apache.solr.response.BasicResultContext;
 import org.apache.solr.response.ResultContext;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.search.DocList;
 import org.apache.solr.search.DocSlice;
+import org.apache.solr.search.SolrCache;
 import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SolrReturnFields;
+import org.apache.solr.search.SyntaxError;
 import org.apache.solr.util.RTimerTree;
-import org.eclipse.jetty.http.HttpParser.RequestHandler;
+import org.apache.solr.util.plugin.SolrCoreAware;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 
 /**
  * A {@link SolrRequestHandler} which orchestrates two or more {@link SolrRequestHandler} instances.
  * Each handler needs to be defined, as usual, within the solrconfig.xml.
  * <br/> <br/>
+ * The chain references are resolved once, when the core informs this handler (see {@link #inform(SolrCore)}): a
+ * reference to an unknown handler, or to a handler which is not a {@link SearchHandler}, is a configuration error.
+ * <br/> <br/>
  * Other than declaring the chain members (i.e. the request handlers that will be orchestrated), this component allows
  * you to define a "transition" rule, that is: a cardinality-based rule, which will be applied on the results of a
  * give search handler in order to indicate if a further processing is needed (i.e. if the control should be passed
@@ -43,7 +74,9 @@ import org.eclipse.jetty.http.HttpParser.RequestHandler;
  * Initially there was just one rule for controlling the flow between the configured handlers: if the response of the
  * nth handler was empty (i.e. zero results) then the control would flow through the next member.
  *
- * With the enhancement described above, it's possible to manage interesting scenarios, with chains like the following:
+ * With the enhancement described above, it's possible to manage interesting scenarios, with chains like the following
+ * (see {@link RuleCompiler} for the complete rule syntax, which includes ranges, maximum score thresholds and boolean
+ * combinations):
  *
  * <ul>
  *     <li>
@@ -60,79 +93,1620 @@ import org.eclipse.jetty.http.HttpParser.RequestHandler;
  *     </li>
  * </ul>
  *
+ * Rules are compiled once, at initialisation time, and by default they are evaluated on the size of the result page
+ * (i.e. {@link DocList#size()}). The {@link #RULES_HITS_KEY} parameter allows to evaluate them on the total number
+ * of matches (numFound).
+ * <br/> <br/>
+ * By default the chain members are invoked sequentially, one after the other. Optionally, the handler can run in a
+ * "speculative" mode (see {@link #SPECULATIVE_LOOKAHEAD_KEY}), where the next N chain members are executed at the
+ * same time on a dedicated executor: the returned response is still the one produced by the first member (in chain
+ * order) whose rule accepts the result, while the other (in-flight or completed) executions are cancelled or
+ * discarded. How the chain is walked (sequentially, speculatively, adaptively or in backfill mode, see below) is
+ * chosen once, at initialisation time (see {@link ExecutionStrategy}), and the options which don't apply to the
+ * chosen mode are rejected (see {@link #init(NamedList)}).
+ * <br/> <br/>
+ * Another optional mode is the "probe" mode (see {@link #PROBE_KEY}): each non-final member is first evaluated with a
+ * cheap count-only execution (see {@link CountProbe}) which stops as soon as the outcome of the corresponding rule
+ * cannot change anymore. Only the member that wins is then executed in full. In a distributed request (e.g. SolrCloud)
+ * the probe gathers the collection-wide count with a single rows=0 round-trip to the shards (see
+ * {@link DistributedProbe}), and only the winner executes the full distributed search. In any case, the shard
+ * requests of a chain member are routed to the chain member itself, so the rules are never evaluated on per-shard
+ * counts.
+ * <br/> <br/>
+ * A chain whose leading members run the same query with a decreasing minimum should match (e.g. mm=100%, 75%, 1)
+ * can be evaluated as a "relaxation ladder" (see {@link #LADDER_KEY} and {@link RelaxationLadder}): a single pass
+ * over the postings counts the matches of every level, and only the strictest member whose rule passes is executed.
+ * <br/> <br/>
+ * With the {@link #DEFERRED_KEY} parameter enabled, the non-final members are executed in two phases (see
+ * {@link DeferredResponse}): the rule is evaluated after the query phase, and the expensive components (e.g. facets,
+ * highlighting, debug) are processed only for the member that wins.
+ * <br/> <br/>
+ * With the {@link #AFFINITY_KEY} parameter enabled, the response carries an opaque token (see {@link PagingAffinity})
+ * which identifies the winning member: the follow-up page requests which pass the token back go straight to that
+ * member, so they don't repeat the chain walk and the winner doesn't change between pages.
+ * <br/> <br/>
+ * With the {@link #COALESCE_KEY} parameter enabled, identical concurrent requests (on the same searcher) are
+ * coalesced: only one of them walks the chain, and the others share its outcome (see {@link SingleFlight}).
+ * <br/> <br/>
+ * The number of concurrent chain steps can be capped by an {@link AdmissionController} (see
+ * {@link #ADMISSION_PERMITS_KEY}), which weights each request by its expected fall-through depth and rejects (503)
+ * the requests which cannot be admitted within a bounded queue and wait time.
+ * <br/> <br/>
+ * Debug requests get the execution trace of the chain (see {@link ChainTrace}) in the debug section of the response:
+ * the time, hits and rule outcome of each member, and the reason why a member has been skipped. The same trace is
+ * logged for the (sampled) requests which take longer than a given threshold (see {@link #SLOW_LOG_THRESHOLD_KEY}).
+ * <br/> <br/>
+ * The handler can also use a composite result cache (see {@link #RESULT_CACHE_KEY}), that is, a user-defined
+ * {@link SolrCache} which maps a normalized signature of the request parameters (plus the chain configuration) to
+ * the winning member: on a cache hit, the winner is directly invoked and the whole chain is skipped. Being a
+ * searcher-level cache, it follows the {@link SolrIndexSearcher} lifecycle, and it can be autowarmed using the
+ * {@link CompositeResultCacheRegenerator}.
+ * <br/> <br/>
+ * With the {@link #SHARED_WORK_KEY} parameter enabled, the filter queries (and, where possible, the main query)
+ * are parsed once per composite request, and the resulting work is shared among the chain members (see
+ * {@link SharedWork}).
+ * <br/> <br/>
+ * In "adaptive" mode (see {@link #ADAPTIVE_KEY}) the handler learns which member usually wins for a given class of
+ * queries (see {@link WinStatistics}). When the prediction is confident enough, the likely winner is executed
+ * straight away, on a dedicated thread, while the preceding members are walked as usual: the outcome is exactly the
+ * same of the ordered walk, but when the prediction is right the likely winner doesn't wait for its predecessors.
+ * <br/> <br/>
+ * The "timeAllowed" request parameter can be used as a time budget for the whole chain (see {@link #TIME_BUDGET_KEY}
+ * and {@link #DEADLINES_KEY}): each member gets, as its own timeAllowed, the minimum between its deadline and the
+ * remaining budget, so a slow member is abandoned (through the usual Solr timeout mechanism) and the control passes to
+ * the next member. When the budget is (nearly) exhausted the walk jumps straight to the final member. The abandoned
+ * members are listed in the response header.
+ * <br/> <br/>
+ * Last, in "backfill" mode (see {@link #BACKFILL_KEY}) the rules are not used: the chain is walked, and the hits of
+ * each member are appended (without duplicates) to the hits of the previous members, until the requested page is
+ * filled (see {@link Backfill}). The response contains a single, merged, result and the provenance (i.e. the producing
+ * member) of each hit. The merged hits are written with the return fields of the first member, so the members must
+ * return the same fields. Having no winner, the backfill mode cannot be combined with the options which rely on it
+ * (e.g. the paging affinity and the result cache).
+ * <br/> <br/>
+ * Each chain member can be protected by a circuit breaker (see {@link #BREAKERS_KEY} and {@link CircuitBreaker}),
+ * driven by its rolling latency percentile and error rate: while a breaker is open the member is skipped, and the
+ * control passes to the next member. In addition, a "degraded" chain (see {@link #DEGRADED_CHAIN_KEY}), that is, a
+ * subset of the chain members, is automatically used when the node is under pressure (see {@link PressureMonitor}).
+ * The skipped members and the degraded mode are reported in the response header.
+ * <br/> <br/>
+ * The handler can be reconfigured without a core reload (see {@link #LIVE_PARAMS_KEY}): its configuration can be
+ * overridden by a paramset, managed through the Request Parameters API, and each change is applied, atomically, to
+ * the new requests.
+ * <br/> <br/>
+ * The most frequent requests can be recorded in a bounded sketch (see {@link #WARMING_QUERIES_KEY} and
+ * {@link HeavyHitters}), so the {@link CompositeWarmingListener} can replay them against a new searcher, before it is
+ * registered. Only a sample of the requests is recorded (see {@link #WARMING_SAMPLING_KEY}), and the recorded
+ * frequencies are halved at each new searcher, so the replayed requests follow the current traffic.
+ * <br/> <br/>
+ * Besides the usual handler metrics, the handler exposes per-member metrics (latency, invocations, wins and
+ * fall-through ratio) and the distribution of the chain steps evaluated per request (see {@link ChainMetrics}).
+ *
  * @author agazzarini
  * @since 1.0
  */
-public class CompositeRequestHandler extends RequestHandlerBase {
+public class CompositeRequestHandler extends RequestHandlerBase implements SolrCoreAware, Closeable {
+	/**
+	 * The chain members resolved against a given {@link SolrCore}, in chain order.
+	 * A null slot is a lazy handler that hasn't been loaded yet: it will be resolved on first use.
+	 */
+	private final static class Bindings {
+		private final SolrCore core;
+		private final SearchHandler [] handlers;
+
+		private Bindings(final SolrCore core, final SearchHandler [] handlers) {
+			this.core = core;
+			this.handlers = handlers;
+		}
+	}
+
+	/**
+	 * The configuration currently applied by a live-configurable handler (see {@link #LIVE_PARAMS_KEY}): the paramset
+	 * it has been built from (or null, if the paramset doesn't exist) and the handler instance which executes the
+	 * requests.
+	 */
+	private final static class Live {
+		private final SolrParams source;
+		private final CompositeRequestHandler engine;
+
+		private Live(final SolrParams source, final CompositeRequestHandler engine) {
+			this.source = source;
+			this.engine = engine;
+		}
+	}
+
+	/**
+	 * The request of a chain member execution: a lightweight view over the caller request.
+	 * Params are not copied (members don't change them: defaults, appends and invariants are layered on top), the
+	 * request shares the searcher and the start time of the caller request, and the timer is created only if someone
+	 * asks for it (i.e. debug timing).
+	 */
+	final static class StepRequest extends SolrQueryRequestBase {
+		private final SolrQueryRequest parent;
+		private final Map<Object, Object> context;
+		private RTimerTree timer;
+
+		StepRequest(final SolrQueryRequest parent, final SolrParams params, final Map<Object, Object> context) {
+			super(parent.getCore(), params, null);
+			this.parent = parent;
+			this.context = context;
+		}
+
+		@Override
+		public RTimerTree getRequestTimer() {
+			if (timer == null) {
+				timer = new RTimerTree();
+			}
+			return timer;
+		}
+
+		@Override
+		public Map<Object, Object> getContext() {
+			return context;
+		}
+
+		@Override
+		public SolrIndexSearcher getSearcher() {
+			return parent.getSearcher();
+		}
+
+		@Override
+		public long getStartTime() {
+			return parent.getStartTime();
+		}
+	}
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
 	private final static DocList EMPTY_DOCLIST = new DocSlice(0, 0, new int[0], new float[0], 0, 0f);
 	private final static String EMPTY_STRING = "";
 	
 	public final static String RESPONSE_KEY = "response"; // If only SolrQueryResponse.RESPONSE_KEY would be public ;)
 	private final static String RESPONSE_HEADER_KEY = "responseHeader"; // If only SolrQueryResponse.RESPONSE_HEADER_KEY would be public ;)
 
-	final static String CHAIN_KEY= "chain";
-	final static String RULES_KEY= "rules";
+	final static String CHAIN_KEY= "chain";
+	final static String RULES_KEY= "rules";
+	final static String RULES_HITS_KEY = "rules.hits";
+	final static String NUM_FOUND = "numFound";
+
+	final static String SPECULATIVE_LOOKAHEAD_KEY = "speculative.lookahead";
+	final static String SPECULATIVE_THREADS_KEY = "speculative.threads";
+	final static String SPECULATIVE_VIRTUAL_THREADS_KEY = "speculative.virtualThreads";
+
+	final static String PROBE_KEY = "probe";
+	final static String LADDER_KEY = "ladder";
+	final static String RESULT_CACHE_KEY = "resultCache";
+	final static String SHARED_WORK_KEY = "sharedWork";
+	final static String SHARED_WORK_PARSER_KEY = "sharedWork.parser";
+
+	final static String TIME_BUDGET_KEY = "timeBudget";
+	final static String TIME_BUDGET_RESERVE_KEY = "timeBudget.reserve";
+	final static String DEADLINES_KEY = "deadlines";
+	final static String ABANDONED_KEY = "abandoned";
+	private final static String ABANDONED_CONTEXT_KEY = CompositeRequestHandler.class.getName() + "." + ABANDONED_KEY;
+
+	final static String BACKFILL_KEY = "backfill";
+	final static String PROVENANCE_KEY = "provenance";
+
+	final static String DEFERRED_KEY = "deferred";
+
+	final static String AFFINITY_KEY = "affinity";
+	final static String AFFINITY_STALE_KEY = "affinity.stale";
+
+	final static String COALESCE_KEY = "coalesce";
+	final static String COALESCE_TIMEOUT_KEY = "coalesce.timeout";
+	final static long DEFAULT_COALESCE_TIMEOUT = 1000;
+
+	final static String ADMISSION_PERMITS_KEY = "admission.permits";
+	final static String ADMISSION_QUEUE_KEY = "admission.queue";
+	final static String ADMISSION_WAIT_KEY = "admission.wait";
+	final static long DEFAULT_ADMISSION_WAIT = 1000;
+	private final static String STEPS_CONTEXT_KEY = CompositeRequestHandler.class.getName() + ".steps";
+	private final static String SETTLED_CONTEXT_KEY = CompositeRequestHandler.class.getName() + ".settled";
+
+	final static String TRACE_KEY = "chain";
+	final static String SLOW_LOG_THRESHOLD_KEY = "slowLog.threshold";
+	final static String SLOW_LOG_SAMPLING_KEY = "slowLog.sampling";
+	private final static String TRACE_CONTEXT_KEY = CompositeRequestHandler.class.getName() + "." + TRACE_KEY;
+	private final static String DEBUG_KEY = "debug";
+
+	final static String ADAPTIVE_KEY = "adaptive";
+	final static String ADAPTIVE_DECAY_KEY = "adaptive.decay";
+	final static String ADAPTIVE_CONFIDENCE_KEY = "adaptive.confidence";
+	final static String ADAPTIVE_MIN_SAMPLES_KEY = "adaptive.minSamples";
+
+	final static float DEFAULT_ADAPTIVE_DECAY = 0.99f;
+	final static float DEFAULT_ADAPTIVE_CONFIDENCE = 0.9f;
+	final static float DEFAULT_ADAPTIVE_MIN_SAMPLES = 20f;
+
+	final static String WARMING_QUERIES_KEY = "warming.queries";
+	final static String WARMING_SAMPLING_KEY = "warming.sampling";
+	final static float DEFAULT_WARMING_SAMPLING = 0.1f;
+	final static String LIVE_PARAMS_KEY = "liveParams";
+	final static String OVERRIDES_KEY = "overrides";
+	final static String OVERRIDES_MEMBERS_KEY = "overrides.members";
+
+	final static String BREAKERS_KEY = "breakers";
+	final static String BREAKER_LATENCY_KEY = "breaker.latency";
+	final static String BREAKER_PERCENTILE_KEY = "breaker.percentile";
+	final static String BREAKER_ERROR_RATE_KEY = "breaker.errorRate";
+	final static String BREAKER_WINDOW_KEY = "breaker.window";
+	final static String BREAKER_MIN_SAMPLES_KEY = "breaker.minSamples";
+	final static String BREAKER_COOLDOWN_KEY = "breaker.cooldown";
+	final static String SKIPPED_KEY = "skipped";
+	private final static String SKIPPED_CONTEXT_KEY = CompositeRequestHandler.class.getName() + "." + SKIPPED_KEY;
+
+	final static String DEGRADED_CHAIN_KEY = "degraded.chain";
+	final static String DEGRADED_LOAD_KEY = "degraded.load";
+	final static String DEGRADED_IN_FLIGHT_KEY = "degraded.inFlight";
+	final static String DEGRADED_KEY = "degraded";
+	private final static String DEGRADED_CONTEXT_KEY = CompositeRequestHandler.class.getName() + "." + DEGRADED_KEY;
+
+	final static double DEFAULT_BREAKER_PERCENTILE = 0.99d;
+	final static double DEFAULT_BREAKER_ERROR_RATE = 0.5d;
+	final static int DEFAULT_BREAKER_WINDOW = 100;
+	final static int DEFAULT_BREAKER_MIN_SAMPLES = 20;
+	final static long DEFAULT_BREAKER_COOLDOWN = 5000L;
+
+	final static int DEFAULT_SPECULATIVE_THREADS = Runtime.getRuntime().availableProcessors();
+
+	List<String> chain;
+	Rule [] rules;
+
+	boolean numFound;
+	boolean probe;
+	boolean ladder;
+	boolean backfill;
+	boolean deferred;
+	boolean affinity;
+	SingleFlight flights;
+	AdmissionController admission;
+	long slowThreshold;
+	float slowSampling;
+	int lookahead;
+	ExecutionStrategy strategy;
+	String resultCacheName;
+	String sharedWorkParser;
+	String fingerprint;
+	volatile ChainMetrics metrics;
+	WinStatistics statistics;
+	HeavyHitters<CompositeCacheKey> hotQueries;
+	float hotQueriesSampling;
+	long [] deadlines;
+	long reserve;
+	CircuitBreaker [] breakers;
+	boolean [] degradedChain;
+	PressureMonitor pressure;
+	String liveParams;
+	private NamedList<Object> arguments;
+	private volatile Live live;
+	private Map<Map.Entry<String, String>, CompletableFuture<CompositeRequestHandler>> compiled;
+	private Set<String> overridable;
+	private SolrMetricManager metricManager;
+	private String metricRegistry;
+	private String metricScope;
+	private CompositeRequestHandler owner;
+	private ExecutorService executor;
+	private ExecutorService sharedExecutor;
+	private volatile Bindings bindings;
+
+	/**
+	 * Initialises this handler, and chooses how the chain is walked (see {@link ExecutionStrategy}): the
+	 * {@link BackfillExecution}, if {@link #BACKFILL_KEY} is enabled, the {@link AdaptiveExecution}, if
+	 * {@link #ADAPTIVE_KEY} is enabled, the {@link SpeculativeExecution}, if {@link #SPECULATIVE_LOOKAHEAD_KEY} is
+	 * greater than 1, or the {@link SequentialExecution}.
+	 * <br/> <br/>
+	 * The options which don't apply to the chosen strategy are rejected, instead of being silently ignored:
+	 *
+	 * <ul>
+	 *     <li>
+	 *         the backfill mode doesn't evaluate the rules and has no winner, so it cannot be combined with the
+	 *         speculative and adaptive modes, the probe, the relaxation ladder, the deferred components, the paging
+	 *         affinity and the result cache;
+	 *     </li>
+	 *     <li>
+	 *         the speculative mode executes the members within the window in full, so it cannot be combined with the
+	 *         adaptive mode, the probe and the relaxation ladder.
+	 *     </li>
+	 * </ul>
+	 *
+	 * @param args the handler configuration.
+	 * @throws SolrException in case of invalid configuration.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public void init(final NamedList args) {
+		final SolrParams configuration = toSolrParams(args);
+		bindings = null;
+		live = null;
+		arguments = ((NamedList<Object>) args).clone();
+		liveParams = configuration.get(LIVE_PARAMS_KEY);
+		compiled = compiledConfigurations(configuration.getInt(OVERRIDES_KEY, 0));
+		chain = Collections.unmodifiableList(stream(configuration.get(CHAIN_KEY, EMPTY_STRING).split(","))
+					.map(String::trim)
+					.filter(ref -> !ref.isEmpty())
+					.collect(toList()));
+
+		// By default, an overridden chain can only reorder (or drop) the configured members
+		overridable = new HashSet<>(stream(configuration.get(OVERRIDES_MEMBERS_KEY, String.join(",", chain)).split(","))
+					.map(String::trim)
+					.filter(ref -> !ref.isEmpty())
+					.collect(toList()));
+
+		if (chain.isEmpty()) {
+			throw new SolrException(
+					SolrException.ErrorCode.SERVER_ERROR,
+					"The chain parameter requires at least one request handler reference.");
+		}
+
+		final List<String> expressions = stream(configuration.get(RULES_KEY, EMPTY_STRING).split(","))
+				.map(String::trim)
+				.filter(rule -> !rule.isEmpty())
+				.collect(toList());
+
+		if (expressions.size() > chain.size()) {
+			throw new SolrException(
+					SolrException.ErrorCode.SERVER_ERROR,
+					"The rules parameter cannot contain more rules than the chain members.");
+		}
+
+		rules = IntStream.range(0, chain.size())
+				.mapToObj(index -> index < expressions.size() ? RuleCompiler.compile(expressions.get(index)) : Rule.ALWAYS)
+				.toArray(Rule[]::new);
+		rules[rules.length - 1] = Rule.ALWAYS;
+
+		numFound = NUM_FOUND.equals(configuration.get(RULES_HITS_KEY));
+
+		probe = configuration.getBool(PROBE_KEY, false);
+		ladder = configuration.getBool(LADDER_KEY, false);
+		backfill = configuration.getBool(BACKFILL_KEY, false);
+		deferred = configuration.getBool(DEFERRED_KEY, false);
+		affinity = configuration.getBool(AFFINITY_KEY, false);
+		flights = configuration.getBool(COALESCE_KEY, false)
+				? new SingleFlight(configuration.getLong(COALESCE_TIMEOUT_KEY, DEFAULT_COALESCE_TIMEOUT))
+				: null;
+
+		// A single controller caps the whole handler: the derived instances (live configurations, overrides) share it
+		final int admissionPermits = configuration.getInt(ADMISSION_PERMITS_KEY, 0);
+		if (owner != null) {
+			admission = owner.admission;
+		} else {
+			admission = admissionPermits > 0
+					? new AdmissionController(
+							admissionPermits,
+							configuration.getInt(ADMISSION_QUEUE_KEY, admissionPermits),
+							configuration.getLong(ADMISSION_WAIT_KEY, DEFAULT_ADMISSION_WAIT))
+					: null;
+		}
+		slowThreshold = configuration.getLong(SLOW_LOG_THRESHOLD_KEY, -1L);
+		slowSampling = configuration.getFloat(SLOW_LOG_SAMPLING_KEY, 1f);
+		resultCacheName = configuration.get(RESULT_CACHE_KEY);
+		sharedWorkParser = configuration.getBool(SHARED_WORK_KEY, false)
+				? configuration.get(SHARED_WORK_PARSER_KEY, SharedWorkQParserPlugin.NAME)
+				: null;
+		fingerprint = String.join(",", chain) + "|" + configuration.get(RULES_KEY, EMPTY_STRING) + "|" + numFound;
+
+		metrics = ChainMetrics.unregistered(chain.size());
+
+		final List<String> stepDeadlines = stream(configuration.get(DEADLINES_KEY, EMPTY_STRING).split(","))
+				.map(String::trim)
+				.filter(deadline -> !deadline.isEmpty())
+				.collect(toList());
+
+		if (stepDeadlines.size() > chain.size()) {
+			throw new SolrException(
+					SolrException.ErrorCode.SERVER_ERROR,
+					"The deadlines parameter cannot contain more values than the chain members.");
+		}
+
+		deadlines = configuration.getBool(TIME_BUDGET_KEY, false) || !stepDeadlines.isEmpty()
+				? IntStream.range(0, chain.size())
+					.mapToLong(index -> index < stepDeadlines.size() ? Long.parseLong(stepDeadlines.get(index)) : 0L)
+					.toArray()
+				: null;
+		reserve = configuration.getLong(TIME_BUDGET_RESERVE_KEY, 0L);
+
+		statistics = configuration.getBool(ADAPTIVE_KEY, false) && chain.size() > 1
+				? new WinStatistics(
+						chain.size(),
+						configuration.getFloat(ADAPTIVE_DECAY_KEY, DEFAULT_ADAPTIVE_DECAY),
+						configuration.getFloat(ADAPTIVE_CONFIDENCE_KEY, DEFAULT_ADAPTIVE_CONFIDENCE),
+						configuration.getFloat(ADAPTIVE_MIN_SAMPLES_KEY, DEFAULT_ADAPTIVE_MIN_SAMPLES))
+				: null;
+
+		final int warmingQueries = configuration.getInt(WARMING_QUERIES_KEY, 0);
+		hotQueries = warmingQueries > 0 ? new HeavyHitters<>(warmingQueries) : null;
+		hotQueriesSampling = configuration.getFloat(WARMING_SAMPLING_KEY, DEFAULT_WARMING_SAMPLING);
+
+		final List<String> latencyThresholds = stream(configuration.get(BREAKER_LATENCY_KEY, EMPTY_STRING).split(","))
+				.map(String::trim)
+				.filter(threshold -> !threshold.isEmpty())
+				.collect(toList());
+
+		if (latencyThresholds.size() > chain.size()) {
+			throw new SolrException(
+					SolrException.ErrorCode.SERVER_ERROR,
+					"The breaker.latency parameter cannot contain more values than the chain members.");
+		}
+
+		breakers = configuration.getBool(BREAKERS_KEY, false) || !latencyThresholds.isEmpty()
+				? IntStream.range(0, chain.size())
+					.mapToObj(index -> new CircuitBreaker(
+							configuration.getInt(BREAKER_WINDOW_KEY, DEFAULT_BREAKER_WINDOW),
+							configuration.getInt(BREAKER_MIN_SAMPLES_KEY, DEFAULT_BREAKER_MIN_SAMPLES),
+							TimeUnit.MILLISECONDS.toNanos(index < latencyThresholds.size() ? Long.parseLong(latencyThresholds.get(index)) : 0L),
+							configuration.getDouble(BREAKER_PERCENTILE_KEY, DEFAULT_BREAKER_PERCENTILE),
+							configuration.getDouble(BREAKER_ERROR_RATE_KEY, DEFAULT_BREAKER_ERROR_RATE),
+							TimeUnit.MILLISECONDS.toNanos(configuration.getLong(BREAKER_COOLDOWN_KEY, DEFAULT_BREAKER_COOLDOWN))))
+					.toArray(CircuitBreaker[]::new)
+				: null;
+
+		final List<String> degradedMembers = stream(configuration.get(DEGRADED_CHAIN_KEY, EMPTY_STRING).split(","))
+				.map(String::trim)
+				.filter(ref -> !ref.isEmpty())
+				.collect(toList());
+
+		degradedMembers.stream()
+				.filter(ref -> !chain.contains(ref))
+				.findFirst()
+				.ifPresent(ref -> {
+					throw new SolrException(
+							SolrException.ErrorCode.SERVER_ERROR,
+							"The degraded chain refers to a request handler which is not in the chain: " + ref);
+				});
+
+		if (degradedMembers.isEmpty()) {
+			degradedChain = null;
+			pressure = null;
+		} else {
+			degradedChain = new boolean[chain.size()];
+			degradedMembers.forEach(ref -> degradedChain[chain.indexOf(ref)] = true);
+			degradedChain[chain.size() - 1] = true;
+			pressure = new PressureMonitor(
+					configuration.getDouble(DEGRADED_LOAD_KEY, 0d),
+					configuration.getInt(DEGRADED_IN_FLIGHT_KEY, 0));
+		}
+
+		lookahead = Math.min(configuration.getInt(SPECULATIVE_LOOKAHEAD_KEY, 1), chain.size());
+
+		final boolean adaptive = configuration.getBool(ADAPTIVE_KEY, false);
+		if (backfill) {
+			incompatible(BACKFILL_KEY, SPECULATIVE_LOOKAHEAD_KEY, lookahead > 1);
+			incompatible(BACKFILL_KEY, ADAPTIVE_KEY, adaptive);
+			incompatible(BACKFILL_KEY, PROBE_KEY, probe);
+			incompatible(BACKFILL_KEY, LADDER_KEY, ladder);
+			incompatible(BACKFILL_KEY, DEFERRED_KEY, deferred);
+			incompatible(BACKFILL_KEY, AFFINITY_KEY, affinity);
+			incompatible(BACKFILL_KEY, RESULT_CACHE_KEY, resultCacheName != null);
+		}
+
+		if (lookahead > 1) {
+			incompatible(SPECULATIVE_LOOKAHEAD_KEY, ADAPTIVE_KEY, adaptive);
+			incompatible(SPECULATIVE_LOOKAHEAD_KEY, PROBE_KEY, probe);
+			incompatible(SPECULATIVE_LOOKAHEAD_KEY, LADDER_KEY, ladder);
+		}
+
+		executor = lookahead > 1 || statistics != null
+				? owner().sharedExecutor(
+						configuration.getInt(SPECULATIVE_THREADS_KEY, DEFAULT_SPECULATIVE_THREADS),
+						configuration.getBool(SPECULATIVE_VIRTUAL_THREADS_KEY, false))
+				: null;
+
+		if (backfill) {
+			strategy = new BackfillExecution(this);
+		} else if (statistics != null) {
+			strategy = new AdaptiveExecution(this, executor, statistics);
+		} else if (lookahead > 1) {
+			strategy = new SpeculativeExecution(this, executor, lookahead);
+		} else {
+			strategy = new SequentialExecution(this);
+		}
+	}
+
+	/**
+	 * Rejects an option which cannot be combined with the given execution mode.
+	 *
+	 * @param mode the execution mode parameter.
+	 * @param option the option parameter.
+	 * @param enabled true if the option has been configured.
+	 * @throws SolrException in case the option has been configured.
+	 */
+	private static void incompatible(final String mode, final String option, final boolean enabled) {
+		if (enabled) {
+			throw new SolrException(
+					SolrException.ErrorCode.SERVER_ERROR,
+					"The " + mode + " parameter cannot be combined with the " + option + " parameter.");
+		}
+	}
+
+	/**
+	 * Returns the registered handler instance, that is, the one declared in solrconfig.xml, which owns the resources
+	 * shared with the instances derived from it (see {@link #reconfigured(SolrCore, SolrParams)} and
+	 * {@link #compile(SolrCore, String, String)}).
+	 *
+	 * @return the registered handler instance.
+	 */
+	CompositeRequestHandler owner() {
+		return owner != null ? owner : this;
+	}
+
+	/**
+	 * Returns the executor which runs the speculative and adaptive executions.
+	 * The executor is owned by the registered handler and shared by all the instances derived from it, so a
+	 * configuration swap never shuts it down under the in-flight requests: it is created the first time an instance
+	 * needs it (with the threads settings of that instance) and it is shut down only when the registered handler is
+	 * closed.
+	 *
+	 * @param threads the maximum number of threads.
+	 * @param virtualThreads true if virtual threads should be used, where available.
+	 * @return the executor which runs the speculative and adaptive executions.
+	 */
+	private synchronized ExecutorService sharedExecutor(final int threads, final boolean virtualThreads) {
+		if (sharedExecutor == null) {
+			sharedExecutor = ChainExecutors.newExecutor("compositeRequestHandler", threads, virtualThreads);
+		}
+		return sharedExecutor;
+	}
+
+	@Override
+	public void inform(final SolrCore core) {
+		if (sharedWorkParser != null && core.getQueryPlugin(sharedWorkParser) == null) {
+			throw new SolrException(
+					SolrException.ErrorCode.SERVER_ERROR,
+					"The shared work refers to an unknown query parser: " + sharedWorkParser
+						+ " (a " + SharedWorkQParserPlugin.class.getName() + " must be registered with that name).");
+		}
+
+		final PluginBag<SolrRequestHandler> handlers = core.getRequestHandlers();
+		bindings = new Bindings(
+				core,
+				chain.stream()
+					.map(name -> {
+						if (!handlers.contains(name)) {
+							throw new SolrException(
+									SolrException.ErrorCode.SERVER_ERROR,
+									"The chain refers to an unknown request handler: " + name);
+						}
+						return handlers.isLoaded(name) ? searchHandler(name, handlers.get(name)) : null;
+					})
+					.toArray(SearchHandler[]::new));
+	}
+
+	@Override
+	public void initializeMetrics(final SolrMetricManager manager, final String registryName, final String scope) {
+		super.initializeMetrics(manager, registryName, scope);
+		metricManager = manager;
+		metricRegistry = registryName;
+		metricScope = scope;
+		metrics = ChainMetrics.registered(this, manager, registryName, getCategory().toString(), scope, chain, breakers);
+	}
+
+	@Override
+	public void close() {
+		final Live current = live;
+		if (current != null && current.engine != this) {
+			current.engine.close();
+		}
+
+		retire();
+		if (owner == null && sharedExecutor != null) {
+			ExecutorUtil.shutdownAndAwaitTermination(sharedExecutor);
+		}
+	}
+
+	/**
+	 * Releases the configurations compiled from the request overrides, when this configuration has been replaced.
+	 * The in-flight requests are not affected: they complete using the configuration they started with, and the
+	 * (shared) executor of the registered handler.
+	 */
+	void retire() {
+		if (compiled != null) {
+			compiled.clear();
+		}
+	}
+
+	/**
+	 * Returns the handler instance which executes the given request: the configured one (see
+	 * {@link #configured(SolrQueryRequest)}), or the one compiled from the chain and rules passed as request
+	 * parameters, if the per-request overrides are enabled (see {@link #OVERRIDES_KEY}).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the handler instance which executes the given request.
+	 * @throws SolrException in case the request overrides are not valid.
+	 */
+	CompositeRequestHandler engine(final SolrQueryRequest request) {
+		return configured(request).overridden(request);
+	}
+
+	/**
+	 * Returns the handler instance which implements the handler configuration.
+	 * <br/> <br/>
+	 * If the handler is live-configurable (see {@link #LIVE_PARAMS_KEY}) and the paramset has changed since the last
+	 * request, a new handler instance is built from the handler configuration overridden by the paramset values.
+	 * Each handler instance is immutable, once initialised, so the swap is atomic: in-flight requests complete with
+	 * the instance they started with, while the new requests use the new one. An invalid configuration is rejected,
+	 * and the previous one stays in place.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the handler instance which implements the handler configuration.
+	 */
+	private CompositeRequestHandler configured(final SolrQueryRequest request) {
+		if (liveParams == null) {
+			return this;
+		}
+
+		final SolrParams source = liveParams(request);
+		final Live current = live;
+		if (current != null && current.source == source) {
+			return current.engine;
+		}
+
+		synchronized (this) {
+			final Live latest = live;
+			if (latest != null && latest.source == source) {
+				return latest.engine;
+			}
+
+			final CompositeRequestHandler previous = latest != null ? latest.engine : this;
+			CompositeRequestHandler engine;
+			try {
+				engine = source != null ? reconfigured(core(request), source) : this;
+			} catch (final RuntimeException exception) {
+				LOGGER.error("Invalid live configuration (" + liveParams + "): the previous configuration is still in use.", exception);
+				engine = previous;
+			}
+
+			live = new Live(source, engine);
+			if (previous != engine && previous != this) {
+				previous.retire();
+			}
+			return engine;
+		}
+	}
+
+	/**
+	 * Returns the handler instance compiled from the chain and rules passed as request parameters.
+	 * <br/> <br/>
+	 * An overridden chain can only refer to the members listed in {@link #OVERRIDES_MEMBERS_KEY} (by default, the
+	 * configured members): otherwise any client which can reach this handler could execute any handler of the core,
+	 * bypassing the authorization rules of its path.
+	 * <br/> <br/>
+	 * The compiled configurations are kept in a bounded LRU map, keyed by the raw parameter values, so in the steady
+	 * state an override costs a single lookup. The map holds a future for each configuration, and the compilation
+	 * happens outside the map lock: the concurrent requests with the same (new) override wait for it, while the other
+	 * requests are not blocked. An evicted configuration doesn't own any resource (the executor and the admission
+	 * controller belong to the registered handler), so the in-flight requests which are using it are not affected.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the handler instance compiled from the request overrides, or this handler if there are no overrides.
+	 * @throws SolrException in case the request overrides are not valid, or refer to a member which is not allowed.
+	 */
+	CompositeRequestHandler overridden(final SolrQueryRequest request) {
+		if (compiled == null) {
+			return this;
+		}
+
+		final SolrParams params = request.getParams();
+		final String chainOverride = params.get(CHAIN_KEY);
+		final String rulesOverride = params.get(RULES_KEY);
+		if (chainOverride == null && rulesOverride == null) {
+			return this;
+		}
+
+		final Map.Entry<String, String> key = new AbstractMap.SimpleImmutableEntry<>(chainOverride, rulesOverride);
+		final CompletableFuture<CompositeRequestHandler> existing = compiled.get(key);
+		if (existing != null) {
+			return compiled(existing);
+		}
+
+		if (chainOverride != null) {
+			stream(chainOverride.split(","))
+				.map(String::trim)
+				.filter(member -> !member.isEmpty() && !overridable.contains(member))
+				.findFirst()
+				.ifPresent(member -> {
+					throw new SolrException(
+							SolrException.ErrorCode.BAD_REQUEST,
+							"The chain member " + member + " is not allowed in the request overrides.");
+				});
+		}
+
+		// Only the first request reserves the slot and compiles (outside the map lock): the others wait for it
+		final CompletableFuture<CompositeRequestHandler> reserved = new CompletableFuture<>();
+		final CompletableFuture<CompositeRequestHandler> winner = compiled.putIfAbsent(key, reserved);
+		if (winner != null) {
+			return compiled(winner);
+		}
+
+		try {
+			reserved.complete(compile(core(request), chainOverride, rulesOverride));
+		} catch (final RuntimeException exception) {
+			// An invalid override is not cached: the waiting requests get the same failure
+			compiled.remove(key, reserved);
+			reserved.completeExceptionally(exception);
+		}
+		return compiled(reserved);
+	}
+
+	/**
+	 * Waits for a compiled configuration (see {@link #overridden(SolrQueryRequest)}).
+	 *
+	 * @param compilation the compilation of a configuration.
+	 * @return the compiled configuration.
+	 * @throws SolrException in case the compilation failed.
+	 */
+	private static CompositeRequestHandler compiled(final CompletableFuture<CompositeRequestHandler> compilation) {
+		try {
+			return compilation.join();
+		} catch (final CompletionException exception) {
+			if (exception.getCause() instanceof SolrException) {
+				throw (SolrException) exception.getCause();
+			}
+			throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, exception.getCause());
+		}
+	}
+
+	/**
+	 * Builds a new handler instance, using the configuration of this handler with the given chain and rules.
+	 * The new instance shares the executor of the registered handler.
+	 *
+	 * @param core the {@link SolrCore} which owns this handler.
+	 * @param chainOverride the chain which overrides the configured one, or null.
+	 * @param rulesOverride the rules which override the configured ones, or null.
+	 * @return a new, initialised, handler instance.
+	 * @throws SolrException in case the resulting configuration is not valid.
+	 */
+	CompositeRequestHandler compile(final SolrCore core, final String chainOverride, final String rulesOverride) {
+		final NamedList<Object> args = arguments.clone();
+		args.removeAll(LIVE_PARAMS_KEY);
+		args.removeAll(OVERRIDES_KEY);
+		args.removeAll(OVERRIDES_MEMBERS_KEY);
+		if (chainOverride != null) {
+			// The member-specific settings refer to the configured members
+			args.removeAll(DEGRADED_CHAIN_KEY);
+			args.removeAll(BREAKER_LATENCY_KEY);
+			args.removeAll(CHAIN_KEY);
+			args.add(CHAIN_KEY, chainOverride);
+		}
+
+		if (rulesOverride != null) {
+			args.removeAll(RULES_KEY);
+			args.add(RULES_KEY, rulesOverride);
+		}
+
+		final CompositeRequestHandler engine = new CompositeRequestHandler();
+		engine.owner = owner();
+		try {
+			engine.init(args);
+			if (core != null) {
+				engine.inform(core);
+			}
+		} catch (final SolrException exception) {
+			throw new SolrException(
+					SolrException.ErrorCode.BAD_REQUEST,
+					"Invalid chain (" + chainOverride + ") or rules (" + rulesOverride + "): " + exception.getMessage(),
+					exception);
+		}
+
+		// The breakers of an overridden chain are not exposed: they would replace the ones of the configured chain
+		register(engine, null);
+		return engine;
+	}
+
+	/**
+	 * Creates the bounded LRU map which holds the configurations compiled from the request overrides.
+	 *
+	 * @param size the maximum number of compiled configurations.
+	 * @return the bounded LRU map which holds the compiled configurations, or null if the overrides are disabled.
+	 */
+	private Map<Map.Entry<String, String>, CompletableFuture<CompositeRequestHandler>> compiledConfigurations(final int size) {
+		if (size <= 0) {
+			return null;
+		}
+
+		return Collections.synchronizedMap(new LinkedHashMap<Map.Entry<String, String>, CompletableFuture<CompositeRequestHandler>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Map.Entry<String, String>, CompletableFuture<CompositeRequestHandler>> eldest) {
+				return size() > size;
+			}
+		});
+	}
+
+	/**
+	 * Returns the live configuration of this handler, that is, the "defaults" of the paramset (managed through the
+	 * Request Parameters API) this handler refers to.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the live configuration of this handler, or null if the paramset doesn't exist.
+	 */
+	SolrParams liveParams(final SolrQueryRequest request) {
+		final SolrCore core = core(request);
+		final SolrConfig configuration = core != null ? core.getSolrConfig() : null;
+		final RequestParams params = configuration != null ? configuration.getRequestParams() : null;
+		return params != null ? params.getParams(liveParams, PluginInfo.DEFAULTS) : null;
+	}
+
+	/**
+	 * Builds a new handler instance, using the configuration of this handler overridden by the given values.
+	 *
+	 * @param core the {@link SolrCore} which owns this handler.
+	 * @param overrides the configuration values which override the configuration of this handler.
+	 * @return a new, initialised, handler instance.
+	 * @throws SolrException in case the resulting configuration is not valid.
+	 */
+	CompositeRequestHandler reconfigured(final SolrCore core, final SolrParams overrides) {
+		final NamedList<Object> args = arguments.clone();
+		args.removeAll(LIVE_PARAMS_KEY);
+		for (final Iterator<String> names = overrides.getParameterNamesIterator(); names.hasNext();) {
+			final String name = names.next();
+			args.removeAll(name);
+			args.add(name, overrides.get(name));
+		}
+
+		final CompositeRequestHandler engine = new CompositeRequestHandler();
+		engine.owner = owner();
+		engine.init(args);
+		if (core != null) {
+			engine.inform(core);
+		}
+
+		register(engine, engine.breakers);
+		return engine;
+	}
+
+	/**
+	 * Binds the metrics of the given (derived) handler instance to the metrics of the registered handler, so the
+	 * requests it executes are reported as usual. The per-member metrics are shared by member name.
+	 *
+	 * @param engine the derived handler instance.
+	 * @param breakers the circuit breakers whose state is exposed, or null.
+	 */
+	void register(final CompositeRequestHandler engine, final CircuitBreaker [] breakers) {
+		final CompositeRequestHandler registered = owner();
+		if (registered.metricManager != null) {
+			engine.metrics = ChainMetrics.registered(
+					registered,
+					registered.metricManager,
+					registered.metricRegistry,
+					getCategory().toString(),
+					registered.metricScope,
+					engine.chain,
+					breakers);
+		}
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public void handleRequestBody(
+			final SolrQueryRequest request, 
+			final SolrQueryResponse response) {
+		// Only a sample of the requests is recorded: building the (normalized) key has a cost
+		if (hotQueries != null && ThreadLocalRandom.current().nextFloat() < hotQueriesSampling) {
+			hotQueries.add(new CompositeCacheKey(handlerName(request), fingerprint, request.getParams()));
+		}
+
+		final CompositeRequestHandler engine = engine(request);
+		final ChainTrace trace = engine.traced(request);
+		try {
+			final Optional<Map.Entry<String, SolrQueryResponse>> winner = engine.execute(request, response);
+			final SolrQueryResponse actualresponse = winner.map(Map.Entry::getValue).orElse(response);
+			if (response != actualresponse) {
+				final long start = System.nanoTime();
+				response.setAllValues(actualresponse.getValues());
+				response.getToLog().addAll(actualresponse.getToLog());
+				if (trace != null) {
+					trace.phase(ChainTrace.COPYING, System.nanoTime() - start);
+				}
+			}
+
+			if (trace != null) {
+				trace.winner(winner.map(Map.Entry::getKey).orElse(null));
+			}
+		} finally {
+			if (trace != null) {
+				engine.report(request, response, trace);
+			}
+		}
+	}
+
+	/**
+	 * Starts the execution trace of the given request, if the request asks for debug information or if it has been
+	 * sampled for the slow request log (see {@link #SLOW_LOG_THRESHOLD_KEY}).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the execution trace of the given request, or null if the request is not traced.
+	 */
+	ChainTrace traced(final SolrQueryRequest request) {
+		final Map<Object, Object> context = request.getContext();
+		if (context == null
+				|| (!debug(request.getParams())
+					&& (slowThreshold < 0 || ThreadLocalRandom.current().nextFloat() >= slowSampling))) {
+			return null;
+		}
+
+		final ChainTrace trace = new ChainTrace(chain);
+		context.put(TRACE_CONTEXT_KEY, trace);
+		return trace;
+	}
+
+	/**
+	 * Completes the execution trace of the given request: the trace is added to the debug section of the response
+	 * (if the request asks for debug information) and logged, if the request took longer than the slow request
+	 * threshold.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @param trace the execution trace of the given request.
+	 */
+	@SuppressWarnings("unchecked")
+	void report(final SolrQueryRequest request, final SolrQueryResponse response, final ChainTrace trace) {
+		final long elapsed = TimeUnit.NANOSECONDS.toMillis(trace.finish());
+		if (debug(request.getParams()) && response.getValues() != null) {
+			final Object debug = response.getValues().get(DEBUG_KEY);
+			if (debug instanceof NamedList) {
+				((NamedList<Object>) debug).add(TRACE_KEY, trace.asNamedList());
+			} else if (debug == null) {
+				final NamedList<Object> section = new SimpleOrderedMap<>();
+				section.add(TRACE_KEY, trace.asNamedList());
+				response.add(DEBUG_KEY, section);
+			}
+		}
+
+		if (slowThreshold >= 0 && elapsed >= slowThreshold) {
+			LOGGER.warn("Slow composite request ({} msecs): {} {}", elapsed, request.getParams(), trace);
+		}
+	}
+
+	/**
+	 * Returns the execution trace of the request which owns the given context, if it is traced.
+	 *
+	 * @param context the request context.
+	 * @return the execution trace of the request which owns the given context, or null.
+	 */
+	static ChainTrace trace(final Map<Object, Object> context) {
+		return context != null ? (ChainTrace) context.get(TRACE_CONTEXT_KEY) : null;
+	}
+
+	/**
+	 * Returns true if the given context belongs to a speculative execution whose chain outcome has been already
+	 * settled (see {@link #speculativeStep}).
+	 *
+	 * @param context the context of a chain member execution.
+	 * @return true if the given context belongs to a speculative execution whose chain outcome has been settled.
+	 */
+	static boolean settled(final Map<Object, Object> context) {
+		final Object settled = context != null ? context.get(SETTLED_CONTEXT_KEY) : null;
+		return settled instanceof AtomicBoolean && ((AtomicBoolean) settled).get();
+	}
+
+	/**
+	 * Returns true if the given request parameters ask for debug information.
+	 *
+	 * @param params the request parameters.
+	 * @return true if the given request parameters ask for debug information.
+	 */
+	static boolean debug(final SolrParams params) {
+		return params != null && (params.get(CommonParams.DEBUG) != null || params.getBool(CommonParams.DEBUG_QUERY, false));
+	}
+
+	/**
+	 * Executes the chain for the given request, once it has been admitted (see {@link AdmissionController}).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @return the winning chain member (i.e. its name and response), or nothing.
+	 * @throws SolrException (503) in case the request cannot be admitted.
+	 */
+	Optional<Map.Entry<String, SolrQueryResponse>> execute(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response) {
+		if (admission == null) {
+			return admittedExecution(request, response);
+		}
+
+		final int queryClass = WinStatistics.classify(request.getParams().get(CommonParams.Q));
+		final int weight;
+		try {
+			weight = admission.admit(queryClass);
+		} catch (final SolrException exception) {
+			metrics.rejectedExecution();
+			throw exception;
+		}
+
+		try {
+			final Optional<Map.Entry<String, SolrQueryResponse>> winner = admittedExecution(request, response);
+			admission.learn(queryClass, steps(request));
+			return winner;
+		} finally {
+			admission.release(weight);
+		}
+	}
+
+	/**
+	 * Records the outcome of the given request in the chain metrics, and remembers how many chain members have been
+	 * evaluated for producing it (see {@link #steps(SolrQueryRequest)}).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param index the index of the winning chain member, or -1 if no member won.
+	 * @param evaluated how many chain members have been evaluated (executed or probed) for producing the outcome.
+	 */
+	void completed(final SolrQueryRequest request, final int index, final int evaluated) {
+		metrics.completed(index, evaluated);
+		if (request.getContext() != null) {
+			request.getContext().put(STEPS_CONTEXT_KEY, evaluated);
+		}
+	}
+
+	/**
+	 * Records the outcome of a chain walk which stops at the winner (see
+	 * {@link #completed(SolrQueryRequest, int, int)}): all the members up to the winner (or the whole chain, if no
+	 * member won) have been evaluated.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param winner the winning chain member (i.e. its name and response), or nothing.
+	 * @return the given winner.
+	 */
+	Optional<Map.Entry<String, SolrQueryResponse>> walked(
+			final SolrQueryRequest request,
+			final Optional<Map.Entry<String, SolrQueryResponse>> winner) {
+		final int index = winner.map(responsePair -> chain.indexOf(responsePair.getKey())).orElse(-1);
+		completed(request, index, index >= 0 ? index + 1 : chain.size());
+		return winner;
+	}
+
+	/**
+	 * Returns how many chain members have actually been evaluated for the given request, that is, what the admission
+	 * controller learns: a cache hit or a pinned page counts 1, a coalesced request (which shares the outcome of
+	 * another request) counts 0.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return how many chain members have been evaluated for the given request.
+	 */
+	int steps(final SolrQueryRequest request) {
+		final Object steps = request.getContext() != null ? request.getContext().get(STEPS_CONTEXT_KEY) : null;
+		return steps instanceof Integer ? (Integer) steps : 0;
+	}
+
+	/**
+	 * Executes the chain for an admitted request.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @return the winning chain member (i.e. its name and response), or nothing.
+	 */
+	Optional<Map.Entry<String, SolrQueryResponse>> admittedExecution(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response) {
+		final boolean degraded = pressure != null && pressure.underPressure(pressure.enter());
+		try {
+			if (degraded) {
+				metrics.degradedExecution();
+				if (request.getContext() != null) {
+					request.getContext().put(DEGRADED_CONTEXT_KEY, Boolean.TRUE);
+				}
+			}
+
+			final Optional<Map.Entry<String, SolrQueryResponse>> winner = flights != null
+					? coalescedExecution(request, response)
+					: executeChain(request, response);
+
+			final Object skipped = request.getContext() != null ? request.getContext().get(SKIPPED_CONTEXT_KEY) : null;
+			final NamedList<Object> header = winner.map(Map.Entry::getValue).orElse(response).getResponseHeader();
+			if (header != null && degraded) {
+				header.add(DEGRADED_KEY, true);
+			}
+			if (header != null && skipped != null) {
+				header.add(SKIPPED_KEY, skipped);
+			}
+			return winner;
+		} finally {
+			if (pressure != null) {
+				pressure.exit();
+			}
+		}
+	}
+
+	/**
+	 * Executes the chain for the given request, unless an identical request is already in flight: in that case, the
+	 * current request waits for the in-flight execution and shares its outcome (see {@link SingleFlight}).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @return the winning chain member (i.e. its name and response), or nothing.
+	 */
+	Optional<Map.Entry<String, SolrQueryResponse>> coalescedExecution(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response) {
+		final Object key = flightKey(request);
+		if (key == null) {
+			return executeChain(request, response);
+		}
+
+		final CompletableFuture<SingleFlight.Outcome> flight = new CompletableFuture<>();
+		final CompletableFuture<SingleFlight.Outcome> leader = flights.join(key, flight);
+		if (leader != null) {
+			final SingleFlight.Outcome outcome = flights.follow(leader);
+			if (outcome != null) {
+				metrics.coalescedExecution();
+				final ChainTrace trace = trace(request.getContext());
+				if (trace != null) {
+					trace.outcome(chain.indexOf(outcome.winner), ChainTrace.ACCEPTED, COALESCE_KEY);
+				}
+				return Optional.of(shared(request, response, outcome));
+			}
+			return executeChain(request, response);
+		}
+
+		SingleFlight.Outcome outcome = null;
+		try {
+			final Optional<Map.Entry<String, SolrQueryResponse>> winner = executeChain(request, response);
+			outcome = winner
+					.filter(responsePair -> responsePair.getValue().getException() == null)
+					.filter(responsePair -> !partial(responsePair.getValue()))
+					.map(this::snapshot)
+					.orElse(null);
+			return winner;
+		} finally {
+			flights.land(key, flight, outcome);
+		}
+	}
+
+	/**
+	 * Returns the key which identifies identical requests, that is, the normalized request parameters plus the
+	 * searcher identity.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the key which identifies identical requests, or null if the request cannot be coalesced (e.g. debug).
+	 */
+	Object flightKey(final SolrQueryRequest request) {
+		final SolrParams params = request.getParams();
+		if (debug(params)) {
+			return null;
+		}
+
+		return new AbstractMap.SimpleImmutableEntry<>(
+				new CompositeCacheKey(handlerName(request), fingerprint, params),
+				request.getSearcher());
+	}
+
+	/**
+	 * Takes a snapshot of the given winning response, which can be shared with the coalesced requests.
+	 *
+	 * @param winner the winning chain member (i.e. its name and response).
+	 * @return a snapshot of the given winning response.
+	 */
+	SingleFlight.Outcome snapshot(final Map.Entry<String, SolrQueryResponse> winner) {
+		final NamedList<Object> values = new SimpleOrderedMap<>();
+		final NamedList<Object> source = winner.getValue().getValues();
+		for (int index = 0; index < source.size(); index++) {
+			if (!RESPONSE_HEADER_KEY.equals(source.getName(index))) {
+				values.add(source.getName(index), source.getVal(index));
+			}
+		}
+
+		final NamedList<Object> header = winner.getValue().getResponseHeader();
+		return new SingleFlight.Outcome(winner.getKey(), values, header != null ? header.clone() : null);
+	}
+
+	/**
+	 * Builds the response of a coalesced request from the outcome of the in-flight execution it waited for.
+	 * The result is bound to the coalesced request (and its return fields), so nothing which is request-specific
+	 * is shared.
+	 *
+	 * @param request the current (coalesced) {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @param outcome the outcome of the in-flight execution.
+	 * @return the winning chain member (i.e. its name and response).
+	 */
+	Map.Entry<String, SolrQueryResponse> shared(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response,
+			final SingleFlight.Outcome outcome) {
+		final SolrQueryResponse shared = newFrom(response);
+		for (int index = 0; index < outcome.values.size(); index++) {
+			final Object value = outcome.values.getVal(index);
+			if (value instanceof ResultContext) {
+				final ResultContext result = (ResultContext) value;
+				final SolrParams memberParams = result.getRequest() != null ? result.getRequest().getParams() : request.getParams();
+				shared.add(outcome.values.getName(index), new BasicResultContext(
+						result.getDocList(),
+						new SolrReturnFields(memberParams.getParams(CommonParams.FL), request),
+						request.getSearcher(),
+						result.getQuery(),
+						request));
+			} else {
+				shared.add(outcome.values.getName(index), value);
+			}
+		}
+
+		final NamedList<Object> header = shared.getResponseHeader();
+		if (header != null && outcome.header != null) {
+			for (int index = 0; index < outcome.header.size(); index++) {
+				if (header.get(outcome.header.getName(index)) == null) {
+					header.add(outcome.header.getName(index), outcome.header.getVal(index));
+				}
+			}
+		}
+		return new AbstractMap.SimpleEntry<>(outcome.winner, shared);
+	}
+
+	/**
+	 * Executes the chain for the given request, using the configured execution strategy (see {@link #strategy}),
+	 * unless the request is a follow-up page pinned to a chain member (see {@link #AFFINITY_KEY}) or its winner is
+	 * in the composite result cache (see {@link #RESULT_CACHE_KEY}).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @return the winning chain member (i.e. its name and response), or nothing.
+	 */
+	Optional<Map.Entry<String, SolrQueryResponse>> executeChain(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response) {
+		final PagingAffinity pinned = affinity ? pinned(request) : null;
+		if (pinned != null) {
+			return pinnedExecution(request, response, pinned);
+		}
+
+		final SolrCache<CompositeCacheKey, Integer> cache = resultCache(request);
+		final CompositeCacheKey key = cache != null
+				? new CompositeCacheKey(handlerName(request), fingerprint, request.getParams())
+				: null;
+		final Integer cached = key != null ? cache.get(key) : null;
+
+		final ChainTrace trace = trace(request.getContext());
+		final Optional<Map.Entry<String, SolrQueryResponse>> winner;
+		if (cached != null) {
+			winner = Optional.of(executeStep(request, response, params(request, cached), member(request, cached), cached, request.getContext(), true));
+			completed(request, cached, 1);
+			if (trace != null) {
+				trace.outcome(cached, ChainTrace.ACCEPTED, RESULT_CACHE_KEY);
+			}
+		} else {
+			shareWork(request);
+			winner = strategy.execute(request, response);
+		}
+
+		// Only the winner pays for the deferred components
+		final long secondPhase = System.nanoTime();
+		winner.map(Map.Entry::getValue)
+				.filter(DeferredResponse.class::isInstance)
+				.map(DeferredResponse.class::cast)
+				.ifPresent(DeferredResponse::secondPhase);
+		if (trace != null && deferred) {
+			trace.phase(ChainTrace.DEFERRED, System.nanoTime() - secondPhase);
+		}
+
+		// A winner that comes after a timeout, a partial response or a skipped member is not necessarily the winner:
+		// don't cache it
+		final boolean abandoned = !abandoned(request).isEmpty();
+		final boolean skipped = request.getContext() != null && request.getContext().containsKey(SKIPPED_CONTEXT_KEY);
+		if (key != null && cached == null && !abandoned && !skipped) {
+			winner.filter(responsePair -> responsePair.getValue().getException() == null)
+					.filter(responsePair -> !partial(responsePair.getValue()))
+					.ifPresent(responsePair -> cache.put(key, chain.indexOf(responsePair.getKey())));
+		}
+
+		final int winnerIndex = winner.map(responsePair -> chain.indexOf(responsePair.getKey())).orElse(-1);
+		if (statistics != null && !skipped && winnerIndex >= 0 && winner.get().getValue().getException() == null) {
+			statistics.record(WinStatistics.classify(request.getParams().get(CommonParams.Q)), winnerIndex);
+		}
+
+		final SolrQueryResponse actualresponse = winner.map(Map.Entry::getValue).orElse(response);
+		if (abandoned && actualresponse.getResponseHeader() != null) {
+			actualresponse.getResponseHeader().add(ABANDONED_KEY, abandoned(request));
+		}
+
+		if (affinity && winnerIndex >= 0 && actualresponse.getException() == null && actualresponse.getResponseHeader() != null) {
+			actualresponse.getResponseHeader().add(
+					AFFINITY_KEY,
+					new PagingAffinity(
+							winnerIndex,
+							PagingAffinity.version(request),
+							PagingAffinity.signature(fingerprint, request.getParams())).encode());
+		}
+		return winner;
+	}
+
+	/**
+	 * Returns the paging affinity token of the given request, if it is a follow-up page request which carries a token
+	 * that belongs to the same request.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the paging affinity token of the given request, or null.
+	 */
+	PagingAffinity pinned(final SolrQueryRequest request) {
+		final SolrParams params = request.getParams();
+		if (!PagingAffinity.followUp(params)) {
+			return null;
+		}
+
+		final PagingAffinity token = PagingAffinity.decode(params.get(AFFINITY_KEY));
+		return token != null
+				&& token.index >= 0
+				&& token.index < chain.size()
+				&& token.signature == PagingAffinity.signature(fingerprint, params)
+					? token
+					: null;
+	}
+
+	/**
+	 * Executes the chain member pinned by the given paging affinity token, without walking the chain.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @param pinned the paging affinity token.
+	 * @return the pinned chain member (i.e. its name and response).
+	 */
+	Optional<Map.Entry<String, SolrQueryResponse>> pinnedExecution(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response,
+			final PagingAffinity pinned) {
+		final Map.Entry<String, SolrQueryResponse> result = executeStep(
+				request,
+				response,
+				params(request, pinned.index),
+				member(request, pinned.index),
+				pinned.index,
+				request.getContext(),
+				true);
+		completed(request, pinned.index, 1);
+
+		final ChainTrace trace = trace(request.getContext());
+		if (trace != null) {
+			trace.outcome(pinned.index, ChainTrace.ACCEPTED, AFFINITY_KEY);
+		}
+
+		final NamedList<Object> header = result.getValue().getResponseHeader();
+		if (header != null) {
+			header.add(AFFINITY_KEY, pinned.encode());
+			if (pinned.version != PagingAffinity.version(request)) {
+				header.add(AFFINITY_STALE_KEY, true);
+			}
+		}
+		return Optional.of(result);
+	}
+
+	/**
+	 * Evaluates the leading members of the chain as a relaxation ladder (see {@link RelaxationLadder}).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the index of the member the chain walk has to start from.
+	 */
+	int relaxation(final SolrQueryRequest request) {
+		if (DistributedProbe.distributed(request)) {
+			return 0;
+		}
+
+		final long start = System.nanoTime();
+		final List<SolrQueryRequest> requests = new ArrayList<>(chain.size() - 1);
+		try {
+			for (int index = 0; index < chain.size() - 1; index++) {
+				final SearchHandler handler = member(request, index);
+				final SolrQueryRequest scopedRequest = newFrom(request, params(request, index));
+				requests.add(scopedRequest);
+				CountProbe.defaults(scopedRequest, handler);
+			}
+			return RelaxationLadder.start(requests, rules, !numFound);
+		} finally {
+			requests.forEach(SolrQueryRequest::close);
+
+			final ChainTrace trace = trace(request.getContext());
+			if (trace != null) {
+				trace.phase(ChainTrace.LADDER, System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the rule associated with the given chain member using a count-only execution.
+	 * If the probe cannot be used for the given member, the method answers true, so the member will be
+	 * regularly executed and the rule will be evaluated against its actual response.
+	 * <br/> <br/>
+	 * The probe gets the same "timeAllowed" of a regular execution (see {@link #params(SolrQueryRequest, int)}): if
+	 * the member has a deadline (see {@link #DEADLINES_KEY}) and the probe runs out of time, the member is abandoned,
+	 * as it would be after a regular execution.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param handler the chain member.
+	 * @param index the chain member index.
+	 * @return false if the rule associated with the given member doesn't match, true otherwise.
+	 */
+	boolean probe(final SolrQueryRequest request, final SolrRequestHandler handler, final int index) {
+		final Rule rule = rules[index];
+		final int limit = rule.saturation();
+		if (limit == Rule.UNBOUNDED) {
+			return true;
+		} else if (limit == 0) {
+			return rule.test(0, Float.NaN);
+		}
+
+		if (DistributedProbe.distributed(request)) {
+			return distributedProbe(request, handler, index);
+		}
+
+		try (final SolrQueryRequest scopedRequest = newFrom(request, params(request, index))) {
+			final int hits = CountProbe.count(scopedRequest, handler, limit, !numFound);
+			if (hits == CountProbe.TIMED_OUT) {
+				return !abandonedOnTimeout(request, index);
+			}
+			return hits == CountProbe.UNAVAILABLE || rule.test(hits, Float.NaN);
+		}
+	}
+
+	/**
+	 * Abandons the given chain member after its probe ran out of time, if the member has a deadline. Otherwise the
+	 * member is regularly executed, with the same time allowed, and its rule is evaluated against that response.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param index the chain member index.
+	 * @return true if the chain member has been abandoned.
+	 */
+	private boolean abandonedOnTimeout(final SolrQueryRequest request, final int index) {
+		if (deadlines == null || index == chain.size() - 1) {
+			return false;
+		}
+
+		abandon(request, index);
+		return true;
+	}
+
+	/**
+	 * Evaluates the rule associated with the given chain member using a distributed count-only execution, that is,
+	 * a rows=0 execution of the chain member, which collects the collection-wide number of matches.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param handler the chain member.
+	 * @param index the chain member index.
+	 * @return false if the rule associated with the given member doesn't match, true otherwise.
+	 */
+	boolean distributedProbe(final SolrQueryRequest request, final SolrRequestHandler handler, final int index) {
+		if (!(handler instanceof RequestHandlerBase)) {
+			return true;
+		}
+
+		final SolrParams stepParams = params(request, index);
+		try (final SolrQueryRequest scopedRequest = newFrom(request, stepParams)) {
+			// The decorated params are what the member would see, but the probe is built on the step params: the
+			// member decorates the probe request on its own
+			CountProbe.defaults(scopedRequest, (RequestHandlerBase) handler);
+			final SolrParams params = scopedRequest.getParams();
+			if (params.getBool(GroupParams.GROUP, false)) {
+				return true;
+			}
 
-	final static String LESSER_THAN_KEYWORD = "lt";
-	final static String GREATER_THAN_KEYWORD = "gt";
-	final static String EQUAL_KEYWORD = "eq";
+			final SolrQueryResponse probeResponse = new SolrQueryResponse();
+			probeResponse.addResponseHeader(new SimpleOrderedMap<>());
 
-	final static IntPredicate ALWAYS = x -> true;
+			final SolrQueryResponse result = executeQuery(
+					request,
+					probeResponse,
+					DistributedProbe.params(stepParams, chain.get(index)),
+					handler,
+					chain.get(index)).getValue();
 
-	final static Function<String, IntPredicate> TO_RULE = expression -> {
-		if (expression.startsWith(GREATER_THAN_KEYWORD)) {
-			return x -> x > parseInt(expression.substring(GREATER_THAN_KEYWORD.length()));
-		} else if (expression.startsWith(LESSER_THAN_KEYWORD)) {
-			return x -> x < parseInt(expression.substring(LESSER_THAN_KEYWORD.length()));
-		} else if (expression.startsWith(EQUAL_KEYWORD)) {
-			return x -> x == parseInt(expression.substring(EQUAL_KEYWORD.length()));
-		} else return x -> true;
-	};
+			if (partial(result)) {
+				return !abandonedOnTimeout(request, index);
+			}
 
-	List<String> chain;
-	private Map<String, IntPredicate> rules = new HashMap<>();
+			final long matches = DistributedProbe.numFound(result);
+			return matches == DistributedProbe.UNAVAILABLE
+					|| rules[index].test(DistributedProbe.hits(params, matches, !numFound), Float.NaN);
+		}
+	}
 
-	@Override
-	public void init(final NamedList args) {
-		chain = stream(toSolrParams(args).get(CHAIN_KEY, EMPTY_STRING).split(","))
-					.map(String::trim)
-					.filter(ref -> !ref.isEmpty())
-					.collect(toList());
+	/**
+	 * Evaluates the rule associated with the given chain member against the member response.
+	 * A non-final member whose execution has been abandoned (i.e. it timed out) never wins.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param index the chain member index.
+	 * @param response the chain member response.
+	 * @return true if the rule matches, that is, the given response is the one that will be returned.
+	 */
+	boolean accept(final SolrQueryRequest request, final int index, final SolrQueryResponse response) {
+		if (deadlines != null && index < chain.size() - 1 && partial(response)) {
+			abandon(request, index);
+			return false;
+		}
 
-		if (chain.isEmpty()) {
-			throw new SolrException(
-					SolrException.ErrorCode.SERVER_ERROR,
-					"The chain parameter requires at least one request handler reference.");
+		final boolean accepted = accept(index, response);
+		final ChainTrace trace = trace(request.getContext());
+		if (trace != null) {
+			trace.outcome(index, accepted ? ChainTrace.ACCEPTED : ChainTrace.REJECTED, null);
 		}
+		return accepted;
+	}
 
-		final Iterator<String> iterator = chain.iterator();
-		stream(toSolrParams(args).get(RULES_KEY, EMPTY_STRING).split(","))
-				.map(String::trim)
-				.filter(rule -> !rule.isEmpty())
-				.map(TO_RULE)
-				.forEach(predicate -> rules.put(iterator.next(), predicate));
+	/**
+	 * Evaluates the rule associated with the given chain member against the member response.
+	 *
+	 * @param index the chain member index.
+	 * @param response the chain member response.
+	 * @return true if the rule matches, that is, the given response is the one that will be returned.
+	 */
+	boolean accept(final int index, final SolrQueryResponse response) {
+		final Object result = response.getValues().get(RESPONSE_KEY);
+		if (result instanceof SolrDocumentList) {
+			final SolrDocumentList documents = (SolrDocumentList) result;
+			return rules[index].test(
+					numFound ? documents.getNumFound() : documents.size(),
+					documents.getMaxScore() != null ? documents.getMaxScore() : Float.NaN);
+		}
 
-		rules.put(chain.get(chain.size() - 1), ALWAYS);
+		final DocList documents = docList(response);
+		return rules[index].test(
+				numFound ? documents.matches() : documents.size(),
+				documents.hasScores() ? documents.maxScore() : Float.NaN);
 	}
-	
-	@Override
-	@SuppressWarnings("unchecked")
-	public void handleRequestBody(
-			final SolrQueryRequest request, 
-			final SolrQueryResponse response) {
-		final SolrQueryResponse actualresponse = chain.stream()
-				.map(refName -> requestHandler(request, refName))
-				.filter(pair -> pair.getValue() instanceof SearchHandler)
-				.map(pair -> executeQuery(request, response, request.getParams(), pair.getValue(), pair.getKey()))
-				.filter (responsePair -> rules.getOrDefault(responsePair.getKey(), ALWAYS).test(howManyFound(responsePair.getValue())))
-				.findFirst()
-				.map(Map.Entry::getValue)
-				.orElse(response);
 
-		if (response != actualresponse) {
-			response.setAllValues(actualresponse.getValues());
-			response.getToLog().addAll(actualresponse.getToLog());
+	/**
+	 * Returns the hits (i.e. the value the rules are evaluated on) of the given chain member response.
+	 *
+	 * @param response the chain member response.
+	 * @return the hits of the given chain member response.
+	 */
+	long hits(final SolrQueryResponse response) {
+		final Object result = response.getValues() != null ? response.getValues().get(RESPONSE_KEY) : null;
+		if (result instanceof SolrDocumentList) {
+			final SolrDocumentList documents = (SolrDocumentList) result;
+			return numFound ? documents.getNumFound() : documents.size();
 		}
+
+		final DocList documents = docList(response);
+		return numFound ? documents.matches() : documents.size();
+	}
+
+	/**
+	 * Creates a chain member execution which can be safely run in a thread different from the request thread.
+	 * Each speculative execution gets its own copy of the request context, its own copy of the response header and
+	 * its own {@link SolrRequestInfo} (sharing the same NOW of the incoming request): nothing it writes is visible to
+	 * the caller, unless it wins.
+	 * <br/> <br/>
+	 * A losing execution which is already running can outlive the composite request, so it holds its own reference to
+	 * the index reader of the request searcher (it doesn't start at all if that reader has been already released),
+	 * and once the outcome of the chain is settled it doesn't record anything in the metrics, circuit breakers and
+	 * trace (see {@link #executeStep}).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @param index the chain member index.
+	 * @param now the NOW associated with the incoming request, if any.
+	 * @param settled becomes true once the outcome of the chain has been settled.
+	 * @return a chain member execution which can be run in a thread different from the request thread.
+	 */
+	Callable<Map.Entry<String, SolrQueryResponse>> speculativeStep(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response,
+			final int index,
+			final Date now,
+			final AtomicBoolean settled) {
+		final SearchHandler handler = member(request, index);
+		final SolrParams params = params(request, index);
+		final Map<Object, Object> context = ofNullable(request.getContext()).map(HashMap::new).orElseGet(HashMap::new);
+		context.put(SETTLED_CONTEXT_KEY, settled);
+		final SolrQueryResponse isolated = isolatedFrom(response);
+		final IndexReader reader = ofNullable(request.getSearcher()).map(SolrIndexSearcher::getRawReader).orElse(null);
+		return () -> {
+			if (settled.get() || (reader != null && !reader.tryIncRef())) {
+				// The outcome is already known (or the request has been closed): this execution is useless
+				return null;
+			}
+
+			final SolrRequestInfo requestInfo = new SolrRequestInfo(request, isolated);
+			if (now != null) {
+				requestInfo.setNOW(now);
+			}
+
+			SolrRequestInfo.setRequestInfo(requestInfo);
+			try {
+				return executeStep(request, isolated, params, handler, index, context, false);
+			} finally {
+				SolrRequestInfo.clearRequestInfo();
+				if (reader != null) {
+					reader.decRef();
+				}
+			}
+		};
 	}
 	
 	/**
@@ -142,13 +1716,21 @@ public class CompositeRequestHandler extends RequestHandlerBase {
 	 * @return the total count of matches associated with the given query response.
 	 */
 	int howManyFound(final SolrQueryResponse response) {
-		return ofNullable(response)
-				.map(SolrQueryResponse::getValues)
-				.map(values -> values.get(RESPONSE_KEY))
-				.map(ResultContext.class::cast)
-				.map(ResultContext::getDocList)
-				.map(DocList::size)
-				.orElse(0);
+		return docList(response).size();
+	}
+
+	/**
+	 * Returns the {@link DocList} associated with the given query response.
+	 *
+	 * @param response the current query execution response.
+	 * @return the {@link DocList} associated with the given query response, or an empty {@link DocList}.
+	 */
+	DocList docList(final SolrQueryResponse response) {
+		final Object result = response != null && response.getValues() != null
+				? response.getValues().get(RESPONSE_KEY)
+				: null;
+		final DocList documents = result instanceof ResultContext ? ((ResultContext) result).getDocList() : null;
+		return documents != null ? documents : EMPTY_DOCLIST;
 	}
 	 
 	/**
@@ -188,15 +1770,183 @@ public class CompositeRequestHandler extends RequestHandlerBase {
 			final SolrParams params, 
 			final SolrRequestHandler handler,
 			final String name) {
-		try(final SolrQueryRequest scopedRequest = newFrom(request, params)) {
-			final SolrQueryResponse scopedResponse = newFrom(response);
+		return executeQuery(request, response, params, handler, name, request.getContext());
+	}
+
+	/**
+	 * Executes the given handler (query) logic, using the given request context.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @param params the request parameters.
+	 * @param handler the executor handler.
+	 * @param name the executor name.
+	 * @param context the context of the request that will be passed to the handler.
+	 * @return the query response, that is, the result of the handler's query execution.
+	 */
+	Map.Entry<String, SolrQueryResponse> executeQuery(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response,
+			final SolrParams params,
+			final SolrRequestHandler handler,
+			final String name,
+			final Map<Object, Object> context) {
+		final long start = System.nanoTime();
+		final SolrQueryResponse scopedResponse = deadlines != null ? isolatedFrom(response) : newFrom(response);
+		final ChainTrace trace = trace(context);
+		if (trace != null) {
+			trace.phase(ChainTrace.CLONING, System.nanoTime() - start);
+		}
+		return executeQuery(request, params, handler, name, context, scopedResponse);
+	}
+
+	/**
+	 * Executes the given handler (query) logic, using the given request context and writing in the given response.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param params the request parameters.
+	 * @param handler the executor handler.
+	 * @param name the executor name.
+	 * @param context the context of the request that will be passed to the handler.
+	 * @param scopedResponse the response the handler will write in.
+	 * @return the query response, that is, the result of the handler's query execution.
+	 */
+	Map.Entry<String, SolrQueryResponse> executeQuery(
+			final SolrQueryRequest request,
+			final SolrParams params,
+			final SolrRequestHandler handler,
+			final String name,
+			final Map<Object, Object> context,
+			final SolrQueryResponse scopedResponse) {
+		final long start = System.nanoTime();
+		try(final SolrQueryRequest scopedRequest = newFrom(request, params, context)) {
+			final ChainTrace trace = trace(context);
+			if (trace != null) {
+				trace.phase(ChainTrace.CLONING, System.nanoTime() - start);
+			}
+
 			handler.handleRequest(
 					scopedRequest, 
 					scopedResponse); 
+
+			timed(trace, chain.indexOf(name), scopedRequest);
 			return new AbstractMap.SimpleEntry<>(name, scopedResponse);
 		}
 	}
 	
+	/**
+	 * Executes the chain member at the given position, collecting the corresponding metrics. Nothing is collected for
+	 * a speculative execution which completes after the outcome of the chain has been settled (see
+	 * {@link #speculativeStep}): its timing is not representative, and it could fail just because the request searcher
+	 * has been released, tripping the circuit breaker of a healthy member.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @param params the request parameters.
+	 * @param handler the chain member.
+	 * @param index the chain member index.
+	 * @param context the context of the request that will be passed to the handler.
+	 * @param direct true if the chain member can directly write in the caller response (i.e. it is going to win).
+	 * @return the query response, that is, the result of the handler's query execution.
+	 */
+	Map.Entry<String, SolrQueryResponse> executeStep(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response,
+			final SolrParams params,
+			final SolrRequestHandler handler,
+			final int index,
+			final Map<Object, Object> context,
+			final boolean direct) {
+		final long start = System.nanoTime();
+		Map.Entry<String, SolrQueryResponse> result = null;
+		try {
+			if (direct) {
+				result = executeQuery(request, params, handler, chain.get(index), context, response);
+			} else if (deferrable(request, handler, index)) {
+				result = executeFirstPhase(request, response, params, (SearchHandler) handler, index, context);
+			} else {
+				result = executeQuery(request, response, params, handler, chain.get(index), context);
+			}
+			return result;
+		} finally {
+			final long elapsed = System.nanoTime() - start;
+			if (settled(context)) {
+				return result;
+			}
+
+			metrics.invoked(index, elapsed);
+			if (breakers != null) {
+				breakers[index].record(elapsed, result == null || failed(result.getValue()));
+			}
+
+			final ChainTrace trace = trace(context);
+			if (trace != null) {
+				trace.executed(
+						index,
+						elapsed,
+						result != null ? hits(result.getValue()) : -1,
+						result == null || result.getValue().getException() != null);
+			}
+		}
+	}
+
+	/**
+	 * Records, in the given execution trace, the timing collected by a chain member (i.e. debug timing).
+	 *
+	 * @param trace the execution trace, or null if the request is not traced.
+	 * @param index the chain member index.
+	 * @param scopedRequest the request of the chain member execution.
+	 */
+	void timed(final ChainTrace trace, final int index, final SolrQueryRequest scopedRequest) {
+		if (trace != null && index >= 0 && scopedRequest instanceof StepRequest && ((StepRequest) scopedRequest).timer != null) {
+			trace.timing(index, ((StepRequest) scopedRequest).timer.asNamedList());
+		}
+	}
+
+	/**
+	 * Returns true if the chain member at the given position can be executed in two phases (see
+	 * {@link #DEFERRED_KEY}), that is, if it is a non-final member whose request is not distributed.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param handler the chain member.
+	 * @param index the chain member index.
+	 * @return true if the chain member at the given position can be executed in two phases.
+	 */
+	boolean deferrable(final SolrQueryRequest request, final SolrRequestHandler handler, final int index) {
+		return deferred
+				&& index < chain.size() - 1
+				&& handler instanceof SearchHandler
+				&& ((SearchHandler) handler).getComponents() != null
+				&& !DistributedProbe.distributed(request);
+	}
+
+	/**
+	 * Executes the first phase of the chain member at the given position (see {@link DeferredResponse}).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @param params the request parameters.
+	 * @param handler the chain member.
+	 * @param index the chain member index.
+	 * @param context the context of the request that will be passed to the handler.
+	 * @return the query response, whose deferred components are processed only if the member wins.
+	 */
+	Map.Entry<String, SolrQueryResponse> executeFirstPhase(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response,
+			final SolrParams params,
+			final SearchHandler handler,
+			final int index,
+			final Map<Object, Object> context) {
+		final NamedList<Object> header = response.getResponseHeader();
+		final DeferredResponse scopedResponse = new DeferredResponse(deadlines != null && header != null ? header.clone() : header);
+		try (final SolrQueryRequest scopedRequest = newFrom(request, params, context)) {
+			scopedResponse.firstPhase(scopedRequest, handler);
+			timed(trace(context), index, scopedRequest);
+			return new AbstractMap.SimpleEntry<>(chain.get(index), scopedResponse);
+		}
+	}
+
 	/**
 	 * Creates a new {@link SolrQueryRequest} from a given prototype and injects there a set of params. 
 	 * 
@@ -205,20 +1955,20 @@ public class CompositeRequestHandler extends RequestHandlerBase {
 	 * @return a {@link SolrQueryRequest} clone.
 	 */
 	public SolrQueryRequest newFrom(final SolrQueryRequest request, final SolrParams params) {
-		return new SolrQueryRequestBase(
-				request.getCore(), 
-				new ModifiableSolrParams(params), 
-				new RTimerTree()) {
-			@Override
-			public Map<Object, Object> getContext() {
-				return request.getContext();
-			}
-			
-			@Override
-			public SolrIndexSearcher getSearcher() {
-				return request.getSearcher();
-			}
-		};
+		return newFrom(request, new ModifiableSolrParams(params), request.getContext());
+	}
+
+	/**
+	 * Creates a new {@link SolrQueryRequest} from a given prototype and injects there a set of params and a context.
+	 * Params are not copied: the new request is a view over the given params (see {@link StepRequest}).
+	 *
+	 * @param request the prototype {@link SolrQueryRequest}.
+	 * @param params the parameters that will be injected.
+	 * @param context the request context that will be injected.
+	 * @return a {@link SolrQueryRequest} clone.
+	 */
+	SolrQueryRequest newFrom(final SolrQueryRequest request, final SolrParams params, final Map<Object, Object> context) {
+		return new StepRequest(request, params, context);
 	}
 	
 	/**
@@ -234,18 +1984,333 @@ public class CompositeRequestHandler extends RequestHandlerBase {
 	}
 	
 	/**
-	 * Returns the {@link RequestHandler} associated with the given name.
-	 * 
+	 * Creates a new {@link SolrQueryResponse} from a given prototype, with a copy of its response header.
+	 * That is needed when the chain members can time out, so a partial results flag doesn't leak from a member to the
+	 * others, and for the members running off the request thread, which would otherwise write in the caller header
+	 * concurrently.
+	 *
+	 * @param response the original {@link SolrQueryResponse}.
+	 * @return a clone of the incoming response.
+	 */
+	SolrQueryResponse isolatedFrom(final SolrQueryResponse response) {
+		final SolrQueryResponse clone = new SolrQueryResponse();
+		final NamedList<Object> header = response.getResponseHeader();
+		clone.addResponseHeader(header != null ? header.clone() : null);
+		return clone;
+	}
+
+	/**
+	 * Returns the chain member at the given position.
+	 * Members are resolved once, against the core of the request: they are resolved again only if the core changes
+	 * (e.g. the first request after a reload that didn't pass through {@link #inform(SolrCore)}), while lazy
+	 * handlers are resolved the first time they are used.
+	 *
 	 * @param request the current {@link SolrQueryRequest}.
-	 * @param name the name of the requested {@link RequestHandler}.
-	 * @return the {@link RequestHandler} associated with the given name (actually a pair that includes also its name).
+	 * @param index the chain member index.
+	 * @return the {@link SearchHandler} at the given position in the chain.
 	 */
-	Map.Entry<String, SolrRequestHandler> requestHandler(final SolrQueryRequest request, final String name) throws IllegalArgumentException{
-		return new AbstractMap.SimpleEntry<>(
-				name,
-				core(request).getRequestHandler(name));
+	SearchHandler member(final SolrQueryRequest request, final int index) {
+		final SolrCore core = core(request);
+		Bindings current = bindings;
+		if (current == null || current.core != core) {
+			current = new Bindings(core, new SearchHandler[chain.size()]);
+			bindings = current;
+		}
+
+		SearchHandler handler = current.handlers[index];
+		if (handler == null) {
+			final String name = chain.get(index);
+			handler = searchHandler(name, core.getRequestHandler(name));
+			current.handlers[index] = handler;
+		}
+		return handler;
 	}
-	
+
+	/**
+	 * Checks that the given request handler can be a member of the chain.
+	 *
+	 * @param name the request handler name.
+	 * @param handler the request handler.
+	 * @return the given request handler, as a {@link SearchHandler}.
+	 * @throws SolrException in case the given handler is unknown or it is not a {@link SearchHandler}.
+	 */
+	SearchHandler searchHandler(final String name, final SolrRequestHandler handler) {
+		if (handler == null) {
+			throw new SolrException(
+					SolrException.ErrorCode.SERVER_ERROR,
+					"The chain refers to an unknown request handler: " + name);
+		} else if (!(handler instanceof SearchHandler)) {
+			throw new SolrException(
+					SolrException.ErrorCode.SERVER_ERROR,
+					"The chain member " + name + " is not a SearchHandler (" + handler.getClass().getName() + ")");
+		}
+		return (SearchHandler) handler;
+	}
+
+	/**
+	 * Creates the {@link SharedWork} of the given composite request (if that feature is enabled) and attaches it to
+	 * the request context.
+	 * <br/> <br/>
+	 * The shared work is local to this core, so it doesn't apply to distributed requests: the rewritten params would
+	 * reach the shards, which don't have any shared work in their request context.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 */
+	void shareWork(final SolrQueryRequest request) {
+		if (sharedWorkParser == null
+				|| request.getContext() == null
+				|| DistributedProbe.distributed(request)
+				|| request.getSearcher() == null) {
+			return;
+		}
+
+		try {
+			request.getContext().put(SharedWork.CONTEXT_KEY, SharedWork.create(request, sharedWorkParser, chain.size()));
+		} catch (final SyntaxError exception) {
+			throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, exception);
+		} catch (final IOException exception) {
+			throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, exception);
+		}
+	}
+
+	/**
+	 * Returns the parameters that will be used for executing the given chain member.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param index the chain member index.
+	 * @return the parameters that will be used for executing the given chain member.
+	 */
+	SolrParams params(final SolrQueryRequest request, final int index) {
+		final SharedWork work = sharedWorkParser != null ? SharedWork.of(request) : null;
+		final SolrParams params = work != null ? work.params(index, member(request, index)) : request.getParams();
+
+		final long timeAllowed = deadlines != null ? timeAllowed(request, index) : 0L;
+		final boolean routeShards = params != null
+				&& params.get(ShardParams.SHARDS_QT) == null
+				&& DistributedProbe.distributed(request);
+		if (timeAllowed <= 0 && !routeShards) {
+			return params;
+		}
+
+		final ModifiableSolrParams overrides = new ModifiableSolrParams();
+		if (timeAllowed > 0) {
+			overrides.set(CommonParams.TIME_ALLOWED, Long.toString(timeAllowed));
+		}
+
+		if (routeShards) {
+			// Shard requests must reach the chain member, not this handler
+			overrides.set(ShardParams.SHARDS_QT, chain.get(index));
+		}
+		return SolrParams.wrapDefaults(overrides, params);
+	}
+
+	/**
+	 * Returns the time (in milliseconds) the given chain member is allowed to run: that is the minimum between its
+	 * deadline and the remaining time budget (minus the reserve, for the non-final members).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param index the chain member index.
+	 * @return the time the given chain member is allowed to run, or 0 if there's no limit.
+	 */
+	long timeAllowed(final SolrQueryRequest request, final int index) {
+		final long deadline = deadlines[index];
+		final long remaining = remaining(request);
+		if (remaining == Long.MAX_VALUE) {
+			return Math.max(0L, deadline);
+		}
+
+		final long available = Math.max(1L, index < chain.size() - 1 ? remaining - reserve : remaining);
+		return deadline > 0 ? Math.min(deadline, available) : available;
+	}
+
+	/**
+	 * Returns true if the remaining time budget is not enough for running a non-final member.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return true if the remaining time budget is not enough for running a non-final member.
+	 */
+	boolean exhausted(final SolrQueryRequest request) {
+		return deadlines != null && remaining(request) <= reserve;
+	}
+
+	/**
+	 * Returns the remaining time budget, in milliseconds.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the remaining time budget, or {@link Long#MAX_VALUE} if the request has no time budget.
+	 */
+	long remaining(final SolrQueryRequest request) {
+		final long budget = request.getParams().getLong(CommonParams.TIME_ALLOWED, -1L);
+		return budget > 0
+				? budget - (System.currentTimeMillis() - request.getStartTime())
+				: Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns true if the given chain member response is partial, that is, its execution timed out.
+	 *
+	 * @param response the chain member response.
+	 * @return true if the given chain member response is partial.
+	 */
+	boolean partial(final SolrQueryResponse response) {
+		final NamedList<Object> header = response.getResponseHeader();
+		return header != null && Boolean.TRUE.equals(header.get(SolrQueryResponse.RESPONSE_HEADER_PARTIAL_RESULTS_KEY));
+	}
+
+	/**
+	 * Returns true if the given chain member response is a failure, from the circuit breaker perspective: that is an
+	 * error or (when the member responses are isolated) a timeout.
+	 *
+	 * @param response the chain member response.
+	 * @return true if the given chain member response is a failure.
+	 */
+	boolean failed(final SolrQueryResponse response) {
+		return response.getException() != null || (deadlines != null && partial(response));
+	}
+
+	/**
+	 * Returns true if the given chain member must be skipped, because its circuit breaker is open or because the
+	 * request is executed with the degraded chain and the member is not part of it. The final member is never
+	 * skipped. The skipped members are collected in the request context, and reported in the final response header.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param index the chain member index.
+	 * @return true if the given chain member must be skipped.
+	 */
+	@SuppressWarnings("unchecked")
+	boolean skipped(final SolrQueryRequest request, final int index) {
+		if (index == chain.size() - 1) {
+			return false;
+		}
+
+		final Map<Object, Object> context = request.getContext();
+		final boolean degraded = degradedChain != null
+				&& !degradedChain[index]
+				&& context != null
+				&& context.containsKey(DEGRADED_CONTEXT_KEY);
+		final boolean skip = degraded || (breakers != null && !breakers[index].allow());
+		if (skip) {
+			metrics.skipped(index);
+			if (context != null) {
+				((List<String>) context.computeIfAbsent(SKIPPED_CONTEXT_KEY, key -> new ArrayList<String>())).add(chain.get(index));
+			}
+
+			final ChainTrace trace = trace(context);
+			if (trace != null) {
+				trace.outcome(index, ChainTrace.SKIPPED, degraded ? DEGRADED_KEY : BREAKERS_KEY);
+			}
+		}
+		return skip;
+	}
+
+	/**
+	 * Records that the given chain member has been abandoned because of its deadline (or the time budget).
+	 * The abandoned members are collected in the request context, and reported in the final response header.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param index the chain member index.
+	 */
+	@SuppressWarnings("unchecked")
+	void abandon(final SolrQueryRequest request, final int index) {
+		final Map<Object, Object> context = request.getContext();
+		if (context != null) {
+			((List<String>) context.computeIfAbsent(ABANDONED_CONTEXT_KEY, key -> new ArrayList<String>())).add(chain.get(index));
+		}
+
+		final ChainTrace trace = trace(context);
+		if (trace != null) {
+			trace.outcome(index, ChainTrace.ABANDONED, null);
+		}
+	}
+
+	/**
+	 * Returns the chain members which have been abandoned (see {@link #abandon(SolrQueryRequest, int)}).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the names of the abandoned chain members, possibly empty.
+	 */
+	@SuppressWarnings("unchecked")
+	List<String> abandoned(final SolrQueryRequest request) {
+		final Object abandoned = request.getContext() != null ? request.getContext().get(ABANDONED_CONTEXT_KEY) : null;
+		return abandoned != null ? (List<String>) abandoned : Collections.emptyList();
+	}
+
+	/**
+	 * Returns the composite result cache, if it has been configured.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the composite result cache, or null if it hasn't been configured (or there's no searcher).
+	 */
+	@SuppressWarnings("unchecked")
+	SolrCache<CompositeCacheKey, Integer> resultCache(final SolrQueryRequest request) {
+		if (resultCacheName == null) {
+			return null;
+		}
+
+		final SolrIndexSearcher searcher = request.getSearcher();
+		return searcher != null ? searcher.getCache(resultCacheName) : null;
+	}
+
+	/**
+	 * Returns the name (i.e. the path) this handler has been invoked with.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the name (i.e. the path) this handler has been invoked with.
+	 */
+	String handlerName(final SolrQueryRequest request) {
+		return ofNullable(request.getContext())
+				.map(context -> (String) context.get(CommonParams.PATH))
+				.orElseGet(() -> request.getParams().get(CommonParams.QT));
+	}
+
+	/**
+	 * Returns the most frequent requests received by this handler, if the handler has been configured for recording
+	 * them (see {@link #WARMING_QUERIES_KEY}).
+	 *
+	 * @param howMany the maximum number of requests to return.
+	 * @return the most frequent requests received by this handler, most frequent first.
+	 */
+	List<CompositeCacheKey> hotQueries(final int howMany) {
+		return hotQueries != null ? hotQueries.top(howMany) : Collections.emptyList();
+	}
+
+	/**
+	 * Halves the frequencies of the recorded requests (see {@link HeavyHitters#decay()}), so the requests which were
+	 * frequent long ago gradually leave room for the current ones. That is done each time a new searcher is warmed.
+	 */
+	void decayHotQueries() {
+		if (hotQueries != null) {
+			hotQueries.decay();
+		}
+	}
+
+	/**
+	 * Replays a request against a given (new) searcher. This is used for autowarming the composite result cache and
+	 * by the {@link CompositeWarmingListener}. Replayed requests are not recorded as hot queries.
+	 *
+	 * @param searcher the {@link SolrIndexSearcher} being warmed.
+	 * @param name the name of this handler.
+	 * @param params the request parameters.
+	 */
+	void warm(final SolrIndexSearcher searcher, final String name, final SolrParams params) {
+		final SolrQueryRequest request = new LocalSolrQueryRequest(searcher.getCore(), params) {
+			@Override
+			public SolrIndexSearcher getSearcher() {
+				return searcher;
+			}
+		};
+		request.getContext().put(CommonParams.PATH, name);
+
+		final SolrQueryResponse response = new SolrQueryResponse();
+		SolrRequestInfo.setRequestInfo(new SolrRequestInfo(request, response));
+		try {
+			engine(request).execute(request, response);
+		} finally {
+			SolrRequestInfo.clearRequestInfo();
+			request.close();
+		}
+	}
+
 	/**
 	 * Returns the {@link SolrCore} associated with the given request.
 	 * 
@@ -0,0 +1,47 @@
+package io.sease.crh;
+
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.search.CacheRegenerator;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * {@link CacheRegenerator} for the composite result cache.
+ * <br/> <br/>
+ * Autowarming cannot simply copy the old entries, because after a commit a different chain member could win.
+ * Instead, each old key is replayed through the owning {@link CompositeRequestHandler} against the new searcher:
+ * that re-populates the composite cache and, as a side effect, the caches of the chain members.
+ *
+ * <pre>
+ * &lt;cache name="compositeCache"
+ *        class="solr.LRUCache"
+ *        size="512"
+ *        initialSize="512"
+ *        autowarmCount="64"
+ *        regenerator="io.sease.crh.CompositeResultCacheRegenerator"/&gt;
+ * </pre>
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class CompositeResultCacheRegenerator implements CacheRegenerator {
+	@Override
+	@SuppressWarnings("rawtypes")
+	public boolean regenerateItem(
+			final SolrIndexSearcher newSearcher,
+			final SolrCache newCache,
+			final SolrCache oldCache,
+			final Object oldKey,
+			final Object oldVal) {
+		if (oldKey instanceof CompositeCacheKey) {
+			final CompositeCacheKey key = (CompositeCacheKey) oldKey;
+			final SolrRequestHandler handler = key.handler() != null
+					? newSearcher.getCore().getRequestHandler(key.handler())
+					: null;
+			if (handler instanceof CompositeRequestHandler) {
+				((CompositeRequestHandler) handler).warm(newSearcher, key.handler(), key.params());
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,88 @@
+package io.sease.crh;
+
+import static org.apache.solr.common.params.SolrParams.toSolrParams;
+
+import java.lang.invoke.MethodHandles;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.AbstractSolrEventListener;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A newSearcher listener which replays the most frequent requests of a {@link CompositeRequestHandler} against the
+ * new searcher, before it is registered.
+ * <br/> <br/>
+ * Each replayed request walks the whole chain, so it warms the caches of the chain members which are actually
+ * involved (including the fall-through ones) and the composite-level state (e.g. the composite result cache).
+ * The composite handler must record its most frequent requests (see
+ * {@link CompositeRequestHandler#WARMING_QUERIES_KEY}):
+ *
+ * <pre>
+ * &lt;listener event="newSearcher" class="io.sease.crh.CompositeWarmingListener"&gt;
+ *     &lt;str name="handler"&gt;/search&lt;/str&gt;
+ *     &lt;int name="queries"&gt;32&lt;/int&gt;
+ * &lt;/listener&gt;
+ *
+ * &lt;requestHandler name="/search" class="io.sease.crh.CompositeRequestHandler"&gt;
+ *     &lt;str name="chain"&gt;/rh1,/rh2,/rh3&lt;/str&gt;
+ *     &lt;str name="rules"&gt;eq1,gt0,always&lt;/str&gt;
+ *     &lt;int name="warming.queries"&gt;256&lt;/int&gt;
+ * &lt;/requestHandler&gt;
+ * </pre>
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class CompositeWarmingListener extends AbstractSolrEventListener {
+	private final static Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+	final static String HANDLER_KEY = "handler";
+	final static String QUERIES_KEY = "queries";
+
+	final static int DEFAULT_QUERIES = 16;
+
+	String handlerName;
+	int queries;
+
+	public CompositeWarmingListener(final SolrCore core) {
+		super(core);
+	}
+
+	@Override
+	public void init(final NamedList args) {
+		super.init(args);
+		final SolrParams configuration = toSolrParams(args);
+		handlerName = configuration.get(HANDLER_KEY);
+		if (handlerName == null || handlerName.trim().isEmpty()) {
+			throw new SolrException(
+					SolrException.ErrorCode.SERVER_ERROR,
+					"The handler parameter is required, and it must refer to a CompositeRequestHandler.");
+		}
+		queries = configuration.getInt(QUERIES_KEY, DEFAULT_QUERIES);
+	}
+
+	@Override
+	public void newSearcher(final SolrIndexSearcher newSearcher, final SolrIndexSearcher currentSearcher) {
+		final SolrRequestHandler handler = getCore().getRequestHandler(handlerName);
+		if (!(handler instanceof CompositeRequestHandler)) {
+			LOGGER.warn("Composite warming skipped: {} is not a CompositeRequestHandler.", handlerName);
+			return;
+		}
+
+		final CompositeRequestHandler composite = (CompositeRequestHandler) handler;
+		for (final CompositeCacheKey query : composite.hotQueries(queries)) {
+			try {
+				composite.warm(newSearcher, handlerName, query.params());
+			} catch (final RuntimeException exception) {
+				LOGGER.warn("Composite warming failure for " + query, exception);
+			}
+		}
+		composite.decayHotQueries();
+	}
+}
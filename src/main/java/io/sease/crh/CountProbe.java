@@ -0,0 +1,275 @@
+package io.sease.crh;
+
+import static java.util.Optional.ofNullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.ExitableDirectoryReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.GroupParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.QueryParsing;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SolrQueryTimeoutImpl;
+import org.apache.solr.search.SyntaxError;
+import org.apache.solr.util.SolrPluginUtils;
+
+/**
+ * A cheap, count-only, execution of a chain member.
+ * <br/> <br/>
+ * The probe parses the member query and filters (after applying the member defaults, appends and invariants) and
+ * counts the matching documents without scoring, sorting or materializing anything. Most important, the counting
+ * stops as soon as a given limit is reached: a transition rule like "gt0" doesn't need to know how many documents
+ * match, but just if there's at least one match.
+ * <br/> <br/>
+ * The probe is not available (and a regular execution is needed) when the request cannot be reduced to a plain
+ * query + filters search (e.g. grouping, post filters) or there's no searcher associated with the request.
+ * <br/> <br/>
+ * Note that the probe only runs the query parsing: search components which change the hit set of the member (e.g.
+ * the QueryElevationComponent, which adds the elevated documents and removes the excluded ones) are ignored, so the
+ * count could differ from the numFound of a regular execution.
+ * <br/> <br/>
+ * The probe is bound by the "timeAllowed" of the chain member (e.g. its deadline, see
+ * {@link CompositeRequestHandler#DEADLINES_KEY}), exactly like a regular execution: a probe which runs out of time
+ * stops, and its outcome is {@link #TIMED_OUT}.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class CountProbe {
+	final static int UNAVAILABLE = -1;
+	final static int TIMED_OUT = -2;
+
+	private final static String DEFAULTS_KEY = "defaults";
+	private final static String APPENDS_KEY = "appends";
+	private final static String INVARIANTS_KEY = "invariants";
+
+	/**
+	 * Thrown by the probe collector once the limit has been reached. Being a pure control-flow signal, it doesn't
+	 * carry any stack trace.
+	 */
+	private final static class LimitReached extends RuntimeException {
+		private LimitReached() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * Thrown by the counting collector when the time allowed to the probe has been exhausted.
+	 */
+	private final static class TimedOut extends RuntimeException {
+		private TimedOut() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * How many documents are collected between two checks of the time allowed to the probe.
+	 */
+	private final static int TIMEOUT_CHECK_INTERVAL = 1024;
+
+	private CountProbe() {}
+
+	/**
+	 * Counts the hits of the given chain member, up to the given limit.
+	 * Depending on the requested semantic, the hits are the number of matches (i.e. numFound) or the size of the
+	 * page a regular execution would produce.
+	 *
+	 * @param request the chain member request; its params are going to be decorated with the member defaults.
+	 * @param handler the chain member.
+	 * @param limit the number of hits after which the counting stops.
+	 * @param pageSize true if the hits are the size of the result page, false if they are the number of matches.
+	 * @return the number of hits (up to the given limit), {@link #UNAVAILABLE} if the probe cannot be used, or
+	 * 			{@link #TIMED_OUT} if the time allowed to the chain member has been exhausted.
+	 */
+	static int count(final SolrQueryRequest request, final SolrRequestHandler handler, final int limit, final boolean pageSize) {
+		final SolrIndexSearcher searcher = request.getSearcher();
+		if (searcher == null || !(handler instanceof RequestHandlerBase)) {
+			return UNAVAILABLE;
+		}
+
+		defaults(request, (RequestHandlerBase) handler);
+
+		final SolrParams params = request.getParams();
+		if (params.getBool(GroupParams.GROUP, false)) {
+			return UNAVAILABLE;
+		}
+
+		// The same timeout mechanism of a regular execution (see SearchHandler)
+		final long timeAllowed = params.getLong(CommonParams.TIME_ALLOWED, -1L);
+		if (timeAllowed > 0) {
+			SolrQueryTimeoutImpl.set(timeAllowed);
+		}
+
+		try {
+			final Query query = query(request);
+			final List<Query> filters = filters(request);
+
+			final BooleanQuery.Builder probe = new BooleanQuery.Builder().add(query, BooleanClause.Occur.MUST);
+			if (!filters.isEmpty()) {
+				final SolrIndexSearcher.ProcessedFilter filter = searcher.getProcessedFilter(null, filters);
+				if (filter.postFilter != null) {
+					return UNAVAILABLE;
+				}
+
+				final Query topFilter = filter.filter != null
+						? filter.filter
+						: (filter.answer != null ? filter.answer.getTopFilter() : null);
+				if (topFilter != null) {
+					probe.add(topFilter, BooleanClause.Occur.FILTER);
+				}
+			}
+
+			final int count = count(searcher, probe.build(), pageSize ? matchesLimit(params, limit) : limit);
+			return pageSize && count != TIMED_OUT ? pageSize(params, count) : count;
+		} catch (final ExitableDirectoryReader.ExitingReaderException exception) {
+			return TIMED_OUT;
+		} catch (final SyntaxError | IOException exception) {
+			// Let the regular execution deal with (and report) the problem
+			return UNAVAILABLE;
+		} finally {
+			if (timeAllowed > 0) {
+				SolrQueryTimeoutImpl.reset();
+			}
+		}
+	}
+
+	/**
+	 * Parses the main query of the given chain member request.
+	 *
+	 * @param request the chain member request, already decorated with the member defaults.
+	 * @return the main query of the given request.
+	 * @throws SyntaxError in case the query cannot be parsed.
+	 */
+	static Query query(final SolrQueryRequest request) throws SyntaxError {
+		final SolrParams params = request.getParams();
+		return ofNullable(
+				QParser.getParser(
+						params.get(CommonParams.Q),
+						params.get(QueryParsing.DEFTYPE, QParserPlugin.DEFAULT_QTYPE),
+						request).getQuery())
+				.orElseGet(MatchNoDocsQuery::new);
+	}
+
+	/**
+	 * Parses the filter queries of the given chain member request.
+	 *
+	 * @param request the chain member request, already decorated with the member defaults.
+	 * @return the filter queries of the given request.
+	 * @throws SyntaxError in case a filter query cannot be parsed.
+	 */
+	static List<Query> filters(final SolrQueryRequest request) throws SyntaxError {
+		final List<Query> filters = new ArrayList<>();
+		for (final String fq : ofNullable(request.getParams().getParams(CommonParams.FQ)).orElseGet(() -> new String[0])) {
+			if (fq != null && !fq.trim().isEmpty()) {
+				ofNullable(QParser.getParser(fq, request).getQuery()).ifPresent(filters::add);
+			}
+		}
+		return filters;
+	}
+
+	/**
+	 * Decorates the params of the given request with the defaults, appends and invariants of the given chain member,
+	 * that is, the params the chain member would actually see.
+	 *
+	 * @param request the chain member request.
+	 * @param handler the chain member.
+	 */
+	static void defaults(final SolrQueryRequest request, final RequestHandlerBase handler) {
+		final NamedList<?> initArgs = ofNullable(handler.getInitArgs()).orElseGet(NamedList::new);
+		SolrPluginUtils.setDefaults(
+				handler,
+				request,
+				params(initArgs, DEFAULTS_KEY),
+				params(initArgs, APPENDS_KEY),
+				params(initArgs, INVARIANTS_KEY));
+	}
+
+	/**
+	 * Returns the size of the page (i.e. what {@link org.apache.solr.search.DocList#size()} would return) that a
+	 * regular execution would produce, given the number of matches.
+	 *
+	 * @param params the chain member request parameters.
+	 * @param matches the number of matching documents.
+	 * @return the size of the page that a regular execution would produce.
+	 */
+	static int pageSize(final SolrParams params, final int matches) {
+		final int start = params.getInt(CommonParams.START, CommonParams.START_DEFAULT);
+		final int rows = params.getInt(CommonParams.ROWS, CommonParams.ROWS_DEFAULT);
+		return Math.max(0, Math.min(matches - start, rows));
+	}
+
+	/**
+	 * Returns the number of matches needed for deciding a page-size based rule, given the rule limit.
+	 *
+	 * @param params the chain member request parameters.
+	 * @param limit the page size after which the rule outcome cannot change anymore.
+	 * @return the number of matches needed for deciding a page-size based rule.
+	 */
+	static int matchesLimit(final SolrParams params, final int limit) {
+		final int start = params.getInt(CommonParams.START, CommonParams.START_DEFAULT);
+		final int rows = params.getInt(CommonParams.ROWS, CommonParams.ROWS_DEFAULT);
+		return start + Math.min(limit, rows);
+	}
+
+	/**
+	 * Counts the documents matching the given query, up to the given limit.
+	 *
+	 * @param searcher the index searcher.
+	 * @param query the query.
+	 * @param limit the counting limit.
+	 * @return the number of matching documents, the limit, if that has been reached, or {@link #TIMED_OUT} if the
+	 * 			time allowed to the current thread (see {@link SolrQueryTimeoutImpl}) has been exhausted.
+	 * @throws IOException in case of I/O failure.
+	 */
+	static int count(final IndexSearcher searcher, final Query query, final int limit) throws IOException {
+		final int [] count = {0};
+		if (limit <= 0) {
+			return 0;
+		}
+
+		try {
+			searcher.search(query, new SimpleCollector() {
+				@Override
+				public void collect(final int doc) {
+					if (++count[0] >= limit) {
+						throw new LimitReached();
+					}
+
+					if (count[0] % TIMEOUT_CHECK_INTERVAL == 0 && SolrQueryTimeoutImpl.getInstance().shouldExit()) {
+						throw new TimedOut();
+					}
+				}
+
+				@Override
+				public boolean needsScores() {
+					return false;
+				}
+			});
+		} catch (final LimitReached signal) {
+			// Nothing to be done here: the outcome of the rule cannot change anymore
+		} catch (final TimedOut signal) {
+			return TIMED_OUT;
+		}
+		return count[0];
+	}
+
+	private static SolrParams params(final NamedList<?> initArgs, final String name) {
+		final Object params = initArgs.get(name);
+		return params instanceof NamedList ? SolrParams.toSolrParams((NamedList<?>) params) : null;
+	}
+}
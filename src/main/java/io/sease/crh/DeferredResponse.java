@@ -0,0 +1,162 @@
+package io.sease.crh;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.index.ExitableDirectoryReader;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.handler.component.QueryComponent;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.handler.component.SearchHandler;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.SolrQueryTimeoutImpl;
+import org.apache.solr.util.SolrPluginUtils;
+
+/**
+ * The response of a chain member executed in two phases (see {@link CompositeRequestHandler#DEFERRED_KEY}).
+ * <br/> <br/>
+ * The first phase prepares all the member components, but it processes only the components up to the
+ * {@link QueryComponent}, that is, what is needed for evaluating the member rule. The second phase, which runs only
+ * if the member wins, processes the remaining components (e.g. facets, highlighting, expand, debug) on the same
+ * {@link ResponseBuilder}, so the query results are not computed again.
+ * <br/> <br/>
+ * All the components are prepared in the first phase, because some of them ask the {@link QueryComponent} for
+ * additional work (e.g. the facets need the {@link org.apache.solr.search.DocSet} of the matching documents). The
+ * first phase mirrors the non-distributed execution of the {@link SearchHandler}, without the debug timings and
+ * the request handler metrics of the member.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class DeferredResponse extends SolrQueryResponse {
+	private ResponseBuilder builder;
+	private List<SearchComponent> deferred = Collections.emptyList();
+
+	/**
+	 * Builds a new response with the given header.
+	 *
+	 * @param header the response header.
+	 */
+	DeferredResponse(final NamedList<Object> header) {
+		addResponseHeader(header);
+	}
+
+	/**
+	 * Executes the first phase of the given chain member, that is, it prepares all the member components and it
+	 * processes the components up to the {@link QueryComponent}.
+	 *
+	 * @param request the chain member request; its params are going to be decorated with the member defaults.
+	 * @param handler the chain member.
+	 */
+	void firstPhase(final SolrQueryRequest request, final SearchHandler handler) {
+		try {
+			CountProbe.defaults(request, handler);
+
+			final List<SearchComponent> components = handler.getComponents();
+			final ResponseBuilder responseBuilder = new ResponseBuilder(request, this, components);
+			if (responseBuilder.requestInfo != null) {
+				responseBuilder.requestInfo.setResponseBuilder(responseBuilder);
+			}
+
+			final SolrParams params = request.getParams();
+			final boolean debug = params.getBool(CommonParams.DEBUG_QUERY, false);
+			responseBuilder.setDebug(debug);
+			if (!debug) {
+				SolrPluginUtils.getDebugInterests(params.getParams(CommonParams.DEBUG), responseBuilder);
+			}
+
+			for (final SearchComponent component : components) {
+				component.prepare(responseBuilder);
+			}
+
+			int split = 0;
+			for (int index = 0; index < components.size(); index++) {
+				if (components.get(index) instanceof QueryComponent) {
+					split = index + 1;
+				}
+			}
+
+			if (process(responseBuilder, components.subList(0, split))) {
+				builder = responseBuilder;
+				deferred = components.subList(split, components.size());
+			}
+		} catch (final Exception exception) {
+			setException(exception);
+		}
+	}
+
+	/**
+	 * Returns true if there's a second phase to execute.
+	 *
+	 * @return true if there's a second phase to execute.
+	 */
+	boolean pending() {
+		return builder != null && !deferred.isEmpty();
+	}
+
+	/**
+	 * Executes the second phase, that is, it processes the deferred components.
+	 * The method has no effect if the first phase failed or if it has been already called.
+	 */
+	void secondPhase() {
+		if (!pending()) {
+			return;
+		}
+
+		final ResponseBuilder responseBuilder = builder;
+		builder = null;
+		try {
+			final SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+			if (requestInfo != null) {
+				requestInfo.setResponseBuilder(responseBuilder);
+			}
+			process(responseBuilder, deferred);
+		} catch (final Exception exception) {
+			setException(exception);
+		} finally {
+			deferred = Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Processes the given components, honouring the time allowed by the request.
+	 *
+	 * @param responseBuilder the {@link ResponseBuilder} of the chain member.
+	 * @param components the components to process.
+	 * @return false if the time allowed by the request ran out, true otherwise.
+	 * @throws IOException in case of I/O failure.
+	 */
+	private boolean process(final ResponseBuilder responseBuilder, final List<SearchComponent> components) throws IOException {
+		final long timeAllowed = responseBuilder.req.getParams().getLong(CommonParams.TIME_ALLOWED, -1L);
+		if (timeAllowed > 0L) {
+			SolrQueryTimeoutImpl.set(timeAllowed);
+		}
+
+		try {
+			for (final SearchComponent component : components) {
+				component.process(responseBuilder);
+			}
+			return true;
+		} catch (final ExitableDirectoryReader.ExitingReaderException exception) {
+			if (getValues().get(CompositeRequestHandler.RESPONSE_KEY) == null) {
+				final SolrDocumentList empty = new SolrDocumentList();
+				empty.setNumFound(0);
+				addResponse(empty);
+			}
+
+			if (getResponseHeader() != null) {
+				getResponseHeader().add(SolrQueryResponse.RESPONSE_HEADER_PARTIAL_RESULTS_KEY, Boolean.TRUE);
+			}
+			return false;
+		} finally {
+			SolrQueryTimeoutImpl.reset();
+		}
+	}
+}
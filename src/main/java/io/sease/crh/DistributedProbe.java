@@ -0,0 +1,164 @@
+package io.sease.crh;
+
+import java.util.Iterator;
+
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.ResultContext;
+import org.apache.solr.response.SolrQueryResponse;
+
+/**
+ * The count-only execution of a chain member in a distributed (e.g. SolrCloud) request.
+ * <br/> <br/>
+ * The local {@link CountProbe} would count the matches of a single shard, so in a distributed request the chain
+ * member is instead executed with rows=0 and without any additional component (faceting, highlighting, stats,
+ * ...): its {@link org.apache.solr.handler.component.SearchHandler} sends a single (cheap) round-trip to the shards
+ * and collects the collection-wide number of matches. Only the winning member is then executed with the full,
+ * two-phase, distributed search.
+ * <br/> <br/>
+ * Note the shard requests are always routed (through the "shards.qt" parameter) to the chain member, and not to the
+ * composite handler: otherwise each shard would walk the chain on its own, evaluating the rules on per-shard counts.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class DistributedProbe {
+	final static long UNAVAILABLE = -1;
+
+	/**
+	 * Parameters (and parameter prefixes) of components which are not needed for counting the matches.
+	 */
+	private final static String [] DISCARDED_PARAMS = {
+			"facet",
+			"json.facet",
+			"hl",
+			"stats",
+			"spellcheck",
+			"terms",
+			"mlt",
+			"expand",
+			"group",
+			"cursorMark",
+			CommonParams.DEBUG,
+			CommonParams.DEBUG_QUERY
+	};
+
+	/**
+	 * Components which are explicitly switched off, because the chain member could enable them in its defaults.
+	 */
+	private final static String [] DISABLED_COMPONENTS = {
+			"facet",
+			"hl",
+			"stats",
+			"spellcheck",
+			"terms",
+			"mlt",
+			"expand",
+			CommonParams.DEBUG_QUERY
+	};
+
+	private DistributedProbe() {}
+
+	/**
+	 * Returns true if the given request is going to be distributed by the chain members.
+	 * The logic is the same used by {@link org.apache.solr.handler.component.SearchHandler}.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return true if the given request is going to be distributed by the chain members.
+	 */
+	static boolean distributed(final SolrQueryRequest request) {
+		final SolrCore core = request.getCore();
+		final boolean zkAware = core != null
+				&& core.getCoreContainer() != null
+				&& core.getCoreContainer().isZooKeeperAware();
+
+		final SolrParams params = request.getParams();
+		if (params == null) {
+			return false;
+		} else if (params.getBool(CommonParams.DISTRIB, zkAware)) {
+			return true;
+		}
+
+		final String shards = params.get(ShardParams.SHARDS);
+		return shards != null && shards.indexOf('/') > 0;
+	}
+
+	/**
+	 * Returns the parameters of the count-only execution.
+	 * The given params must not include the chain member defaults, appends and invariants: the chain member applies
+	 * them on its own, so they would be applied twice (e.g. an appended filter query). For the same reason, the
+	 * components the chain member could enable in its defaults are explicitly switched off.
+	 *
+	 * @param params the chain member params (without its defaults, appends and invariants).
+	 * @param name the chain member name.
+	 * @return the parameters of the count-only execution.
+	 */
+	static SolrParams params(final SolrParams params, final String name) {
+		final ModifiableSolrParams probe = new ModifiableSolrParams();
+		for (final Iterator<String> iterator = params.getParameterNamesIterator(); iterator.hasNext();) {
+			final String parameter = iterator.next();
+			if (!discarded(parameter)) {
+				probe.set(parameter, params.getParams(parameter));
+			}
+		}
+
+		for (final String component : DISABLED_COMPONENTS) {
+			probe.set(component, false);
+		}
+
+		probe.set(CommonParams.START, 0);
+		probe.set(CommonParams.ROWS, 0);
+		if (probe.get(ShardParams.SHARDS_QT) == null) {
+			probe.set(ShardParams.SHARDS_QT, name);
+		}
+		return probe;
+	}
+
+	/**
+	 * Returns the collection-wide number of matches of a count-only execution.
+	 *
+	 * @param response the count-only execution response.
+	 * @return the number of matches, or {@link #UNAVAILABLE} if the execution failed.
+	 */
+	static long numFound(final SolrQueryResponse response) {
+		if (response.getException() != null || response.getValues() == null) {
+			return UNAVAILABLE;
+		}
+
+		final Object result = response.getValues().get(CompositeRequestHandler.RESPONSE_KEY);
+		if (result instanceof SolrDocumentList) {
+			return ((SolrDocumentList) result).getNumFound();
+		} else if (result instanceof ResultContext && ((ResultContext) result).getDocList() != null) {
+			return ((ResultContext) result).getDocList().matches();
+		}
+		return UNAVAILABLE;
+	}
+
+	/**
+	 * Returns the hits the rule of the chain member has to be evaluated on.
+	 *
+	 * @param params the chain member params (including its defaults, appends and invariants).
+	 * @param numFound the collection-wide number of matches.
+	 * @param pageSize true if the hits are the size of the result page, false if they are the number of matches.
+	 * @return the hits the rule of the chain member has to be evaluated on.
+	 */
+	static long hits(final SolrParams params, final long numFound, final boolean pageSize) {
+		return pageSize
+				? CountProbe.pageSize(params, (int) Math.min(numFound, Integer.MAX_VALUE))
+				: numFound;
+	}
+
+	private static boolean discarded(final String name) {
+		for (final String prefix : DISCARDED_PARAMS) {
+			if (name.equals(prefix) || (name.startsWith(prefix) && name.charAt(prefix.length()) == '.')) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,31 @@
+package io.sease.crh;
+
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+
+/**
+ * How a {@link CompositeRequestHandler} walks its chain members.
+ * <br/> <br/>
+ * The strategy is chosen once, when the handler is initialised (see {@link CompositeRequestHandler#init}): it is
+ * either the {@link SequentialExecution} (the default), the {@link SpeculativeExecution}, the
+ * {@link AdaptiveExecution} or the {@link BackfillExecution}. What doesn't walk the chain (e.g. the paging affinity and
+ * the result cache shortcuts) or comes after the walk (e.g. the deferred components of the winner) is not part of the
+ * strategy.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+interface ExecutionStrategy {
+	/**
+	 * Walks the chain for the given request, and records its outcome (see
+	 * {@link CompositeRequestHandler#completed(SolrQueryRequest, int, int)}).
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @return the winning chain member (i.e. its name and response), or nothing.
+	 */
+	Optional<Map.Entry<String, SolrQueryResponse>> execute(SolrQueryRequest request, SolrQueryResponse response);
+}
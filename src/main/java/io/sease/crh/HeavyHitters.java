@@ -0,0 +1,187 @@
+package io.sease.crh;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A bounded sketch of the most frequent items of a stream (the "Space-Saving" algorithm).
+ * <br/> <br/>
+ * At most "capacity" items are monitored, each with its own counter. When a new item arrives and the sketch is full,
+ * the item with the lowest counter is evicted, and the new item inherits its counter (plus one): the counters are
+ * therefore an upper bound of the actual frequencies, but any item which is more frequent than 1 / capacity is
+ * guaranteed to be monitored. Each update costs O(log capacity).
+ * <br/> <br/>
+ * The sketch is recorded on each request, so it is striped: each thread updates one of several independent sketches,
+ * each with its own lock, and the stripes are merged (by summing the counters of each item) only when the most
+ * frequent items are requested. The merged counters are still an upper bound of the actual frequencies.
+ * <br/> <br/>
+ * Counters never decrease on their own, so items which were frequent long ago would dominate the sketch forever:
+ * {@link #decay()} halves all the counters (and drops the ones which reach zero), so that old occurrences weigh less
+ * than recent ones.
+ *
+ * @param <K> the item type.
+ * @author agazzarini
+ * @since 1.0
+ */
+final class HeavyHitters<K> {
+	private final static class Counter<K> implements Comparable<Counter<K>> {
+		private final K item;
+		private final long sequence;
+		private long count;
+
+		private Counter(final K item, final long count, final long sequence) {
+			this.item = item;
+			this.count = count;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(final Counter<K> other) {
+			final int byCount = Long.compare(count, other.count);
+			return byCount != 0 ? byCount : Long.compare(sequence, other.sequence);
+		}
+	}
+
+	/**
+	 * A single stripe of the sketch.
+	 */
+	private final static class Stripe<K> {
+		private final int capacity;
+		private final Map<K, Counter<K>> counters;
+		private final TreeSet<Counter<K>> ordered = new TreeSet<>();
+		private long sequence;
+
+		private Stripe(final int capacity) {
+			this.capacity = capacity;
+			this.counters = new HashMap<>(capacity * 2);
+		}
+
+		private synchronized void add(final K item) {
+			Counter<K> counter = counters.get(item);
+			if (counter != null) {
+				ordered.remove(counter);
+				counter.count++;
+			} else if (counters.size() < capacity) {
+				counter = new Counter<>(item, 1, sequence++);
+				counters.put(item, counter);
+			} else {
+				final Counter<K> evicted = ordered.pollFirst();
+				counters.remove(evicted.item);
+				counter = new Counter<>(item, evicted.count + 1, sequence++);
+				counters.put(item, counter);
+			}
+			ordered.add(counter);
+		}
+
+		private synchronized void mergeInto(final Map<K, long []> merged) {
+			// Most frequent first, so the merged map keeps the stripe order among equal counts
+			for (final Iterator<Counter<K>> iterator = ordered.descendingIterator(); iterator.hasNext();) {
+				final Counter<K> counter = iterator.next();
+				merged.computeIfAbsent(counter.item, item -> new long[1])[0] += counter.count;
+			}
+		}
+
+		private synchronized void decay() {
+			final List<Counter<K>> decayed = new ArrayList<>(ordered);
+			ordered.clear();
+			for (final Counter<K> counter : decayed) {
+				counter.count /= 2;
+				if (counter.count > 0) {
+					ordered.add(counter);
+				} else {
+					counters.remove(counter.item);
+				}
+			}
+		}
+
+		private synchronized long count(final K item) {
+			final Counter<K> counter = counters.get(item);
+			return counter != null ? counter.count : 0;
+		}
+	}
+
+	private final Stripe<K> [] stripes;
+
+	/**
+	 * Builds a new sketch, with a stripe for each available processor.
+	 *
+	 * @param capacity the maximum number of monitored items (of each stripe).
+	 */
+	HeavyHitters(final int capacity) {
+		this(capacity, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Builds a new sketch.
+	 *
+	 * @param capacity the maximum number of monitored items (of each stripe).
+	 * @param stripes the number of stripes.
+	 */
+	@SuppressWarnings("unchecked")
+	HeavyHitters(final int capacity, final int stripes) {
+		this.stripes = new Stripe[Math.max(1, stripes)];
+		for (int index = 0; index < this.stripes.length; index++) {
+			this.stripes[index] = new Stripe<>(capacity);
+		}
+	}
+
+	/**
+	 * Records an occurrence of the given item, in the stripe of the current thread.
+	 *
+	 * @param item the item.
+	 */
+	void add(final K item) {
+		stripes[(int) (Thread.currentThread().getId() % stripes.length)].add(item);
+	}
+
+	/**
+	 * Returns the most frequent items, most frequent first.
+	 *
+	 * @param howMany the maximum number of items to return.
+	 * @return the most frequent items, most frequent first.
+	 */
+	List<K> top(final int howMany) {
+		final Map<K, long []> merged = new LinkedHashMap<>();
+		for (final Stripe<K> stripe : stripes) {
+			stripe.mergeInto(merged);
+		}
+
+		final List<Map.Entry<K, long []>> counters = new ArrayList<>(merged.entrySet());
+		counters.sort(Comparator.comparingLong((Map.Entry<K, long []> counter) -> counter.getValue()[0]).reversed());
+
+		final List<K> top = new ArrayList<>(Math.min(howMany, counters.size()));
+		for (final Iterator<Map.Entry<K, long []>> iterator = counters.iterator(); iterator.hasNext() && top.size() < howMany;) {
+			top.add(iterator.next().getKey());
+		}
+		return top;
+	}
+
+	/**
+	 * Halves all the counters, dropping the items whose counter reaches zero.
+	 */
+	void decay() {
+		for (final Stripe<K> stripe : stripes) {
+			stripe.decay();
+		}
+	}
+
+	/**
+	 * Returns the (estimated) count of the given item.
+	 *
+	 * @param item the item.
+	 * @return the (estimated) count of the given item, or 0 if the item is not monitored.
+	 */
+	long count(final K item) {
+		long count = 0;
+		for (final Stripe<K> stripe : stripes) {
+			count += stripe.count(item);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,128 @@
+package io.sease.crh;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * The paging affinity token (see {@link CompositeRequestHandler#AFFINITY_KEY}).
+ * <br/> <br/>
+ * The token is an opaque (base64) string which carries the index of the winning member, the version of the index
+ * the winner has been chosen on and a signature of the request (i.e. the chain configuration plus the request
+ * parameters, except the paging ones). A follow-up page request (i.e. start > 0, or a cursorMark other than "*")
+ * which carries a token with the same signature goes straight to the winning member, without walking the chain
+ * again.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class PagingAffinity {
+	private final static char SEPARATOR = ':';
+
+	/**
+	 * Parameters which change between the pages of the same request.
+	 */
+	private final static String [] PAGING_PARAMS = {
+			CommonParams.START,
+			CommonParams.ROWS,
+			CursorMarkParams.CURSOR_MARK_PARAM,
+			CompositeRequestHandler.AFFINITY_KEY
+	};
+
+	final int index;
+	final long version;
+	final int signature;
+
+	/**
+	 * Builds a new token.
+	 *
+	 * @param index the index of the winning member.
+	 * @param version the version of the index the winner has been chosen on.
+	 * @param signature the request signature (see {@link #signature(String, SolrParams)}).
+	 */
+	PagingAffinity(final int index, final long version, final int signature) {
+		this.index = index;
+		this.version = version;
+		this.signature = signature;
+	}
+
+	/**
+	 * Returns the opaque representation of this token.
+	 *
+	 * @return the opaque representation of this token.
+	 */
+	String encode() {
+		final String token = Integer.toString(index) + SEPARATOR + version + SEPARATOR + Integer.toHexString(signature);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Parses the given token.
+	 *
+	 * @param token the opaque token.
+	 * @return the token, or null if the given value is not a valid token.
+	 */
+	static PagingAffinity decode(final String token) {
+		if (token == null || token.isEmpty()) {
+			return null;
+		}
+
+		try {
+			final String [] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(String.valueOf(SEPARATOR));
+			return parts.length == 3
+					? new PagingAffinity(
+							Integer.parseInt(parts[0]),
+							Long.parseLong(parts[1]),
+							Integer.parseUnsignedInt(parts[2], 16))
+					: null;
+		} catch (final IllegalArgumentException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true if the given request parameters ask for a follow-up page, that is, a start offset greater than 0
+	 * or a cursorMark other than the initial one.
+	 *
+	 * @param params the request parameters.
+	 * @return true if the given request parameters ask for a follow-up page.
+	 */
+	static boolean followUp(final SolrParams params) {
+		final String cursorMark = params.get(CursorMarkParams.CURSOR_MARK_PARAM);
+		return params.getInt(CommonParams.START, CommonParams.START_DEFAULT) > 0
+				|| (cursorMark != null && !CursorMarkParams.CURSOR_MARK_START.equals(cursorMark));
+	}
+
+	/**
+	 * Returns the signature of a request, that is, a hash of the chain configuration and the request parameters,
+	 * except the paging ones. All the pages of the same request have the same signature.
+	 *
+	 * @param configuration the chain configuration fingerprint.
+	 * @param params the request parameters.
+	 * @return the signature of the request.
+	 */
+	static int signature(final String configuration, final SolrParams params) {
+		final ModifiableSolrParams query = new ModifiableSolrParams(CompositeCacheKey.normalize(params));
+		for (final String name : PAGING_PARAMS) {
+			query.remove(name);
+		}
+		return 31 * configuration.hashCode() + query.toString().hashCode();
+	}
+
+	/**
+	 * Returns the version of the index the given request is searching.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @return the version of the index the given request is searching, or -1 if it is not available.
+	 */
+	static long version(final SolrQueryRequest request) {
+		final SolrIndexSearcher searcher = request.getSearcher();
+		return searcher != null && searcher.getIndexReader() != null ? searcher.getIndexReader().getVersion() : -1L;
+	}
+}
@@ -0,0 +1,100 @@
+package io.sease.crh;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Tells a {@link CompositeRequestHandler} when it has to switch to its degraded chain.
+ * <br/> <br/>
+ * The node is considered under pressure when the system load average (per available processor) or the number of
+ * in-flight composite requests are above the configured thresholds. The load average is sampled at most once per
+ * second, so the check is cheap enough to be done on each request.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class PressureMonitor {
+	private final static long SAMPLING_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	private final double maxLoad;
+	private final int maxInFlight;
+	private final DoubleSupplier load;
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private volatile double lastLoad;
+	private volatile long sampledAt = System.nanoTime() - SAMPLING_INTERVAL;
+
+	/**
+	 * Builds a new monitor which uses the system load average.
+	 *
+	 * @param maxLoad the maximum load average per processor, or a non-positive value for ignoring the load.
+	 * @param maxInFlight the maximum number of in-flight requests, or a non-positive value for ignoring them.
+	 */
+	PressureMonitor(final double maxLoad, final int maxInFlight) {
+		this(maxLoad, maxInFlight, PressureMonitor::systemLoad);
+	}
+
+	/**
+	 * Builds a new monitor.
+	 *
+	 * @param maxLoad the maximum load, or a non-positive value for ignoring the load.
+	 * @param maxInFlight the maximum number of in-flight requests, or a non-positive value for ignoring them.
+	 * @param load the load source.
+	 */
+	PressureMonitor(final double maxLoad, final int maxInFlight, final DoubleSupplier load) {
+		this.maxLoad = maxLoad;
+		this.maxInFlight = maxInFlight;
+		this.load = load;
+	}
+
+	/**
+	 * Records a new in-flight request. Each call must be paired with a call to {@link #exit()}.
+	 *
+	 * @return the number of in-flight requests, including the new one.
+	 */
+	int enter() {
+		return inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Records the completion of an in-flight request.
+	 */
+	void exit() {
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Returns true if the node is under pressure.
+	 *
+	 * @param requests the number of in-flight requests.
+	 * @return true if the node is under pressure.
+	 */
+	boolean underPressure(final int requests) {
+		if (maxInFlight > 0 && requests > maxInFlight) {
+			return true;
+		}
+
+		if (maxLoad <= 0) {
+			return false;
+		}
+
+		final long now = System.nanoTime();
+		if (now - sampledAt >= SAMPLING_INTERVAL) {
+			sampledAt = now;
+			lastLoad = load.getAsDouble();
+		}
+		return lastLoad > maxLoad;
+	}
+
+	/**
+	 * Returns the system load average per available processor.
+	 *
+	 * @return the system load average per available processor, or a negative value if it is not available.
+	 */
+	static double systemLoad() {
+		return ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage()
+				/ Runtime.getRuntime().availableProcessors();
+	}
+}
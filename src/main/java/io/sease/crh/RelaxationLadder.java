@@ -0,0 +1,297 @@
+package io.sease.crh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+import org.apache.solr.common.params.GroupParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SyntaxError;
+
+/**
+ * The single-pass evaluation of a "relaxation ladder", that is, a sequence of chain members which run the same
+ * query and filters with a decreasing minimum should match (e.g. mm=100%, then mm=75%, then mm=1).
+ * <br/> <br/>
+ * Instead of running a search for each member, the ladder walks the postings of the query clauses once, and for
+ * each document counts how many clauses match: a document matches all the levels whose threshold is lower than or
+ * equal to that count. The walk stops as soon as the outcome of the ladder cannot change anymore, that is, when the
+ * strictest level whose rule passes is known. Only that member is then executed (and scored) in full.
+ * <br/> <br/>
+ * The ladder is made by the leading non-final members which have the same filters and a pure disjunction of the
+ * same clauses as main query (that's what dismax and edismax produce, unless there are boost queries or functions),
+ * and whose rules can be evaluated on the number of hits only (see {@link Rule#saturation()}).
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class RelaxationLadder {
+	/**
+	 * Thrown when the ladder cannot be evaluated, so the regular execution must be used.
+	 */
+	private final static class Unavailable extends Exception {
+		private Unavailable() {
+			super(null, null, false, false);
+		}
+	}
+
+	private RelaxationLadder() {}
+
+	/**
+	 * Evaluates the ladder formed by the leading members of the chain.
+	 *
+	 * @param requests the requests of the non-final chain members, already decorated with the member defaults.
+	 * @param rules the rules of the chain members.
+	 * @param pageSize true if the hits are the size of the result page, false if they are the number of matches.
+	 * @return the index of the first member whose rule passes, the index of the first member after the ladder if no
+	 * 			ladder member passes, or 0 if the ladder cannot be used.
+	 */
+	static int start(final List<SolrQueryRequest> requests, final Rule [] rules, final boolean pageSize) {
+		if (requests.size() < 2 || requests.get(0).getSearcher() == null) {
+			return 0;
+		}
+
+		try {
+			final SolrIndexSearcher searcher = requests.get(0).getSearcher();
+			final int [] thresholds = new int[requests.size()];
+			final int [] limits = new int[requests.size()];
+			final boolean [] outcomes = new boolean[requests.size()];
+			List<Query> clauses = null;
+			List<Query> filters = null;
+			int levels = 0;
+			for (; levels < requests.size(); levels++) {
+				final SolrQueryRequest request = requests.get(levels);
+				final SolrParams params = request.getParams();
+				final int saturation = rules[levels].saturation();
+				if (saturation == Rule.UNBOUNDED || params.getBool(GroupParams.GROUP, false)) {
+					break;
+				}
+
+				final BooleanQuery query = disjunction(CountProbe.query(request));
+				if (query == null) {
+					break;
+				}
+
+				final List<Query> levelFilters = CountProbe.filters(request);
+				if (levels == 0) {
+					clauses = clauses(query);
+					filters = levelFilters;
+				} else if (!clauses.equals(clauses(query)) || !filters.equals(levelFilters)) {
+					break;
+				}
+
+				thresholds[levels] = Math.max(1, query.getMinimumNumberShouldMatch());
+				limits[levels] = pageSize ? CountProbe.matchesLimit(params, saturation) : saturation;
+
+				// Once a level reaches its limit, the outcome of its rule cannot change anymore
+				outcomes[levels] = passes(rules[levels], params, limits[levels], pageSize);
+			}
+
+			if (levels < 2) {
+				return 0;
+			}
+
+			final int ladderLevels = levels;
+			final int [] counts = count(
+					searcher,
+					clauses,
+					filter(searcher, filters),
+					Arrays.copyOf(thresholds, levels),
+					partial -> decided(partial, limits, outcomes, ladderLevels));
+			for (int level = 0; level < levels; level++) {
+				if (passes(rules[level], requests.get(level).getParams(), counts[level], pageSize)) {
+					return level;
+				}
+			}
+			return levels;
+		} catch (final SyntaxError | IOException | Unavailable exception) {
+			// Let the regular execution deal with (and report) the problem
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the given query as a pure disjunction, that is, a {@link BooleanQuery} with SHOULD clauses only.
+	 *
+	 * @param query the main query of a chain member.
+	 * @return the given query as a pure disjunction, or null if it is not a pure disjunction.
+	 */
+	static BooleanQuery disjunction(final Query query) {
+		Query unwrapped = query;
+		while (unwrapped instanceof BoostQuery) {
+			unwrapped = ((BoostQuery) unwrapped).getQuery();
+		}
+
+		if (!(unwrapped instanceof BooleanQuery) || ((BooleanQuery) unwrapped).clauses().isEmpty()) {
+			return null;
+		}
+
+		final BooleanQuery disjunction = (BooleanQuery) unwrapped;
+		for (final BooleanClause clause : disjunction.clauses()) {
+			if (clause.getOccur() != BooleanClause.Occur.SHOULD) {
+				return null;
+			}
+		}
+		return disjunction;
+	}
+
+	private static List<Query> clauses(final BooleanQuery query) {
+		final List<Query> clauses = new ArrayList<>(query.clauses().size());
+		for (final BooleanClause clause : query.clauses()) {
+			clauses.add(clause.getQuery());
+		}
+		return clauses;
+	}
+
+	private static Query filter(final SolrIndexSearcher searcher, final List<Query> filters) throws IOException, Unavailable {
+		if (filters.isEmpty()) {
+			return null;
+		}
+
+		final SolrIndexSearcher.ProcessedFilter filter = searcher.getProcessedFilter(null, filters);
+		if (filter.postFilter != null) {
+			throw new Unavailable();
+		}
+
+		return filter.filter != null
+				? filter.filter
+				: (filter.answer != null ? filter.answer.getTopFilter() : null);
+	}
+
+	private static boolean passes(final Rule rule, final SolrParams params, final int matches, final boolean pageSize) {
+		return rule.test(pageSize ? CountProbe.pageSize(params, matches) : matches, Float.NaN);
+	}
+
+	/**
+	 * Returns true if the outcome of the ladder cannot change anymore: walking the levels in chain order, each level
+	 * has either reached its limit and its rule fails (so the control passes to the next level), or it has reached
+	 * its limit and its rule passes (so it is the winner).
+	 * <br/> <br/>
+	 * That is called for each matching document, so it only compares the counts with the (precomputed) limits and
+	 * outcomes of the rules at their limit.
+	 *
+	 * @param counts the current counts of each level.
+	 * @param limits the limit of each level, that is, the count after which its rule outcome cannot change.
+	 * @param outcomes the outcome of the rule of each level, once its limit has been reached.
+	 * @param levels the number of levels of the ladder.
+	 * @return true if the outcome of the ladder cannot change anymore.
+	 */
+	static boolean decided(final int [] counts, final int [] limits, final boolean [] outcomes, final int levels) {
+		for (int level = 0; level < levels; level++) {
+			if (counts[level] < limits[level]) {
+				return false;
+			}
+
+			if (outcomes[level]) {
+				return true;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Counts, in a single pass over the postings of the given clauses, the matches of each level.
+	 *
+	 * @param searcher the {@link IndexSearcher}.
+	 * @param clauses the (optional) clauses shared by all the levels.
+	 * @param filter the filter shared by all the levels, or null.
+	 * @param thresholds the minimum number of matching clauses of each level.
+	 * @param decided tells, given the current counts, when the counting can stop.
+	 * @return the number of matches of each level (up to the point the counting stopped).
+	 * @throws IOException in case of I/O failure.
+	 */
+	static int [] count(
+			final IndexSearcher searcher,
+			final List<Query> clauses,
+			final Query filter,
+			final int [] thresholds,
+			final Predicate<int []> decided) throws IOException {
+		final int levels = thresholds.length;
+		final int [] counts = new int[levels];
+		if (decided.test(counts)) {
+			return counts;
+		}
+
+		final List<Weight> weights = new ArrayList<>(clauses.size());
+		for (final Query clause : clauses) {
+			weights.add(searcher.createNormalizedWeight(clause, false));
+		}
+		final Weight filterWeight = filter != null ? searcher.createNormalizedWeight(filter, false) : null;
+
+		for (final LeafReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+			final DocIdSetIterator filterIterator = filterWeight != null ? iterator(filterWeight, leaf) : null;
+			if (filterWeight != null && filterIterator == null) {
+				continue;
+			}
+
+			final List<DocIdSetIterator> iterators = new ArrayList<>(weights.size());
+			for (final Weight weight : weights) {
+				final DocIdSetIterator iterator = iterator(weight, leaf);
+				if (iterator != null && iterator.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+					iterators.add(iterator);
+				}
+			}
+
+			final Bits liveDocs = leaf.reader().getLiveDocs();
+			while (!iterators.isEmpty()) {
+				int doc = DocIdSetIterator.NO_MORE_DOCS;
+				for (final DocIdSetIterator iterator : iterators) {
+					doc = Math.min(doc, iterator.docID());
+				}
+
+				int matched = 0;
+				for (int index = iterators.size() - 1; index >= 0; index--) {
+					final DocIdSetIterator iterator = iterators.get(index);
+					if (iterator.docID() == doc) {
+						matched++;
+						if (iterator.nextDoc() == DocIdSetIterator.NO_MORE_DOCS) {
+							iterators.remove(index);
+						}
+					}
+				}
+
+				if (liveDocs != null && !liveDocs.get(doc)) {
+					continue;
+				}
+
+				if (filterIterator != null) {
+					if (filterIterator.docID() < doc) {
+						filterIterator.advance(doc);
+					}
+					if (filterIterator.docID() != doc) {
+						continue;
+					}
+				}
+
+				for (int level = 0; level < levels; level++) {
+					if (matched >= thresholds[level]) {
+						counts[level]++;
+					}
+				}
+
+				if (decided.test(counts)) {
+					return counts;
+				}
+			}
+		}
+		return counts;
+	}
+
+	private static DocIdSetIterator iterator(final Weight weight, final LeafReaderContext leaf) throws IOException {
+		final Scorer scorer = weight.scorer(leaf);
+		return scorer != null ? scorer.iterator() : null;
+	}
+}
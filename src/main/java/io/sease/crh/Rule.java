@@ -0,0 +1,54 @@
+package io.sease.crh;
+
+/**
+ * A compiled transition rule.
+ * <br/> <br/>
+ * Rules are compiled once (see {@link RuleCompiler}) and evaluated on primitive values only, so the evaluation at
+ * request time doesn't allocate anything.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+interface Rule {
+	/**
+	 * Returned by {@link #saturation()} when the rule outcome depends on something else than the hits count.
+	 */
+	int UNBOUNDED = Integer.MAX_VALUE;
+
+	/**
+	 * The "always" rule: it always matches.
+	 */
+	Rule ALWAYS = new Rule() {
+		@Override
+		public boolean test(final long hits, final float maxScore) {
+			return true;
+		}
+
+		@Override
+		public int saturation() {
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return RuleCompiler.ALWAYS_KEYWORD;
+		}
+	};
+
+	/**
+	 * Evaluates this rule.
+	 *
+	 * @param hits the hits count (numFound or page size, depending on the configured semantic).
+	 * @param maxScore the maximum score, or {@link Float#NaN} if the results have no scores.
+	 * @return true if the rule matches, that is, the current handler response is the one that will be returned.
+	 */
+	boolean test(long hits, float maxScore);
+
+	/**
+	 * Returns the hits count after which the outcome of this rule cannot change anymore, regardless of how many
+	 * further hits there are. This is what allows a count probe to stop early.
+	 *
+	 * @return the hits count after which the outcome of this rule cannot change anymore, or {@link #UNBOUNDED}.
+	 */
+	int saturation();
+}
@@ -0,0 +1,309 @@
+package io.sease.crh;
+
+import static java.lang.Integer.parseInt;
+
+import org.apache.solr.common.SolrException;
+
+/**
+ * Compiles a rule expression in a {@link Rule}.
+ * <br/> <br/>
+ * The grammar is the following:
+ *
+ * <pre>
+ * rule       := and ( "|" and )*
+ * and        := unary ( "&amp;" unary )*
+ * unary      := "!" unary | condition
+ * condition  := "always"
+ *             | "between" int "and" int
+ *             | operator int
+ *             | "maxscore" operator float
+ * operator   := "eq" | "gt" | "lt" | "ge" | "le"
+ * </pre>
+ *
+ * For example: "gt0", "between2and10", "eq1|gt10", "gt0&amp;maxscorege1.5".
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class RuleCompiler {
+	final static String ALWAYS_KEYWORD = "always";
+	final static String BETWEEN_KEYWORD = "between";
+	final static String AND_KEYWORD = "and";
+	final static String MAX_SCORE_KEYWORD = "maxscore";
+
+	final static String EQUAL_KEYWORD = "eq";
+	final static String GREATER_THAN_KEYWORD = "gt";
+	final static String LESSER_THAN_KEYWORD = "lt";
+	final static String GREATER_OR_EQUAL_KEYWORD = "ge";
+	final static String LESSER_OR_EQUAL_KEYWORD = "le";
+
+	private final static char OR = '|';
+	private final static char AND = '&';
+	private final static char NOT = '!';
+
+	private final String expression;
+	private int position;
+
+	private RuleCompiler(final String expression) {
+		this.expression = expression;
+	}
+
+	/**
+	 * Compiles the given expression.
+	 *
+	 * @param expression the rule expression.
+	 * @return the {@link Rule} corresponding to the given expression.
+	 * @throws SolrException in case the expression is not valid.
+	 */
+	static Rule compile(final String expression) {
+		final RuleCompiler compiler = new RuleCompiler(expression.replaceAll("\\s", "").toLowerCase());
+		try {
+			final Rule rule = compiler.or();
+			if (compiler.position != compiler.expression.length()) {
+				throw compiler.invalid();
+			}
+			return rule;
+		} catch (final NumberFormatException | StringIndexOutOfBoundsException exception) {
+			throw compiler.invalid();
+		}
+	}
+
+	private Rule or() {
+		Rule rule = and();
+		while (accept(OR)) {
+			rule = or(rule, and());
+		}
+		return rule;
+	}
+
+	private Rule and() {
+		Rule rule = unary();
+		while (accept(AND)) {
+			rule = and(rule, unary());
+		}
+		return rule;
+	}
+
+	private Rule unary() {
+		return accept(NOT) ? not(unary()) : condition();
+	}
+
+	private Rule condition() {
+		if (accept(ALWAYS_KEYWORD)) {
+			return Rule.ALWAYS;
+		} else if (accept(BETWEEN_KEYWORD)) {
+			final int min = integer();
+			if (!accept(AND_KEYWORD)) {
+				throw invalid();
+			}
+			return between(min, integer());
+		} else if (accept(MAX_SCORE_KEYWORD)) {
+			final String operator = operator();
+			return maxScore(operator, decimal());
+		}
+
+		final String operator = operator();
+		return hits(operator, integer());
+	}
+
+	private String operator() {
+		for (final String operator : new String[] {
+				EQUAL_KEYWORD,
+				GREATER_THAN_KEYWORD,
+				LESSER_THAN_KEYWORD,
+				GREATER_OR_EQUAL_KEYWORD,
+				LESSER_OR_EQUAL_KEYWORD}) {
+			if (accept(operator)) {
+				return operator;
+			}
+		}
+		throw invalid();
+	}
+
+	private int integer() {
+		final int start = position;
+		while (position < expression.length() && (Character.isDigit(expression.charAt(position)) || (position == start && expression.charAt(position) == '-'))) {
+			position++;
+		}
+		return parseInt(expression.substring(start, position));
+	}
+
+	private float decimal() {
+		final int start = position;
+		while (position < expression.length() && "0123456789.-".indexOf(expression.charAt(position)) != -1) {
+			position++;
+		}
+		return Float.parseFloat(expression.substring(start, position));
+	}
+
+	private boolean accept(final char symbol) {
+		if (position < expression.length() && expression.charAt(position) == symbol) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean accept(final String keyword) {
+		if (expression.startsWith(keyword, position)) {
+			position += keyword.length();
+			return true;
+		}
+		return false;
+	}
+
+	private SolrException invalid() {
+		return new SolrException(
+				SolrException.ErrorCode.SERVER_ERROR,
+				"Invalid rule expression: \"" + expression + "\" (near position " + position + ")");
+	}
+
+	static Rule hits(final String operator, final int value) {
+		switch (operator) {
+			case EQUAL_KEYWORD:
+				return new CountRule(value, value, Math.max(0, value + 1), operator + value);
+			case GREATER_THAN_KEYWORD:
+				return new CountRule((long) value + 1, Long.MAX_VALUE, Math.max(0, value + 1), operator + value);
+			case GREATER_OR_EQUAL_KEYWORD:
+				return new CountRule(value, Long.MAX_VALUE, Math.max(0, value), operator + value);
+			case LESSER_THAN_KEYWORD:
+				return new CountRule(Long.MIN_VALUE, (long) value - 1, Math.max(0, value), operator + value);
+			default:
+				return new CountRule(Long.MIN_VALUE, value, Math.max(0, value + 1), operator + value);
+		}
+	}
+
+	static Rule between(final int min, final int max) {
+		return new CountRule(min, max, Math.max(0, max + 1), BETWEEN_KEYWORD + min + AND_KEYWORD + max);
+	}
+
+	static Rule maxScore(final String operator, final float value) {
+		return new ScoreRule(operator, value);
+	}
+
+	static Rule and(final Rule left, final Rule right) {
+		return new Rule() {
+			@Override
+			public boolean test(final long hits, final float maxScore) {
+				return left.test(hits, maxScore) && right.test(hits, maxScore);
+			}
+
+			@Override
+			public int saturation() {
+				return Math.max(left.saturation(), right.saturation());
+			}
+
+			@Override
+			public String toString() {
+				return left + String.valueOf(AND) + right;
+			}
+		};
+	}
+
+	static Rule or(final Rule left, final Rule right) {
+		return new Rule() {
+			@Override
+			public boolean test(final long hits, final float maxScore) {
+				return left.test(hits, maxScore) || right.test(hits, maxScore);
+			}
+
+			@Override
+			public int saturation() {
+				return Math.max(left.saturation(), right.saturation());
+			}
+
+			@Override
+			public String toString() {
+				return left + String.valueOf(OR) + right;
+			}
+		};
+	}
+
+	static Rule not(final Rule rule) {
+		return new Rule() {
+			@Override
+			public boolean test(final long hits, final float maxScore) {
+				return !rule.test(hits, maxScore);
+			}
+
+			@Override
+			public int saturation() {
+				return rule.saturation();
+			}
+
+			@Override
+			public String toString() {
+				return NOT + rule.toString();
+			}
+		};
+	}
+
+	/**
+	 * A rule which matches when the hits count falls within a given (inclusive) range.
+	 */
+	private final static class CountRule implements Rule {
+		private final long min;
+		private final long max;
+		private final int saturation;
+		private final String expression;
+
+		private CountRule(final long min, final long max, final int saturation, final String expression) {
+			this.min = min;
+			this.max = max;
+			this.saturation = saturation;
+			this.expression = expression;
+		}
+
+		@Override
+		public boolean test(final long hits, final float maxScore) {
+			return hits >= min && hits <= max;
+		}
+
+		@Override
+		public int saturation() {
+			return saturation;
+		}
+
+		@Override
+		public String toString() {
+			return expression;
+		}
+	}
+
+	/**
+	 * A rule which compares the maximum score with a given threshold.
+	 * The operator is resolved once, at compile time, in one of the (primitive) flags below.
+	 */
+	private final static class ScoreRule implements Rule {
+		private final float threshold;
+		private final boolean lesser;
+		private final boolean equal;
+		private final boolean greater;
+		private final String expression;
+
+		private ScoreRule(final String operator, final float threshold) {
+			this.threshold = threshold;
+			this.lesser = operator.equals(LESSER_THAN_KEYWORD) || operator.equals(LESSER_OR_EQUAL_KEYWORD);
+			this.greater = operator.equals(GREATER_THAN_KEYWORD) || operator.equals(GREATER_OR_EQUAL_KEYWORD);
+			this.equal = operator.equals(EQUAL_KEYWORD) || operator.equals(LESSER_OR_EQUAL_KEYWORD) || operator.equals(GREATER_OR_EQUAL_KEYWORD);
+			this.expression = MAX_SCORE_KEYWORD + operator + threshold;
+		}
+
+		@Override
+		public boolean test(final long hits, final float maxScore) {
+			return (lesser && maxScore < threshold)
+					|| (greater && maxScore > threshold)
+					|| (equal && maxScore == threshold);
+		}
+
+		@Override
+		public int saturation() {
+			return UNBOUNDED;
+		}
+
+		@Override
+		public String toString() {
+			return expression;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package io.sease.crh;
+
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.solr.handler.component.SearchHandler;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+
+/**
+ * The default {@link ExecutionStrategy}: the chain members are invoked one after the other, and the walk stops at the
+ * first member whose rule accepts the corresponding result.
+ * <br/> <br/>
+ * This is the only strategy which uses the count probes (see {@link CompositeRequestHandler#PROBE_KEY}) and the
+ * relaxation ladder (see {@link CompositeRequestHandler#LADDER_KEY}), and which jumps to the final member when the
+ * time budget is (nearly) exhausted.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class SequentialExecution implements ExecutionStrategy {
+	private final CompositeRequestHandler engine;
+
+	/**
+	 * Builds a new sequential execution of the given handler chain.
+	 *
+	 * @param engine the handler which owns the chain.
+	 */
+	SequentialExecution(final CompositeRequestHandler engine) {
+		this.engine = engine;
+	}
+
+	@Override
+	public Optional<Map.Entry<String, SolrQueryResponse>> execute(final SolrQueryRequest request, final SolrQueryResponse response) {
+		return engine.walked(request, execute(request, response, 0, engine.chain.size()));
+	}
+
+	/**
+	 * Walks sequentially a section of the chain, stopping at the first member whose rule accepts the corresponding
+	 * result. The outcome is not recorded.
+	 *
+	 * @param request the current {@link SolrQueryRequest}.
+	 * @param response the current {@link SolrQueryResponse}.
+	 * @param from the index of the first member (inclusive).
+	 * @param to the index of the last member (exclusive).
+	 * @return the first chain member (i.e. its name and response) whose rule accepts the result, or nothing.
+	 */
+	Optional<Map.Entry<String, SolrQueryResponse>> execute(
+			final SolrQueryRequest request,
+			final SolrQueryResponse response,
+			final int from,
+			final int to) {
+		final int last = engine.chain.size() - 1;
+		final int start = engine.ladder && from == 0 ? engine.relaxation(request) : from;
+		final ChainTrace trace = CompositeRequestHandler.trace(request.getContext());
+		if (trace != null) {
+			for (int index = from; index < start; index++) {
+				trace.outcome(index, ChainTrace.REJECTED, CompositeRequestHandler.LADDER_KEY);
+			}
+		}
+
+		for (int index = start; index < to; index++) {
+			if (index < last && engine.exhausted(request)) {
+				for (int skipped = index; skipped < to && skipped < last; skipped++) {
+					engine.abandon(request, skipped);
+				}
+
+				if (to <= last) {
+					break;
+				}
+				index = last;
+			}
+
+			if (engine.skipped(request, index)) {
+				continue;
+			}
+
+			final SearchHandler handler = engine.member(request, index);
+			if (engine.probe && !engine.probe(request, handler, index)) {
+				if (trace != null && !engine.abandoned(request).contains(engine.chain.get(index))) {
+					trace.outcome(index, ChainTrace.REJECTED, CompositeRequestHandler.PROBE_KEY);
+				}
+				continue;
+			}
+
+			// The final member always wins: it can directly write in the caller response
+			final Map.Entry<String, SolrQueryResponse> result = engine.executeStep(
+					request,
+					response,
+					engine.params(request, index),
+					handler,
+					index,
+					request.getContext(),
+					index == last);
+			if (engine.accept(request, index, result.getValue())) {
+				return Optional.of(result);
+			}
+		}
+		return Optional.empty();
+	}
+}
@@ -0,0 +1,269 @@
+package io.sease.crh;
+
+import static java.util.Optional.ofNullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QueryParsing;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SyntaxError;
+import org.apache.solr.search.WrappedQuery;
+
+/**
+ * The work shared by all chain members of a single composite request.
+ * <br/> <br/>
+ * Chain members usually share the same query and filters and differ only in the query parsing parameters (e.g.
+ * defType, qf, mm). This object, attached to the request context, allows to
+ *
+ * <ul>
+ *     <li>parse each distinct filter query once, and intersect all of them into a single {@link DocSet} reused by
+ *     every member;</li>
+ *     <li>memoize the query parser output, so members with the same parsing parameters parse the query once.</li>
+ * </ul>
+ *
+ * The members see that work through the {@link SharedWorkQParserPlugin}: each member request gets a single
+ * "{!crh filters=true}" filter in place of the shared ones and (unless the member declares the defType as an
+ * invariant) "crh" as defType, with its actual defType moved in the {@link #DEF_TYPE_KEY} parameter.
+ * Filter queries with local params (e.g. tagged filters, post filters) are not shared, and they are passed as they
+ * are.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class SharedWork {
+	final static String CONTEXT_KEY = SharedWork.class.getName();
+	final static String DEF_TYPE_KEY = "crh.defType";
+	final static String FILTERS_KEY = "filters";
+
+	/**
+	 * Parameters that don't affect the query parsing, and therefore are not part of the memoization key.
+	 */
+	private final static String [] NON_PARSING_PARAMS = {
+			CommonParams.FQ,
+			CommonParams.FL,
+			CommonParams.ROWS,
+			CommonParams.START,
+			CommonParams.SORT,
+			CommonParams.WT,
+			CommonParams.DEBUG,
+			CommonParams.DEBUG_QUERY,
+			CommonParams.OMIT_HEADER,
+			CommonParams.HEADER_ECHO_PARAMS,
+			CommonParams.TIME_ALLOWED,
+			CommonParams.QT,
+			QueryParsing.DEFTYPE,
+			"cursorMark",
+			"indent",
+			"hl",
+			"facet",
+			"group",
+			"stats",
+			"spellcheck",
+			"json"
+	};
+
+	/**
+	 * The output of a query parser: the query and the highlighting query.
+	 */
+	final static class ParsedQuery {
+		final Query query;
+		final Query highlightQuery;
+
+		ParsedQuery(final Query query, final Query highlightQuery) {
+			this.query = query;
+			this.highlightQuery = highlightQuery;
+		}
+	}
+
+	private final String parserName;
+	private final SolrParams params;
+	private final DocSet filters;
+	private final SolrParams [] memberParams;
+	private final Map<String, ParsedQuery> parsedQueries = new ConcurrentHashMap<>();
+
+	private SharedWork(final String parserName, final SolrParams params, final DocSet filters, final int members) {
+		this.parserName = parserName;
+		this.params = params;
+		this.filters = filters;
+		this.memberParams = new SolrParams[members];
+	}
+
+	/**
+	 * Creates the shared work for the given composite request: the shareable filter queries are parsed and
+	 * intersected here, once.
+	 *
+	 * @param request the composite request.
+	 * @param parserName the name the {@link SharedWorkQParserPlugin} has been registered with.
+	 * @param members how many members there are in the chain.
+	 * @return the shared work for the given composite request.
+	 * @throws SyntaxError in case a filter query cannot be parsed.
+	 * @throws IOException in case of I/O failure while computing the filters {@link DocSet}.
+	 */
+	static SharedWork create(
+			final SolrQueryRequest request,
+			final String parserName,
+			final int members) throws SyntaxError, IOException {
+		final SolrParams requestParams = request.getParams();
+		final Set<String> shareable = new LinkedHashSet<>();
+		final List<String> others = new ArrayList<>();
+		for (final String fq : ofNullable(requestParams.getParams(CommonParams.FQ)).orElseGet(() -> new String[0])) {
+			if (fq == null || fq.trim().isEmpty()) {
+				continue;
+			}
+
+			if (fq.trim().startsWith(QueryParsing.LOCALPARAM_START)) {
+				others.add(fq);
+			} else {
+				shareable.add(fq);
+			}
+		}
+
+		if (shareable.isEmpty()) {
+			return new SharedWork(parserName, requestParams, null, members);
+		}
+
+		final List<Query> queries = new ArrayList<>(shareable.size());
+		for (final String fq : shareable) {
+			ofNullable(QParser.getParser(fq, request).getQuery()).ifPresent(queries::add);
+		}
+
+		final SolrIndexSearcher searcher = request.getSearcher();
+		final DocSet filters = searcher.getDocSet(queries);
+
+		final ModifiableSolrParams params = new ModifiableSolrParams(requestParams);
+		params.remove(CommonParams.FQ);
+		others.forEach(fq -> params.add(CommonParams.FQ, fq));
+		params.add(CommonParams.FQ, QueryParsing.LOCALPARAM_START + parserName + " " + FILTERS_KEY + "=true" + QueryParsing.LOCALPARAM_END);
+
+		return new SharedWork(parserName, params, filters, members);
+	}
+
+	/**
+	 * Returns the shared work associated with the given request, if any.
+	 *
+	 * @param request the chain member request.
+	 * @return the shared work associated with the given request, or null.
+	 */
+	static SharedWork of(final SolrQueryRequest request) {
+		return request.getContext() != null ? (SharedWork) request.getContext().get(CONTEXT_KEY) : null;
+	}
+
+	/**
+	 * Returns the parameters that must be used for executing the given chain member.
+	 *
+	 * @param index the chain member index.
+	 * @param member the chain member.
+	 * @return the parameters that must be used for executing the given chain member.
+	 */
+	SolrParams params(final int index, final RequestHandlerBase member) {
+		SolrParams result = memberParams[index];
+		if (result == null) {
+			result = memberParams[index] = memberParams(member);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a filter which matches the intersection of the shared filter queries.
+	 *
+	 * @return a filter which matches the intersection of the shared filter queries.
+	 */
+	Query filter() {
+		final WrappedQuery filter = new WrappedQuery(filters.getTopFilter());
+		// The DocSet is specific to this request: no point in polluting the filter cache with it
+		filter.setCache(false);
+		return filter;
+	}
+
+	/**
+	 * Parses the given query using the actual query parser of the chain member, or returns the memoized result of a
+	 * previous parsing made with the same parameters.
+	 *
+	 * @param qstr the query string.
+	 * @param defType the actual query parser of the chain member.
+	 * @param request the chain member request.
+	 * @return the parsing output.
+	 * @throws SyntaxError in case the query cannot be parsed.
+	 */
+	ParsedQuery parse(final String qstr, final String defType, final SolrQueryRequest request) throws SyntaxError {
+		final String signature = signature(qstr, defType, request.getParams());
+		final ParsedQuery memoized = parsedQueries.get(signature);
+		if (memoized != null) {
+			return memoized;
+		}
+
+		final QParser parser = QParser.getParser(qstr, defType, request);
+		final ParsedQuery parsed = new ParsedQuery(parser.getQuery(), parser.getHighlightQuery());
+		parsedQueries.putIfAbsent(signature, parsed);
+		return parsed;
+	}
+
+	private SolrParams memberParams(final RequestHandlerBase member) {
+		final NamedList<?> initArgs = ofNullable(member.getInitArgs()).orElseGet(NamedList::new);
+		if (params(initArgs, "invariants").get(QueryParsing.DEFTYPE) != null) {
+			return params;
+		}
+
+		final String defType = ofNullable(params.get(QueryParsing.DEFTYPE))
+				.orElseGet(() -> params(initArgs, "defaults").get(QueryParsing.DEFTYPE));
+
+		final ModifiableSolrParams overrides = new ModifiableSolrParams();
+		overrides.set(QueryParsing.DEFTYPE, parserName);
+		if (defType != null) {
+			overrides.set(DEF_TYPE_KEY, defType);
+		}
+		return SolrParams.wrapDefaults(overrides, params);
+	}
+
+	private static String signature(final String qstr, final String defType, final SolrParams params) {
+		final List<String> names = new ArrayList<>();
+		for (final Iterator<String> iterator = params.getParameterNamesIterator(); iterator.hasNext();) {
+			final String name = iterator.next();
+			if (affectsParsing(name)) {
+				names.add(name);
+			}
+		}
+		names.sort(null);
+
+		final StringBuilder signature = new StringBuilder(defType).append('|').append(qstr);
+		for (final String name : names) {
+			signature.append('|').append(name);
+			for (final String value : params.getParams(name)) {
+				signature.append('=').append(value);
+			}
+		}
+		return signature.toString();
+	}
+
+	private static boolean affectsParsing(final String name) {
+		for (final String prefix : NON_PARSING_PARAMS) {
+			if (name.equals(prefix) || (name.startsWith(prefix) && name.charAt(prefix.length()) == '.')) {
+				return false;
+			}
+		}
+		return !name.equals(DEF_TYPE_KEY);
+	}
+
+	private static SolrParams params(final NamedList<?> initArgs, final String name) {
+		final Object params = initArgs.get(name);
+		return params instanceof NamedList
+				? SolrParams.toSolrParams((NamedList<?>) params)
+				: new ModifiableSolrParams();
+	}
+}
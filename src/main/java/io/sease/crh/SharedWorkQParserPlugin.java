@@ -0,0 +1,71 @@
+package io.sease.crh;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SyntaxError;
+
+/**
+ * The {@link QParserPlugin} through which the chain members access the {@link SharedWork} of a composite request.
+ * It needs to be registered in the solrconfig.xml, using the same name configured in the composite handler
+ * (default is "crh"):
+ *
+ * <pre>
+ * &lt;queryParser name="crh" class="io.sease.crh.SharedWorkQParserPlugin"/&gt;
+ * </pre>
+ *
+ * "{!crh filters=true}" is the (non cached) filter which matches the intersection of the shared filter queries,
+ * while "crh" as defType parses the main query with the parser declared in the {@link SharedWork#DEF_TYPE_KEY}
+ * parameter, memoizing the result.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class SharedWorkQParserPlugin extends QParserPlugin {
+	public final static String NAME = "crh";
+
+	@Override
+	public QParser createParser(
+			final String qstr,
+			final SolrParams localParams,
+			final SolrParams params,
+			final SolrQueryRequest req) {
+		final boolean filters = localParams != null && localParams.getBool(SharedWork.FILTERS_KEY, false);
+		return new QParser(qstr, localParams, params, req) {
+			private Query highlightQuery;
+
+			@Override
+			public Query parse() throws SyntaxError {
+				final SharedWork work = SharedWork.of(req);
+				final String defType = getParam(SharedWork.DEF_TYPE_KEY) != null
+						? getParam(SharedWork.DEF_TYPE_KEY)
+						: QParserPlugin.DEFAULT_QTYPE;
+
+				if (filters) {
+					if (work == null) {
+						throw new SyntaxError("No shared work is associated with this request.");
+					}
+					return work.filter();
+				}
+
+				if (work == null) {
+					final QParser parser = QParser.getParser(qstr, defType, req);
+					highlightQuery = parser.getHighlightQuery();
+					return parser.getQuery();
+				}
+
+				final SharedWork.ParsedQuery parsed = work.parse(qstr, defType, req);
+				highlightQuery = parsed.highlightQuery;
+				return parsed.query;
+			}
+
+			@Override
+			public Query getHighlightQuery() throws SyntaxError {
+				getQuery();
+				return highlightQuery;
+			}
+		};
+	}
+}
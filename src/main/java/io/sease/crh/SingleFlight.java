@@ -0,0 +1,109 @@
+package io.sease.crh;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * Coalesces identical concurrent composite requests (see {@link CompositeRequestHandler#COALESCE_KEY}).
+ * <br/> <br/>
+ * The first request (the "leader") registers its flight in a lock-free map and walks the chain; the identical
+ * requests which arrive in the meantime (the "followers") wait for the leader outcome and share it, instead of
+ * walking the chain on their own. A follower which doesn't get a usable outcome (i.e. the leader failed, produced a
+ * partial result or it is taking too long) falls back to its own chain execution.
+ * <br/> <br/>
+ * The flight is removed from the map as soon as the leader completes, so nothing is retained after that: this is
+ * not a cache, it only deduplicates the work which is in progress.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class SingleFlight {
+	/**
+	 * The outcome of a leader execution: a snapshot of the winning response, taken on the leader thread.
+	 */
+	final static class Outcome {
+		final String winner;
+		final NamedList<Object> values;
+		final NamedList<Object> header;
+
+		/**
+		 * Builds a new outcome.
+		 *
+		 * @param winner the name of the winning member.
+		 * @param values the values of the winning response, except the header.
+		 * @param header a copy of the header of the winning response, or null.
+		 */
+		Outcome(final String winner, final NamedList<Object> values, final NamedList<Object> header) {
+			this.winner = winner;
+			this.values = values;
+			this.header = header;
+		}
+	}
+
+	private final ConcurrentHashMap<Object, CompletableFuture<Outcome>> flights = new ConcurrentHashMap<>();
+	private final long timeout;
+
+	/**
+	 * Builds a new {@link SingleFlight}.
+	 *
+	 * @param timeout how long (in msecs) a follower waits for the leader outcome.
+	 */
+	SingleFlight(final long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Registers the given flight, unless there's already an in-flight execution with the same key.
+	 *
+	 * @param key the request key.
+	 * @param flight the flight of the current request.
+	 * @return the in-flight execution with the same key (so the current request is a follower), or null if the given
+	 * 			flight has been registered (so the current request is the leader).
+	 */
+	CompletableFuture<Outcome> join(final Object key, final CompletableFuture<Outcome> flight) {
+		return flights.putIfAbsent(key, flight);
+	}
+
+	/**
+	 * Waits for the outcome of the given (leader) flight.
+	 *
+	 * @param flight the leader flight.
+	 * @return the leader outcome, or null if it is not available within the timeout.
+	 */
+	Outcome follow(final CompletableFuture<Outcome> flight) {
+		try {
+			return flight.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (final ExecutionException | TimeoutException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * Completes the given (leader) flight and removes it from the in-flight executions.
+	 *
+	 * @param key the request key.
+	 * @param flight the leader flight.
+	 * @param outcome the leader outcome, or null if it cannot be shared.
+	 */
+	void land(final Object key, final CompletableFuture<Outcome> flight, final Outcome outcome) {
+		flights.remove(key, flight);
+		flight.complete(outcome);
+	}
+
+	/**
+	 * Returns the number of in-flight executions.
+	 *
+	 * @return the number of in-flight executions.
+	 */
+	int inFlight() {
+		return flights.size();
+	}
+}
@@ -0,0 +1,103 @@
+package io.sease.crh;
+
+import static java.util.Optional.ofNullable;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+
+/**
+ * The "speculative" {@link ExecutionStrategy} (see {@link CompositeRequestHandler#SPECULATIVE_LOOKAHEAD_KEY}): the
+ * chain is walked keeping a window of (at most) N members running at the same time, on a dedicated executor.
+ * <br/> <br/>
+ * The results are still examined in chain order, so the outcome is the same of the {@link SequentialExecution}: once a
+ * winner has been found, the remaining executions are cancelled and their results discarded. Executions which are
+ * already running are not interrupted (an interrupt would close the index file channels they are reading from): they
+ * complete in background, holding their own reference to the index reader, and their outcome is simply ignored (it
+ * is not recorded in the metrics, circuit breakers or trace either, see
+ * {@link CompositeRequestHandler#speculativeStep}).
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class SpeculativeExecution implements ExecutionStrategy {
+	private final CompositeRequestHandler engine;
+	private final ExecutorService executor;
+	private final int lookahead;
+
+	/**
+	 * Builds a new speculative execution of the given handler chain.
+	 *
+	 * @param engine the handler which owns the chain.
+	 * @param executor the executor which runs the chain members.
+	 * @param lookahead how many chain members can run at the same time.
+	 */
+	SpeculativeExecution(final CompositeRequestHandler engine, final ExecutorService executor, final int lookahead) {
+		this.engine = engine;
+		this.executor = executor;
+		this.lookahead = lookahead;
+	}
+
+	@Override
+	public Optional<Map.Entry<String, SolrQueryResponse>> execute(final SolrQueryRequest request, final SolrQueryResponse response) {
+		// The searcher is lazily acquired by the request, and that is not thread-safe: do that here, once.
+		request.getSearcher();
+
+		final int size = engine.chain.size();
+		final Date now = ofNullable(SolrRequestInfo.getRequestInfo()).map(SolrRequestInfo::getNOW).orElse(null);
+		final AtomicBoolean settled = new AtomicBoolean();
+		final Deque<Future<Map.Entry<String, SolrQueryResponse>>> window = new ArrayDeque<>(lookahead);
+		try {
+			int next = 0;
+			for (int index = 0; index < size; index++) {
+				for (; next < size && next < index + lookahead; next++) {
+					window.addLast(engine.skipped(request, next)
+							? CompletableFuture.completedFuture(null)
+							: executor.submit(engine.speculativeStep(request, response, next, now, settled)));
+				}
+
+				final Map.Entry<String, SolrQueryResponse> result = await(window.removeFirst());
+				if (result != null && engine.accept(request, index, result.getValue())) {
+					return engine.walked(request, Optional.of(result));
+				}
+			}
+			return engine.walked(request, Optional.empty());
+		} finally {
+			settled.set(true);
+			window.forEach(execution -> execution.cancel(false));
+		}
+	}
+
+	/**
+	 * Waits for the given chain member execution, unwrapping the failure cause, if any.
+	 *
+	 * @param execution the chain member execution.
+	 * @return the chain member (i.e. its name and response).
+	 * @throws SolrException in case the execution failed or the current thread has been interrupted.
+	 */
+	static Map.Entry<String, SolrQueryResponse> await(final Future<Map.Entry<String, SolrQueryResponse>> execution) {
+		try {
+			return execution.get();
+		} catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, exception);
+		} catch (final ExecutionException exception) {
+			if (exception.getCause() instanceof SolrException) {
+				throw (SolrException) exception.getCause();
+			}
+			throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, exception.getCause());
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package io.sease.crh;
+
+/**
+ * Learns which chain member wins for a given class of queries.
+ * <br/> <br/>
+ * Queries are grouped in a small, fixed number of classes (see {@link #classify(String)}), depending on their shape
+ * (number of terms, fielded terms, terms with digits like SKUs or part numbers). For each class there's a row of
+ * decayed win counters, one for each chain member: each time a member wins, the whole row is decayed and the winner
+ * counter is incremented. As a consequence, the memory footprint is bounded (classes x members primitive counters)
+ * and old observations gradually lose their weight.
+ * <br/> <br/>
+ * When the (decayed) number of observations of a class is large enough and a member collects most of them, that
+ * member is the predicted winner for the class.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+final class WinStatistics {
+	final static int MAX_TERMS_BUCKET = 4;
+	final static int CLASSES = 1 + MAX_TERMS_BUCKET * 4;
+
+	final static String MATCH_ALL = "*:*";
+
+	private final float [][] wins;
+	private final float decay;
+	private final float confidence;
+	private final float minSamples;
+
+	/**
+	 * Builds a new statistics holder.
+	 *
+	 * @param members how many members there are in the chain.
+	 * @param decay the decay factor applied to a class counters each time a new win is recorded, in (0, 1].
+	 * @param confidence the minimum ratio between the wins of a member and the total wins of a class, for predicting
+	 *                   that member as the winner.
+	 * @param minSamples the minimum (decayed) number of wins of a class, before predicting anything.
+	 */
+	WinStatistics(final int members, final float decay, final float confidence, final float minSamples) {
+		this.wins = new float[CLASSES][members];
+		this.decay = decay;
+		this.confidence = confidence;
+		this.minSamples = minSamples;
+	}
+
+	/**
+	 * Returns the class of the given query.
+	 * Class 0 is the empty / match all query, the other classes combine the number of terms (1, 2, 3, 4 or more)
+	 * with the presence of fielded terms and terms containing digits.
+	 *
+	 * @param query the query string.
+	 * @return the class of the given query, in [0, {@link #CLASSES}).
+	 */
+	static int classify(final String query) {
+		if (query == null) {
+			return 0;
+		}
+
+		int terms = 0;
+		boolean fielded = false;
+		boolean digits = false;
+		boolean inTerm = false;
+		for (int index = 0; index < query.length(); index++) {
+			final char ch = query.charAt(index);
+			if (Character.isWhitespace(ch)) {
+				inTerm = false;
+				continue;
+			}
+
+			if (!inTerm) {
+				terms++;
+				inTerm = true;
+			}
+
+			fielded |= ch == ':';
+			digits |= Character.isDigit(ch);
+		}
+
+		if (terms == 0 || (terms == 1 && MATCH_ALL.equals(query.trim()))) {
+			return 0;
+		}
+
+		return 1 + (Math.min(terms, MAX_TERMS_BUCKET) - 1) * 4 + (fielded ? 2 : 0) + (digits ? 1 : 0);
+	}
+
+	/**
+	 * Records a win.
+	 *
+	 * @param queryClass the query class.
+	 * @param winner the index of the winning chain member.
+	 */
+	void record(final int queryClass, final int winner) {
+		final float [] row = wins[queryClass];
+		synchronized (row) {
+			for (int index = 0; index < row.length; index++) {
+				row[index] *= decay;
+			}
+			row[winner] += 1f;
+		}
+	}
+
+	/**
+	 * Returns the predicted winner for the given query class.
+	 *
+	 * @param queryClass the query class.
+	 * @return the index of the chain member which is likely to win, or 0 if there's no prediction.
+	 */
+	int predict(final int queryClass) {
+		final float [] row = wins[queryClass];
+		synchronized (row) {
+			float total = 0f;
+			int likely = 0;
+			for (int index = 0; index < row.length; index++) {
+				total += row[index];
+				if (row[index] > row[likely]) {
+					likely = index;
+				}
+			}
+			return total >= minSamples && row[likely] >= confidence * total ? likely : 0;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for checking the adaptive execution of the chain members.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class AdaptiveExecutionTestCase extends BaseUnitTest {
+	private final static String QUERY = "AB-1234";
+
+	@Before
+	public void setUp() {
+		newRequest(newCore(), new ModifiableSolrParams().add(CommonParams.Q, QUERY));
+
+		args = chainArgs("gt0,gt0,always");
+		args.add(CompositeRequestHandler.ADAPTIVE_KEY, "true");
+
+		cut = new CompositeRequestHandler();
+	}
+
+	@After
+	public void tearDown() {
+		cut.close();
+	}
+
+	/**
+	 * Without a confident prediction, the chain is walked as usual, and the winners are recorded.
+	 */
+	@Test
+	public void winnersAreLearned() {
+		cut.init(args);
+
+		doAnswer(returnResults(0)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(0)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(4)).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		final int queryClass = WinStatistics.classify(QUERY);
+		assertEquals(0, cut.statistics.predict(queryClass));
+
+		for (int i = 0; i < 30; i++) {
+			cut.handleRequestBody(qrequest, new SolrQueryResponse());
+		}
+
+		assertEquals(2, cut.statistics.predict(queryClass));
+	}
+
+	/**
+	 * The likely winner runs at the same time of the preceding members.
+	 */
+	@Test
+	public void likelyWinnerRunsConcurrently() {
+		cut.init(args);
+		train(2);
+
+		final CountDownLatch likelyWinnerStarted = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			assertTrue(likelyWinnerStarted.await(10, TimeUnit.SECONDS));
+			return returnResults(0).answer(invocation);
+		}).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(0)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(invocation -> {
+			likelyWinnerStarted.countDown();
+			return returnResults(4).answer(invocation);
+		}).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verify(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verify(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verify(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		assertEquals(4, cut.howManyFound(qresponse));
+	}
+
+	/**
+	 * A wrong prediction doesn't change the outcome: a preceding member which matches still wins.
+	 */
+	@Test
+	public void precedingMemberStillWins() {
+		cut.init(args);
+		train(2);
+
+		doAnswer(returnResults(0)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(2)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(9)).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		assertEquals(2, cut.howManyFound(qresponse));
+	}
+
+	/**
+	 * A wrong prediction doesn't change the outcome: if the likely winner doesn't match, the walk goes ahead.
+	 */
+	@Test
+	public void followingMemberWinsIfTheLikelyWinnerDoesNotMatch() {
+		cut.init(args);
+		train(1);
+
+		doAnswer(returnResults(0)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(0)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(6)).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verify(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		assertEquals(6, cut.howManyFound(qresponse));
+	}
+
+	private void train(final int winner) {
+		for (int i = 0; i < 100; i++) {
+			cut.statistics.record(WinStatistics.classify(QUERY), winner);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the {@link AdmissionController}.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class AdmissionControlTestCase extends BaseUnitTest {
+	private final static int ONE_TERM = WinStatistics.classify("nike");
+	private final static int TWO_TERMS = WinStatistics.classify("nike shoes");
+
+	@Before
+	public void setUp() {
+		newRequest(newCore(), new ModifiableSolrParams().add(CommonParams.Q, "nike shoes"));
+		doAnswer(returnResults(1)).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		args = chainArgs("gt0,gt0,always");
+
+		cut = new CompositeRequestHandler();
+	}
+
+	@Test
+	public void weightFollowsTheFallThroughDepth() {
+		final AdmissionController controller = new AdmissionController(10, 0, 0);
+		assertEquals(1, controller.weight(TWO_TERMS));
+
+		for (int i = 0; i < 100; i++) {
+			controller.learn(TWO_TERMS, 3);
+		}
+
+		assertEquals(3, controller.weight(TWO_TERMS));
+		assertEquals(1, controller.weight(ONE_TERM));
+	}
+
+	@Test
+	public void weightIsBoundedByTheCapacity() {
+		final AdmissionController controller = new AdmissionController(2, 0, 0);
+		for (int i = 0; i < 100; i++) {
+			controller.learn(ONE_TERM, 5);
+		}
+
+		assertEquals(2, controller.weight(ONE_TERM));
+		assertEquals(2, controller.admit(ONE_TERM));
+		controller.release(2);
+		assertEquals(2, controller.available());
+	}
+
+	@Test
+	public void rejectWhenTheQueueIsFull() {
+		final AdmissionController controller = new AdmissionController(1, 0, 1000);
+		controller.admit(ONE_TERM);
+
+		try {
+			controller.admit(ONE_TERM);
+			fail();
+		} catch (final SolrException expected) {
+			assertEquals(SolrException.ErrorCode.SERVICE_UNAVAILABLE.code, expected.code());
+		}
+	}
+
+	@Test
+	public void rejectWhenTheWaitTimesOut() {
+		final AdmissionController controller = new AdmissionController(1, 1, 10);
+		controller.admit(ONE_TERM);
+
+		try {
+			controller.admit(ONE_TERM);
+			fail();
+		} catch (final SolrException expected) {
+			assertEquals(SolrException.ErrorCode.SERVICE_UNAVAILABLE.code, expected.code());
+		}
+	}
+
+	@Test
+	public void handlerLearnsTheDepthAndReleasesThePermits() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.ADMISSION_PERMITS_KEY, 4);
+		cut.init(initArgs);
+
+		for (int i = 0; i < 100; i++) {
+			final SolrQueryResponse response = new SolrQueryResponse();
+			response.addResponseHeader(new SimpleOrderedMap<>());
+			when(qrequest.getContext()).thenReturn(new HashMap<>());
+			cut.handleRequestBody(qrequest, response);
+		}
+
+		assertEquals(3, cut.admission.weight(TWO_TERMS));
+		assertEquals(4, cut.admission.available());
+	}
+
+	@Test
+	public void derivedInstancesShareTheController() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.ADMISSION_PERMITS_KEY, 4);
+		initArgs.add(CompositeRequestHandler.OVERRIDES_KEY, 2);
+		cut.init(initArgs);
+
+		assertSame(cut.admission, cut.compile(null, REQUEST_HANDLER_3_NAME, null).admission);
+		assertSame(
+				cut.admission,
+				cut.reconfigured(null, new ModifiableSolrParams().add(CompositeRequestHandler.ADMISSION_PERMITS_KEY, "100")).admission);
+	}
+
+	@Test
+	public void handlerLearnsTheStepsActuallyEvaluated() {
+		cut.init(args);
+
+		// Nothing has been evaluated (e.g. a coalesced request)
+		assertEquals(0, cut.steps(qrequest));
+
+		cut.handleRequestBody(qrequest, qresponse);
+		assertEquals(3, cut.steps(qrequest));
+
+		// e.g. a cache hit or a pinned page
+		cut.completed(qrequest, 2, 1);
+		assertEquals(1, cut.steps(qrequest));
+	}
+
+	@Test
+	public void rejectedRequestsAreCounted() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.ADMISSION_PERMITS_KEY, 1);
+		initArgs.add(CompositeRequestHandler.ADMISSION_QUEUE_KEY, 0);
+		cut.init(initArgs);
+		cut.admission.admit(TWO_TERMS);
+
+		try {
+			cut.handleRequestBody(qrequest, qresponse);
+			fail();
+		} catch (final SolrException expected) {
+			assertEquals(SolrException.ErrorCode.SERVICE_UNAVAILABLE.code, expected.code());
+		}
+
+		assertEquals(1, cut.metrics.rejected().getCount());
+		verifyZeroInteractions(rh1, rh2, rh3);
+	}
+}
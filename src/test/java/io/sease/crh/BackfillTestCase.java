@@ -0,0 +1,223 @@
+package io.sease.crh;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.ResultContext;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocList;
+import org.apache.solr.search.DocSlice;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test for {@link Backfill} and the backfill mode of the chain.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class BackfillTestCase extends BaseUnitTest {
+	private static DocList docs(final int ... ids) {
+		final float [] scores = new float[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			scores[i] = ids.length - i;
+		}
+		return new DocSlice(0, ids.length, ids, scores, ids.length, ids.length);
+	}
+
+	private Answer<?> returnDocs(final int ... ids) {
+		return returnDocs(null, ids);
+	}
+
+	private Answer<?> returnDocs(final String fields, final int ... ids) {
+		return invocation -> {
+			final SolrQueryResponse response = (SolrQueryResponse) invocation.getArguments()[1];
+
+			final ResultContext result = mock(ResultContext.class);
+			final DocList documents = docs(ids);
+			when(result.getDocList()).thenReturn(documents);
+
+			final SolrQueryRequest request = mock(SolrQueryRequest.class);
+			when(request.getParams()).thenReturn(fields != null ? new ModifiableSolrParams().add(CommonParams.FL, fields) : new ModifiableSolrParams());
+			when(result.getRequest()).thenReturn(request);
+
+			response.addResponse(result);
+			return null;
+		};
+	}
+
+	@Before
+	public void setUp() {
+		newRequest(newCore(), new ModifiableSolrParams().add(CommonParams.Q, "shoes"));
+
+		args = chainArgs(null);
+		args.add(CompositeRequestHandler.BACKFILL_KEY, "true");
+
+		cut = new CompositeRequestHandler();
+	}
+
+	@Test
+	public void duplicatesAreSkipped() {
+		final Backfill page = new Backfill(0, 5);
+
+		assertEquals(3, page.add(0, docs(1, 2, 3)));
+		assertFalse(page.full());
+		assertEquals(2, page.add(1, docs(2, 4, 3, 5, 6)));
+		assertTrue(page.full());
+
+		final DocList merged = page.docList();
+		assertEquals(5, merged.size());
+		assertEquals(asList(1, 2, 3, 4, 5), ids(merged));
+		assertEquals(asList("a", "a", "a", "b", "b"), page.provenance(asList("a", "b")));
+	}
+
+	@Test
+	public void pageOffset() {
+		final Backfill page = new Backfill(2, 2);
+		page.add(0, docs(1, 2));
+		page.add(1, docs(1, 3, 4, 5));
+
+		assertEquals(asList(3, 4), ids(page.docList()));
+		assertEquals(asList("b", "b"), page.provenance(asList("a", "b")));
+	}
+
+	@Test
+	public void scoresOnlyIfAllMembersHaveThem() {
+		final Backfill page = new Backfill(0, 10);
+		page.add(0, docs(1, 2));
+		assertTrue(page.docList().hasScores());
+
+		page.add(1, new DocSlice(0, 1, new int[] {3}, null, 1, 0f));
+		assertFalse(page.docList().hasScores());
+	}
+
+	@Test
+	public void hugePagesDoNotOverflow() {
+		assertEquals(Integer.MAX_VALUE, Backfill.limit(0, Integer.MAX_VALUE));
+		assertEquals(Integer.MAX_VALUE, Backfill.limit(10, Integer.MAX_VALUE));
+		assertEquals(15, Backfill.limit(5, 10));
+		assertEquals(0, Backfill.limit(-1, -1));
+
+		final Backfill page = new Backfill(10, Integer.MAX_VALUE);
+		final int [] ids = new int[100];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = i;
+		}
+		assertEquals(100, page.add(0, docs(ids)));
+		assertFalse(page.full());
+		assertEquals(90, page.docList().size());
+	}
+
+	@Test
+	public void allResultsRequest() {
+		cut.init(args);
+		params.set(CommonParams.ROWS, Integer.MAX_VALUE);
+
+		doAnswer(returnDocs(1, 2)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnDocs(2, 3)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnDocs(4)).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		final ArgumentCaptor<SolrQueryRequest> request = ArgumentCaptor.forClass(SolrQueryRequest.class);
+		verify(rh1).handleRequest(request.capture(), any(SolrQueryResponse.class));
+		assertEquals(Integer.MAX_VALUE, request.getValue().getParams().getInt(CommonParams.ROWS).intValue());
+		assertEquals(asList(1, 2, 3, 4), ids(cut.docList(qresponse)));
+	}
+
+	@Test
+	public void chainIsWalkedUntilThePageIsFilled() {
+		cut.init(args);
+		params.set(CommonParams.ROWS, 4);
+
+		doAnswer(returnDocs(10, 11)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnDocs(11, 12, 13, 14)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verifyZeroInteractions(rh3);
+		assertEquals(asList(10, 11, 12, 13), ids(cut.docList(qresponse)));
+		assertEquals(
+				asList(REQUEST_HANDLER_1_NAME, REQUEST_HANDLER_1_NAME, REQUEST_HANDLER_2_NAME, REQUEST_HANDLER_2_NAME),
+				qresponse.getValues().get(CompositeRequestHandler.PROVENANCE_KEY));
+	}
+
+	@Test
+	public void wholeChainWhenThePageCannotBeFilled() {
+		cut.init(args);
+
+		doAnswer(returnDocs(1)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnDocs()).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnDocs(1, 2)).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		assertEquals(asList(1, 2), ids(cut.docList(qresponse)));
+	}
+
+	@Test
+	public void membersWithTheSameFieldsAreMerged() {
+		cut.init(args);
+
+		doAnswer(returnDocs("id,name", 1)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnDocs("id,name", 2)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnDocs("id,name", 3)).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		assertEquals(asList(1, 2, 3), ids(cut.docList(qresponse)));
+	}
+
+	@Test(expected = SolrException.class)
+	public void membersWithDifferentFieldsAreRefused() {
+		cut.init(args);
+
+		doAnswer(returnDocs("id,name", 1)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnDocs("id,name,[explain]", 2)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+	}
+
+	private static List<Integer> ids(final DocList documents) {
+		final List<Integer> ids = new ArrayList<>();
+		for (final DocIterator iterator = documents.iterator(); iterator.hasNext();) {
+			ids.add(iterator.nextDoc());
+		}
+		return ids;
+	}
+
+	/**
+	 * Having no winner, the backfill mode rejects the options which rely on it, instead of ignoring them.
+	 */
+	@Test(expected = SolrException.class)
+	public void pagingAffinityIsRejected() {
+		args.add(CompositeRequestHandler.AFFINITY_KEY, "true");
+		cut.init(args);
+	}
+
+	@Test(expected = SolrException.class)
+	public void resultCacheIsRejected() {
+		args.add(CompositeRequestHandler.RESULT_CACHE_KEY, "compositeCache");
+		cut.init(args);
+	}
+
+	@Test(expected = SolrException.class)
+	public void deferredComponentsAreRejected() {
+		args.add(CompositeRequestHandler.DEFERRED_KEY, "true");
+		cut.init(args);
+	}
+}
@@ -1,14 +1,23 @@
 package io.sease.crh;
 
 import static java.util.Arrays.asList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import java.util.HashMap;
 import java.util.List;
 
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.handler.component.SearchHandler;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.response.ResultContext;
 import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocList;
+import org.mockito.stubbing.Answer;
 
 /**
  * Supertype layer for all Unit Tests.
@@ -19,25 +28,97 @@ import org.apache.solr.response.SolrQueryResponse;
 public abstract class BaseUnitTest {
 	protected final String SAMPLE_KEY = "SAMPLE_KEY";
 	protected final String SAMPLE_VALUE = "SAMPLE_VALUE";
-	
+
 	protected final static String REQUEST_HANDLER_1_NAME = "/rh1";
 	protected final static String REQUEST_HANDLER_2_NAME = "/rh2";
 	protected final static String REQUEST_HANDLER_3_NAME = "/rh3";
-	
+
 	protected final static List<String> CHAIN = asList(
-			REQUEST_HANDLER_1_NAME, 
-			REQUEST_HANDLER_2_NAME, 
+			REQUEST_HANDLER_1_NAME,
+			REQUEST_HANDLER_2_NAME,
 			REQUEST_HANDLER_3_NAME);
-	
+
 	protected CompositeRequestHandler cut;
-	
+
 	protected SolrRequestHandler rh1;
 	protected SolrRequestHandler rh2;
 	protected SolrRequestHandler rh3;
-	
+
 	protected SolrQueryRequest qrequest;
 	protected SolrQueryResponse qresponse;
-	
+
 	protected NamedList<Object> args;
 	protected ModifiableSolrParams params;
+
+	/**
+	 * Creates the chain members (rh1, rh2 and rh3) and a {@link SolrCore} which resolves them.
+	 *
+	 * @return a {@link SolrCore} which resolves the chain members.
+	 */
+	protected SolrCore newCore() {
+		rh1 = mock(SearchHandler.class);
+		rh2 = mock(SearchHandler.class);
+		rh3 = mock(SearchHandler.class);
+
+		final SolrCore core = mock(SolrCore.class);
+		when(core.getRequestHandler(REQUEST_HANDLER_1_NAME)).thenReturn(rh1);
+		when(core.getRequestHandler(REQUEST_HANDLER_2_NAME)).thenReturn(rh2);
+		when(core.getRequestHandler(REQUEST_HANDLER_3_NAME)).thenReturn(rh3);
+		return core;
+	}
+
+	/**
+	 * Creates the incoming request, bound to the given core and params, and the corresponding (empty) response.
+	 *
+	 * @param core the {@link SolrCore} of the request.
+	 * @param params the request parameters.
+	 */
+	protected void newRequest(final SolrCore core, final ModifiableSolrParams params) {
+		this.params = params;
+
+		qrequest = mock(SolrQueryRequest.class);
+		when(qrequest.getCore()).thenReturn(core);
+		when(qrequest.getParams()).thenReturn(params);
+		when(qrequest.getContext()).thenReturn(new HashMap<>());
+
+		qresponse = new SolrQueryResponse();
+		qresponse.addResponseHeader(new SimpleOrderedMap<>());
+	}
+
+	/**
+	 * Returns the configuration of a composite handler which runs the sample chain with the given rules.
+	 *
+	 * @param rules the transition rules, or null.
+	 * @return the configuration of a composite handler which runs the sample chain with the given rules.
+	 */
+	protected NamedList<Object> chainArgs(final String rules) {
+		final NamedList<Object> chainArgs = new SimpleOrderedMap<>();
+		chainArgs.add(CompositeRequestHandler.CHAIN_KEY, String.join(",", CHAIN));
+		if (rules != null) {
+			chainArgs.add(CompositeRequestHandler.RULES_KEY, rules);
+		}
+		return chainArgs;
+	}
+
+	/**
+	 * Returns a chain member behaviour which writes a result with the given number of hits in the member response.
+	 *
+	 * @param howMany the number of hits.
+	 * @return a chain member behaviour which writes a result with the given number of hits in the member response.
+	 */
+	protected static Answer<?> returnResults(final int howMany) {
+		return invocation -> {
+			final SolrQueryResponse response = (SolrQueryResponse) invocation.getArguments()[1];
+
+			final DocList docList = mock(DocList.class);
+			when(docList.size()).thenReturn(howMany);
+			when(docList.matches()).thenReturn(howMany);
+
+			final ResultContext result = mock(ResultContext.class);
+			when(result.getDocList()).thenReturn(docList);
+
+			response.addResponse(result);
+			return null;
+		};
+	}
 }
@@ -0,0 +1,110 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the chain execution trace and the slow request log.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class ChainTraceTestCase extends BaseUnitTest {
+	@Before
+	public void setUp() {
+		newRequest(newCore(), new ModifiableSolrParams().add(SAMPLE_KEY, SAMPLE_VALUE));
+
+		args = chainArgs("gt0,gt0,always");
+
+		cut = new CompositeRequestHandler();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void debugRequestsGetTheChainTrace() {
+		params.add(CommonParams.DEBUG, CommonParams.TIMING);
+		cut.init(args);
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		final NamedList<Object> debug = (NamedList<Object>) qresponse.getValues().get("debug");
+		assertNotNull(debug);
+
+		final NamedList<Object> trace = (NamedList<Object>) debug.get(CompositeRequestHandler.TRACE_KEY);
+		assertNotNull(trace);
+		assertEquals(REQUEST_HANDLER_3_NAME, trace.get("winner"));
+
+		final NamedList<Object> steps = (NamedList<Object>) trace.get("steps");
+		assertEquals(CHAIN.size(), steps.size());
+		assertEquals(ChainTrace.REJECTED, ((NamedList<Object>) steps.get(REQUEST_HANDLER_1_NAME)).get("outcome"));
+		assertEquals(0L, ((NamedList<Object>) steps.get(REQUEST_HANDLER_1_NAME)).get("hits"));
+		assertEquals(ChainTrace.REJECTED, ((NamedList<Object>) steps.get(REQUEST_HANDLER_2_NAME)).get("outcome"));
+		assertEquals(ChainTrace.ACCEPTED, ((NamedList<Object>) steps.get(REQUEST_HANDLER_3_NAME)).get("outcome"));
+		assertNotNull(((NamedList<Object>) steps.get(REQUEST_HANDLER_3_NAME)).get("time"));
+	}
+
+	@Test
+	public void regularRequestsAreNotTraced() {
+		cut.init(args);
+
+		assertNull(cut.traced(qrequest));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		assertNull(qresponse.getValues().get("debug"));
+	}
+
+	@Test
+	public void slowRequestLogIsSampled() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.SLOW_LOG_THRESHOLD_KEY, 0);
+		initArgs.add(CompositeRequestHandler.SLOW_LOG_SAMPLING_KEY, 1f);
+		cut.init(initArgs);
+
+		assertNotNull(cut.traced(qrequest));
+
+		final NamedList<Object> unsampled = args.clone();
+		unsampled.add(CompositeRequestHandler.SLOW_LOG_THRESHOLD_KEY, 0);
+		unsampled.add(CompositeRequestHandler.SLOW_LOG_SAMPLING_KEY, 0f);
+		cut.init(unsampled);
+
+		assertNull(cut.traced(qrequest));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void skippedMembersCarryTheReason() {
+		final ChainTrace trace = new ChainTrace(CHAIN);
+		trace.outcome(0, ChainTrace.SKIPPED, CompositeRequestHandler.BREAKERS_KEY);
+		trace.executed(1, 2_000_000, 7, false);
+		trace.outcome(1, ChainTrace.ACCEPTED, null);
+		trace.phase(ChainTrace.CLONING, 500_000);
+		trace.phase(ChainTrace.CLONING, 500_000);
+		trace.winner(REQUEST_HANDLER_2_NAME);
+		assertTrue(trace.finish() >= 0);
+
+		final NamedList<Object> result = trace.asNamedList();
+		assertEquals(1d, result.get(ChainTrace.CLONING));
+
+		final NamedList<Object> steps = (NamedList<Object>) result.get("steps");
+		assertEquals(2, steps.size());
+
+		final NamedList<Object> skipped = (NamedList<Object>) steps.get(REQUEST_HANDLER_1_NAME);
+		assertEquals(ChainTrace.SKIPPED, skipped.get("outcome"));
+		assertEquals(CompositeRequestHandler.BREAKERS_KEY, skipped.get("reason"));
+		assertNull(skipped.get("time"));
+
+		final NamedList<Object> accepted = (NamedList<Object>) steps.get(REQUEST_HANDLER_2_NAME);
+		assertEquals(ChainTrace.ACCEPTED, accepted.get("outcome"));
+		assertEquals(2d, accepted.get("time"));
+		assertEquals(7L, accepted.get("hits"));
+	}
+}
@@ -0,0 +1,159 @@
+package io.sease.crh;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the per-member circuit breakers and the degraded chain.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class CircuitBreakerTestCase extends BaseUnitTest {
+	private final static long MSECS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Before
+	public void setUp() {
+		newRequest(newCore(), new ModifiableSolrParams().add(SAMPLE_KEY, SAMPLE_VALUE));
+
+		args = chainArgs("gt0,gt0,always");
+
+		cut = new CompositeRequestHandler();
+	}
+
+	@Test
+	public void slowExecutionsOpenTheBreaker() {
+		final CircuitBreaker breaker = new CircuitBreaker(10, 5, 100 * MSECS, 0.75d, 0.5d, TimeUnit.HOURS.toNanos(1));
+		for (int i = 0; i < 4; i++) {
+			breaker.record(10 * MSECS, false);
+		}
+		breaker.record(200 * MSECS, false);
+		assertEquals(CircuitBreaker.CLOSED, breaker.state());
+
+		breaker.record(200 * MSECS, false);
+		assertEquals(CircuitBreaker.OPEN, breaker.state());
+		assertFalse(breaker.allow());
+	}
+
+	@Test
+	public void errorsOpenTheBreaker() {
+		final CircuitBreaker breaker = new CircuitBreaker(10, 4, 0, 0.99d, 0.5d, TimeUnit.HOURS.toNanos(1));
+		breaker.record(MSECS, true);
+		breaker.record(MSECS, true);
+		breaker.record(MSECS, false);
+		assertTrue(breaker.allow());
+
+		breaker.record(MSECS, true);
+		assertFalse(breaker.allow());
+	}
+
+	@Test
+	public void trialExecutionClosesTheBreaker() {
+		final CircuitBreaker breaker = new CircuitBreaker(10, 1, 0, 0.99d, 0.5d, 0);
+		breaker.record(MSECS, true);
+		assertEquals(CircuitBreaker.OPEN, breaker.state());
+
+		assertTrue(breaker.allow());
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.state());
+
+		breaker.record(MSECS, false);
+		assertEquals(CircuitBreaker.CLOSED, breaker.state());
+	}
+
+	@Test
+	public void failedTrialReopensTheBreaker() {
+		final CircuitBreaker breaker = new CircuitBreaker(10, 1, 0, 0.99d, 0.5d, 0);
+		breaker.record(MSECS, true);
+		breaker.allow();
+
+		breaker.record(MSECS, true);
+		assertEquals(CircuitBreaker.OPEN, breaker.state());
+	}
+
+	@Test
+	public void memberWithAnOpenBreakerIsSkipped() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.BREAKERS_KEY, true);
+		initArgs.add(CompositeRequestHandler.BREAKER_MIN_SAMPLES_KEY, 1);
+		cut.init(initArgs);
+
+		doThrow(new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Boom"))
+				.when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(1)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		try {
+			cut.handleRequestBody(qrequest, qresponse);
+		} catch (final SolrException expected) {
+			// The first execution fails, and that opens the breaker
+		}
+		assertEquals(CircuitBreaker.OPEN, cut.breakers[0].state());
+
+		final SolrQueryResponse response = new SolrQueryResponse();
+		response.addResponseHeader(new SimpleOrderedMap<>());
+		when(qrequest.getContext()).thenReturn(new HashMap<>());
+		cut.handleRequestBody(qrequest, response);
+
+		verify(rh1, times(1)).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		assertEquals(1, cut.howManyFound(response));
+		assertEquals(asList(REQUEST_HANDLER_1_NAME), response.getResponseHeader().get(CompositeRequestHandler.SKIPPED_KEY));
+		assertEquals(1, cut.metrics.skips(0).getCount());
+	}
+
+	@Test
+	public void degradedChainUnderPressure() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.DEGRADED_CHAIN_KEY, REQUEST_HANDLER_2_NAME);
+		cut.init(initArgs);
+		cut.pressure = new PressureMonitor(0.8d, 0, () -> 1d);
+
+		doAnswer(returnResults(1)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(1)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verifyZeroInteractions(rh1, rh3);
+		assertEquals(Boolean.TRUE, qresponse.getResponseHeader().get(CompositeRequestHandler.DEGRADED_KEY));
+		assertEquals(asList(REQUEST_HANDLER_1_NAME), qresponse.getResponseHeader().get(CompositeRequestHandler.SKIPPED_KEY));
+		assertEquals(1, cut.metrics.degraded().getCount());
+	}
+
+	@Test
+	public void fullChainWithoutPressure() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.DEGRADED_CHAIN_KEY, REQUEST_HANDLER_2_NAME);
+		initArgs.add(CompositeRequestHandler.DEGRADED_IN_FLIGHT_KEY, 10);
+		cut.init(initArgs);
+
+		doAnswer(returnResults(1)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verifyZeroInteractions(rh2, rh3);
+		assertNull(qresponse.getResponseHeader().get(CompositeRequestHandler.DEGRADED_KEY));
+		assertNull(qresponse.getResponseHeader().get(CompositeRequestHandler.SKIPPED_KEY));
+	}
+
+	@Test(expected = SolrException.class)
+	public void degradedChainMustReferToChainMembers() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.DEGRADED_CHAIN_KEY, "/unknown");
+		cut.init(initArgs);
+	}
+}
@@ -0,0 +1,132 @@
+package io.sease.crh;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.ContentStreamBase;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.PluginBag;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.response.ResultContext;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test for {@link CompositeBatchRequestHandler}.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class CompositeBatchRequestHandlerTestCase extends BaseUnitTest {
+	private final static String COMPOSITE_HANDLER_NAME = "/search";
+
+	private CompositeBatchRequestHandler batch;
+
+	/**
+	 * The first member finds something only for the "exact" query.
+	 */
+	private static Answer<?> returnResultsOnlyForExact() {
+		return invocation -> {
+			final SolrQueryRequest request = (SolrQueryRequest) invocation.getArguments()[0];
+			return returnResults("exact".equals(request.getParams().get(CommonParams.Q)) ? 1 : 0).answer(invocation);
+		};
+	}
+
+	@Before
+	public void setUp() {
+		final SolrCore core = newCore();
+		newRequest(core, new ModifiableSolrParams());
+
+		doAnswer(returnResultsOnlyForExact()).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(3)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		args = chainArgs("eq1,gt0,always");
+
+		cut = new CompositeRequestHandler();
+		cut.init(args);
+		when(core.getRequestHandler(COMPOSITE_HANDLER_NAME)).thenReturn(cut);
+
+		final NamedList<Object> batchArgs = new SimpleOrderedMap<>();
+		batchArgs.add(CompositeBatchRequestHandler.HANDLER_KEY, COMPOSITE_HANDLER_NAME);
+		batchArgs.add(CompositeBatchRequestHandler.THREADS_KEY, 4);
+		batchArgs.add(CompositeBatchRequestHandler.MAX_ENTRIES_KEY, 3);
+
+		batch = new CompositeBatchRequestHandler();
+		batch.init(batchArgs);
+	}
+
+	@After
+	public void tearDown() {
+		batch.close();
+	}
+
+	@Test(expected = SolrException.class)
+	public void handlerIsMandatory() {
+		new CompositeBatchRequestHandler().init(new SimpleOrderedMap<>());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void eachEntryIsTaggedWithTheWinner() throws Exception {
+		params.add(CompositeBatchRequestHandler.BATCH_KEY, "q=exact", "q=something%20else");
+		when(qrequest.getContentStreams()).thenReturn(singletonList(new ContentStreamBase.StringStream("\nq=exact\n")));
+
+		batch.handleRequestBody(qrequest, qresponse);
+
+		final List<NamedList<Object>> responses = (List<NamedList<Object>>) qresponse.getValues().get(CompositeBatchRequestHandler.RESPONSES_KEY);
+		assertEquals(3, responses.size());
+
+		assertEquals(0, responses.get(0).get(CompositeBatchRequestHandler.ENTRY_KEY));
+		assertEquals(REQUEST_HANDLER_1_NAME, responses.get(0).get(CompositeBatchRequestHandler.WINNER_KEY));
+		assertEquals(1, ((ResultContext) responses.get(0).get(CompositeRequestHandler.RESPONSE_KEY)).getDocList().size());
+
+		assertEquals(1, responses.get(1).get(CompositeBatchRequestHandler.ENTRY_KEY));
+		assertEquals(REQUEST_HANDLER_2_NAME, responses.get(1).get(CompositeBatchRequestHandler.WINNER_KEY));
+		assertEquals(3, ((ResultContext) responses.get(1).get(CompositeRequestHandler.RESPONSE_KEY)).getDocList().size());
+
+		assertEquals(REQUEST_HANDLER_1_NAME, responses.get(2).get(CompositeBatchRequestHandler.WINNER_KEY));
+		verifyZeroInteractions(rh3);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void overridesApplyToEachEntry() throws Exception {
+		final PluginBag<SolrRequestHandler> handlers = mock(PluginBag.class);
+		when(handlers.contains(anyString())).thenReturn(true);
+		when(handlers.isLoaded(anyString())).thenReturn(false);
+		when(qrequest.getCore().getRequestHandlers()).thenReturn(handlers);
+
+		args.add(CompositeRequestHandler.OVERRIDES_KEY, 2);
+		cut.init(args);
+
+		params.add(CompositeBatchRequestHandler.BATCH_KEY, "q=exact", "q=exact&chain=/rh2,/rh3&rules=gt0,always");
+
+		batch.handleRequestBody(qrequest, qresponse);
+
+		final List<NamedList<Object>> responses = (List<NamedList<Object>>) qresponse.getValues().get(CompositeBatchRequestHandler.RESPONSES_KEY);
+		assertEquals(2, responses.size());
+		assertEquals(REQUEST_HANDLER_1_NAME, responses.get(0).get(CompositeBatchRequestHandler.WINNER_KEY));
+		assertEquals(REQUEST_HANDLER_2_NAME, responses.get(1).get(CompositeBatchRequestHandler.WINNER_KEY));
+		assertEquals(3, ((ResultContext) responses.get(1).get(CompositeRequestHandler.RESPONSE_KEY)).getDocList().size());
+	}
+
+	@Test(expected = SolrException.class)
+	public void tooManyEntries() throws Exception {
+		params.add(CompositeBatchRequestHandler.BATCH_KEY, "q=a", "q=b", "q=c", "q=d");
+		batch.handleRequestBody(qrequest, qresponse);
+	}
+}
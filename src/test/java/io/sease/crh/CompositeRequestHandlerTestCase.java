@@ -7,7 +7,10 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -15,6 +18,7 @@ import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.PluginBag;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.component.SearchHandler;
 import org.apache.solr.request.SolrQueryRequest;
@@ -25,6 +29,7 @@ import org.apache.solr.search.DocList;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
@@ -74,6 +79,17 @@ public class CompositeRequestHandlerTestCase extends BaseUnitTest {
 		assertEquals(CHAIN, cut.chain);
 	}
 	
+	@Test
+	public void executionStrategyIsChosenOnInit() {
+		cut.init(args);
+		assertTrue(cut.strategy instanceof SequentialExecution);
+
+		final NamedList<Object> backfillArgs = args.clone();
+		backfillArgs.add(CompositeRequestHandler.BACKFILL_KEY, "true");
+		cut.init(backfillArgs);
+		assertTrue(cut.strategy instanceof BackfillExecution);
+	}
+
 	@Test(expected = SolrException.class)
 	public void emptyChain() {
 		final NamedList<Object> args = new SimpleOrderedMap<>();
@@ -109,6 +125,37 @@ public class CompositeRequestHandlerTestCase extends BaseUnitTest {
 				params.get(SAMPLE_KEY));
 	}
 	
+	@Test
+	public void stepRequestIsAViewOverTheGivenParams() {
+		final Map<Object, Object> context = new HashMap<>();
+		final SolrQueryRequest stepRequest = cut.newFrom(qrequest, params, context);
+
+		assertSame(params, stepRequest.getParams());
+		assertSame(context, stepRequest.getContext());
+
+		stepRequest.getSearcher();
+		verify(qrequest).getSearcher();
+	}
+
+	@Test
+	public void finalMemberWritesInTheCallerResponse() {
+		final SolrCore core = mock(SolrCore.class);
+		when(qrequest.getCore()).thenReturn(core);
+		when(core.getRequestHandler(REQUEST_HANDLER_1_NAME)).thenReturn(rh1);
+		when(core.getRequestHandler(REQUEST_HANDLER_2_NAME)).thenReturn(rh2);
+		when(core.getRequestHandler(REQUEST_HANDLER_3_NAME)).thenReturn(rh3);
+
+		args.add(CompositeRequestHandler.RULES_KEY, "gt0,gt0,always");
+		cut.init(args);
+
+		final SolrQueryResponse response = new SolrQueryResponse();
+		cut.handleRequestBody(qrequest, response);
+
+		verify(rh1).handleRequest(any(SolrQueryRequest.class), argThat(member -> member != response));
+		verify(rh2).handleRequest(any(SolrQueryRequest.class), argThat(member -> member != response));
+		verify(rh3).handleRequest(any(SolrQueryRequest.class), same(response));
+	}
+
 	@Test
 	public void executeQuery() {
 		final SolrRequestHandler handler = mock(SolrRequestHandler.class);
@@ -140,8 +187,80 @@ public class CompositeRequestHandlerTestCase extends BaseUnitTest {
 		when(core.getRequestHandler(REQUEST_HANDLER_2_NAME)).thenReturn(rh2);
 		when(core.getRequestHandler(REQUEST_HANDLER_3_NAME)).thenReturn(rh3);
 
-		assertSame(rh1, cut.requestHandler(qrequest, REQUEST_HANDLER_1_NAME).getValue());
-		assertSame(rh2, cut.requestHandler(qrequest, REQUEST_HANDLER_2_NAME).getValue());
-		assertSame(rh3, cut.requestHandler(qrequest, REQUEST_HANDLER_3_NAME).getValue());
+		cut.init(args);
+
+		assertSame(rh1, cut.member(qrequest, 0));
+		assertSame(rh2, cut.member(qrequest, 1));
+		assertSame(rh3, cut.member(qrequest, 2));
+
+		// Members are resolved only once
+		cut.member(qrequest, 0);
+		verify(core).getRequestHandler(REQUEST_HANDLER_1_NAME);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void membersAreResolvedOnInform() {
+		final SolrCore core = mock(SolrCore.class);
+		final PluginBag<SolrRequestHandler> handlers = mock(PluginBag.class);
+		when(core.getRequestHandlers()).thenReturn(handlers);
+		when(handlers.contains(any(String.class))).thenReturn(true);
+		when(handlers.isLoaded(any(String.class))).thenReturn(true);
+		when(handlers.get(REQUEST_HANDLER_1_NAME)).thenReturn(rh1);
+		when(handlers.get(REQUEST_HANDLER_2_NAME)).thenReturn(rh2);
+		when(handlers.get(REQUEST_HANDLER_3_NAME)).thenReturn(rh3);
+		when(qrequest.getCore()).thenReturn(core);
+
+		cut.init(args);
+		cut.inform(core);
+
+		assertSame(rh1, cut.member(qrequest, 0));
+		assertSame(rh2, cut.member(qrequest, 1));
+		assertSame(rh3, cut.member(qrequest, 2));
+		verify(core, never()).getRequestHandler(any(String.class));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void lazyMembersAreResolvedOnFirstUse() {
+		final SolrCore core = mock(SolrCore.class);
+		final PluginBag<SolrRequestHandler> handlers = mock(PluginBag.class);
+		when(core.getRequestHandlers()).thenReturn(handlers);
+		when(handlers.contains(any(String.class))).thenReturn(true);
+		when(handlers.isLoaded(any(String.class))).thenReturn(false);
+		when(core.getRequestHandler(REQUEST_HANDLER_2_NAME)).thenReturn(rh2);
+		when(qrequest.getCore()).thenReturn(core);
+
+		cut.init(args);
+		cut.inform(core);
+
+		verify(core, never()).getRequestHandler(any(String.class));
+		assertSame(rh2, cut.member(qrequest, 1));
+	}
+
+	@Test(expected = SolrException.class)
+	@SuppressWarnings("unchecked")
+	public void unknownMemberFailsOnInform() {
+		final SolrCore core = mock(SolrCore.class);
+		final PluginBag<SolrRequestHandler> handlers = mock(PluginBag.class);
+		when(core.getRequestHandlers()).thenReturn(handlers);
+		when(handlers.contains(any(String.class))).thenReturn(false);
+
+		cut.init(args);
+		cut.inform(core);
+	}
+
+	@Test(expected = SolrException.class)
+	@SuppressWarnings("unchecked")
+	public void nonSearchMemberFailsOnInform() {
+		final SolrCore core = mock(SolrCore.class);
+		final PluginBag<SolrRequestHandler> handlers = mock(PluginBag.class);
+		when(core.getRequestHandlers()).thenReturn(handlers);
+		when(handlers.contains(any(String.class))).thenReturn(true);
+		when(handlers.isLoaded(any(String.class))).thenReturn(true);
+		when(handlers.get(any(String.class))).thenReturn(mock(SolrRequestHandler.class));
+
+		cut.init(args);
+		cut.inform(core);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the composite result cache.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class CompositeResultCacheTestCase extends BaseUnitTest {
+	private final static String CACHE_NAME = "compositeCache";
+
+	private SolrCache<CompositeCacheKey, Integer> cache;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		newRequest(newCore(), new ModifiableSolrParams().add(SAMPLE_KEY, SAMPLE_VALUE));
+
+		cache = mock(SolrCache.class);
+		final SolrIndexSearcher searcher = mock(SolrIndexSearcher.class);
+		when(searcher.getCache(CACHE_NAME)).thenReturn(cache);
+		when(qrequest.getSearcher()).thenReturn(searcher);
+
+		args = chainArgs("gt0,gt0,always");
+		args.add(CompositeRequestHandler.RESULT_CACHE_KEY, CACHE_NAME);
+
+		cut = new CompositeRequestHandler();
+		cut.init(args);
+	}
+
+	@Test
+	public void cacheMissWalksTheChainAndRecordsTheWinner() {
+		doAnswer(returnResults(1)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verify(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verify(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verify(cache).put(any(CompositeCacheKey.class), eq(1));
+	}
+
+	@Test
+	public void cacheHitSkipsTheChain() {
+		when(cache.get(any(CompositeCacheKey.class))).thenReturn(1);
+		doAnswer(returnResults(1)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verify(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verifyZeroInteractions(rh1, rh3);
+		verify(cache, never()).put(any(CompositeCacheKey.class), any(Integer.class));
+		assertEquals(1, cut.howManyFound(qresponse));
+	}
+
+	@Test
+	public void keyIsNormalized() {
+		final ModifiableSolrParams p1 = new ModifiableSolrParams()
+				.add(CommonParams.Q, "a b")
+				.add(CommonParams.FQ, "f1:x", "f2:y")
+				.add(CommonParams.WT, "json");
+
+		final ModifiableSolrParams p2 = new ModifiableSolrParams()
+				.add(CommonParams.FQ, "f2:y", "f1:x")
+				.add(CommonParams.Q, "a b")
+				.add("indent", "true");
+
+		assertEquals(
+				new CompositeCacheKey("/search", "fp", p1),
+				new CompositeCacheKey("/search", "fp", p2));
+		assertEquals(
+				new CompositeCacheKey("/search", "fp", p1).hashCode(),
+				new CompositeCacheKey("/search", "fp", p2).hashCode());
+		assertNotEquals(
+				new CompositeCacheKey("/search", "fp", p1),
+				new CompositeCacheKey("/search", "another", p2));
+		assertNotEquals(
+				new CompositeCacheKey("/search", "fp", p1),
+				new CompositeCacheKey("/search", "fp", p2.add(CommonParams.ROWS, "20")));
+	}
+}
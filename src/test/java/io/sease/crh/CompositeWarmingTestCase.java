@@ -0,0 +1,179 @@
+package io.sease.crh;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Unit test for the hot queries sketch and the {@link CompositeWarmingListener}.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class CompositeWarmingTestCase extends BaseUnitTest {
+	private final static String HANDLER_NAME = "/search";
+
+	@Test
+	public void mostFrequentItemsAreMonitored() {
+		final HeavyHitters<String> sketch = new HeavyHitters<>(5);
+		for (int i = 0; i < 10; i++) {
+			sketch.add("a");
+			sketch.add("noise" + i);
+			if (i % 2 == 0) {
+				sketch.add("b");
+			}
+		}
+
+		final List<String> top = sketch.top(2);
+		assertEquals(asList("a", "b"), top);
+		assertTrue(sketch.count("a") >= 10);
+		assertEquals(0, sketch.count("noise0"));
+	}
+
+	@Test
+	public void topIsBounded() {
+		final HeavyHitters<String> sketch = new HeavyHitters<>(10);
+		sketch.add("a");
+		sketch.add("b");
+
+		assertEquals(2, sketch.top(5).size());
+		assertEquals(1, sketch.top(1).size());
+	}
+
+	@Test
+	public void stripesAreMerged() throws Exception {
+		final HeavyHitters<String> sketch = new HeavyHitters<>(3, 4);
+		final List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			final String noise = "noise" + i;
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < 10; j++) {
+					sketch.add("a");
+				}
+				sketch.add(noise);
+			}));
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(asList("a"), sketch.top(1));
+		assertEquals(40, sketch.count("a"));
+	}
+
+	@Test
+	public void noHotQueriesByDefault() {
+		cut = new CompositeRequestHandler();
+		cut.init(configuration(0));
+
+		assertTrue(cut.hotQueries(10).isEmpty());
+	}
+
+	@Test
+	public void hotQueriesAreReplayedAgainstTheNewSearcher() {
+		cut = spy(new CompositeRequestHandler());
+		cut.init(configuration(16));
+		doReturn(Optional.empty()).when(cut).execute(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		request("nike shoes");
+		request("nike shoes");
+		request("AB-1234");
+
+		final SolrCore core = mock(SolrCore.class);
+		when(core.getRequestHandler(HANDLER_NAME)).thenReturn(cut);
+		final SolrIndexSearcher searcher = mock(SolrIndexSearcher.class);
+		doNothing().when(cut).warm(eq(searcher), eq(HANDLER_NAME), any(SolrParams.class));
+
+		final CompositeWarmingListener listener = new CompositeWarmingListener(core);
+		final NamedList<Object> listenerArgs = new SimpleOrderedMap<>();
+		listenerArgs.add(CompositeWarmingListener.HANDLER_KEY, HANDLER_NAME);
+		listenerArgs.add(CompositeWarmingListener.QUERIES_KEY, 1);
+		listener.init(listenerArgs);
+
+		listener.newSearcher(searcher, mock(SolrIndexSearcher.class));
+
+		final ArgumentCaptor<SolrParams> replayed = ArgumentCaptor.forClass(SolrParams.class);
+		verify(cut).warm(eq(searcher), eq(HANDLER_NAME), replayed.capture());
+		assertEquals("nike shoes", replayed.getValue().get(CommonParams.Q));
+
+		// The replay halves the recorded frequencies
+		verify(cut).decayHotQueries();
+		assertEquals(asList("nike shoes"), cut.hotQueries(10).stream().map(key -> key.params().get(CommonParams.Q)).collect(toList()));
+	}
+
+	@Test
+	public void oldOccurrencesDecay() {
+		final HeavyHitters<String> sketch = new HeavyHitters<>(5, 1);
+		for (int i = 0; i < 8; i++) {
+			sketch.add("old");
+		}
+		sketch.add("rare");
+
+		sketch.decay();
+		assertEquals(4, sketch.count("old"));
+		assertEquals(0, sketch.count("rare"));
+
+		for (int i = 0; i < 6; i++) {
+			sketch.add("new");
+		}
+		assertEquals(asList("new", "old"), sketch.top(2));
+	}
+
+	@Test
+	public void unsampledRequestsAreNotRecorded() {
+		cut = spy(new CompositeRequestHandler());
+		final NamedList<Object> unsampled = configuration(16);
+		unsampled.remove(CompositeRequestHandler.WARMING_SAMPLING_KEY);
+		unsampled.add(CompositeRequestHandler.WARMING_SAMPLING_KEY, 0f);
+		cut.init(unsampled);
+		doReturn(Optional.empty()).when(cut).execute(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		request("nike shoes");
+
+		assertTrue(cut.hotQueries(10).isEmpty());
+	}
+
+	private void request(final String query) {
+		final SolrQueryRequest request = mock(SolrQueryRequest.class);
+		final HashMap<Object, Object> context = new HashMap<>();
+		context.put(CommonParams.PATH, HANDLER_NAME);
+		when(request.getContext()).thenReturn(context);
+		when(request.getParams()).thenReturn(new ModifiableSolrParams().add(CommonParams.Q, query));
+
+		cut.handleRequestBody(request, new SolrQueryResponse());
+	}
+
+	private NamedList<Object> configuration(final int warmingQueries) {
+		args = new SimpleOrderedMap<>();
+		args.add(CompositeRequestHandler.CHAIN_KEY, CHAIN.stream().collect(joining(",")));
+		args.add(CompositeRequestHandler.RULES_KEY, "gt0,gt0,always");
+		args.add(CompositeRequestHandler.WARMING_QUERIES_KEY, warmingQueries);
+		args.add(CompositeRequestHandler.WARMING_SAMPLING_KEY, 1f);
+		return args;
+	}
+}
@@ -0,0 +1,175 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.handler.component.SearchHandler;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SolrQueryTimeoutImpl;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link CountProbe} and the probe limits of the transition rules.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class CountProbeTestCase extends BaseUnitTest {
+	private final static String TYPE = "type";
+
+	@Test
+	public void probeLimits() {
+		assertEquals(1, RuleCompiler.compile("gt0").saturation());
+		assertEquals(2, RuleCompiler.compile("eq1").saturation());
+		assertEquals(5, RuleCompiler.compile("lt5").saturation());
+		assertEquals(0, RuleCompiler.compile("lt0").saturation());
+		assertEquals(0, RuleCompiler.compile("always").saturation());
+	}
+
+	@Test
+	public void pageSize() {
+		final ModifiableSolrParams params = new ModifiableSolrParams();
+		assertEquals(0, CountProbe.pageSize(params, 0));
+		assertEquals(7, CountProbe.pageSize(params, 7));
+		assertEquals(10, CountProbe.pageSize(params, 100));
+
+		params.set(CommonParams.START, 5);
+		params.set(CommonParams.ROWS, 3);
+		assertEquals(0, CountProbe.pageSize(params, 4));
+		assertEquals(1, CountProbe.pageSize(params, 6));
+		assertEquals(3, CountProbe.pageSize(params, 100));
+	}
+
+	@Test
+	public void matchesLimit() {
+		final ModifiableSolrParams params = new ModifiableSolrParams();
+		assertEquals(2, CountProbe.matchesLimit(params, 2));
+		assertEquals(10, CountProbe.matchesLimit(params, 11));
+
+		params.set(CommonParams.START, 5);
+		assertEquals(7, CountProbe.matchesLimit(params, 2));
+	}
+
+	@Test
+	public void unavailableWithoutSearcher() {
+		assertEquals(
+				CountProbe.UNAVAILABLE,
+				CountProbe.count(mock(SolrQueryRequest.class), mock(SearchHandler.class), 1, true));
+	}
+
+	@Test
+	public void countingStopsAtTheRuleLimit() throws Exception {
+		try (final Directory directory = new RAMDirectory()) {
+			try (final IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				for (int i = 0; i < 5; i++) {
+					writer.addDocument(document("shoe"));
+				}
+				writer.addDocument(document("boot"));
+			}
+
+			try (final DirectoryReader reader = DirectoryReader.open(directory)) {
+				final IndexSearcher searcher = new IndexSearcher(reader);
+				final Query shoes = new TermQuery(new Term(TYPE, "shoe"));
+				final Query boots = new TermQuery(new Term(TYPE, "boot"));
+				final Query sandals = new TermQuery(new Term(TYPE, "sandal"));
+
+				// gt0: the first match decides
+				assertProbe(searcher, "gt0", shoes, 1, true);
+				assertProbe(searcher, "gt0", sandals, 0, false);
+
+				// eq1: the second match decides
+				assertProbe(searcher, "eq1", shoes, 2, false);
+				assertProbe(searcher, "eq1", boots, 1, true);
+				assertProbe(searcher, "eq1", sandals, 0, false);
+
+				// betweenNandM: the (M + 1)th match decides
+				assertProbe(searcher, "between2and3", shoes, 4, false);
+				assertProbe(searcher, "between2and10", shoes, 5, true);
+				assertProbe(searcher, "between2and10", boots, 1, false);
+			}
+		}
+	}
+
+	@Test
+	public void countingStopsWhenTheTimeAllowedIsExhausted() throws Exception {
+		try (final Directory directory = new RAMDirectory()) {
+			try (final IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				for (int i = 0; i < 5000; i++) {
+					writer.addDocument(document("shoe"));
+				}
+			}
+
+			try (final DirectoryReader reader = DirectoryReader.open(directory)) {
+				final IndexSearcher searcher = new IndexSearcher(reader);
+				final Query shoes = new TermQuery(new Term(TYPE, "shoe"));
+
+				assertEquals(5000, CountProbe.count(searcher, shoes, Integer.MAX_VALUE));
+
+				SolrQueryTimeoutImpl.set(1L);
+				try {
+					Thread.sleep(10);
+					assertEquals(CountProbe.TIMED_OUT, CountProbe.count(searcher, shoes, Integer.MAX_VALUE));
+				} finally {
+					SolrQueryTimeoutImpl.reset();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void saturatedRulesDoNotNeedAnyProbe() {
+		args = chainArgs("lt0,always,always");
+
+		cut = new CompositeRequestHandler();
+		cut.init(args);
+
+		assertFalse(cut.probe(mock(SolrQueryRequest.class), mock(SearchHandler.class), 0));
+		assertTrue(cut.probe(mock(SolrQueryRequest.class), mock(SearchHandler.class), 1));
+	}
+
+	@Test
+	public void unavailableProbeLetsTheMemberRun() {
+		args = chainArgs("gt0,gt0,always");
+		args.add(CompositeRequestHandler.PROBE_KEY, "true");
+
+		cut = new CompositeRequestHandler();
+		cut.init(args);
+
+		qrequest = mock(SolrQueryRequest.class);
+		when(qrequest.getParams()).thenReturn(new ModifiableSolrParams());
+
+		assertTrue(cut.probe(qrequest, mock(SearchHandler.class), 0));
+	}
+
+	private void assertProbe(final IndexSearcher searcher, final String expression, final Query query, final int expectedCount, final boolean expectedOutcome) throws Exception {
+		final Rule rule = RuleCompiler.compile(expression);
+		final int count = CountProbe.count(searcher, query, rule.saturation());
+
+		assertEquals(expectedCount, count);
+		assertEquals(expectedOutcome, rule.test(count, Float.NaN));
+	}
+
+	private Document document(final String type) {
+		final Document document = new Document();
+		document.add(new StringField(TYPE, type, Field.Store.NO));
+		return document;
+	}
+}
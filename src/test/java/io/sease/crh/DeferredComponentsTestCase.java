@@ -0,0 +1,124 @@
+package io.sease.crh;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.handler.component.FacetComponent;
+import org.apache.solr.handler.component.QueryComponent;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.handler.component.SearchHandler;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.ResultContext;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocList;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test for the two-phase (deferred) execution of the chain members.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class DeferredComponentsTestCase extends BaseUnitTest {
+	private SearchComponent query1;
+	private SearchComponent facet1;
+	private SearchComponent query2;
+	private SearchComponent facet2;
+
+	@Before
+	public void setUp() throws Exception {
+		newRequest(newCore(), new ModifiableSolrParams().add(SAMPLE_KEY, SAMPLE_VALUE));
+
+		query1 = mock(QueryComponent.class);
+		facet1 = mock(FacetComponent.class);
+		query2 = mock(QueryComponent.class);
+		facet2 = mock(FacetComponent.class);
+		doAnswer(results(0)).when(query1).process(any(ResponseBuilder.class));
+		doAnswer(results(1)).when(query2).process(any(ResponseBuilder.class));
+
+		when(((SearchHandler) rh1).getComponents()).thenReturn(asList(query1, facet1));
+		when(((SearchHandler) rh2).getComponents()).thenReturn(asList(query2, facet2));
+
+		args = chainArgs("gt0,gt0,always");
+
+		cut = new CompositeRequestHandler();
+	}
+
+	@Test
+	public void onlyTheWinnerProcessesTheDeferredComponents() throws Exception {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.DEFERRED_KEY, true);
+		cut.init(initArgs);
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		assertEquals(1, cut.howManyFound(qresponse));
+
+		verify(facet1).prepare(any(ResponseBuilder.class));
+		verify(query1).process(any(ResponseBuilder.class));
+		verify(facet1, never()).process(any(ResponseBuilder.class));
+
+		verify(facet2).prepare(any(ResponseBuilder.class));
+		verify(query2).process(any(ResponseBuilder.class));
+		verify(facet2).process(any(ResponseBuilder.class));
+
+		verify(rh1, never()).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verify(rh2, never()).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verifyZeroInteractions(rh3);
+	}
+
+	@Test
+	public void finalMemberIsRegularlyExecuted() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.DEFERRED_KEY, true);
+		cut.init(initArgs);
+
+		assertTrue(cut.deferrable(qrequest, rh1, 0));
+		assertFalse(cut.deferrable(qrequest, rh3, 2));
+	}
+
+	@Test
+	public void disabledByDefault() {
+		cut.init(args);
+
+		assertFalse(cut.deferrable(qrequest, rh1, 0));
+	}
+
+	@Test
+	public void secondPhaseRunsOnce() throws Exception {
+		final DeferredResponse response = new DeferredResponse(new SimpleOrderedMap<>());
+		response.firstPhase(cut.newFrom(qrequest, params), (SearchHandler) rh2);
+		assertTrue(response.pending());
+
+		response.secondPhase();
+		response.secondPhase();
+
+		assertFalse(response.pending());
+		verify(facet2, times(1)).process(any(ResponseBuilder.class));
+	}
+
+	private Answer<?> results(final int hits) {
+		return invocation -> {
+			final ResponseBuilder builder = (ResponseBuilder) invocation.getArguments()[0];
+
+			final DocList docList = mock(DocList.class);
+			when(docList.size()).thenReturn(hits);
+
+			final ResultContext result = mock(ResultContext.class);
+			when(result.getDocList()).thenReturn(docList);
+
+			builder.rsp.addResponse(result);
+			return null;
+		};
+	}
+}
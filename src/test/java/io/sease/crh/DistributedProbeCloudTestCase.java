@@ -0,0 +1,85 @@
+package io.sease.crh;
+
+import static java.util.Arrays.asList;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.request.CollectionAdminRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.cloud.SolrCloudTestCase;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ShardParams;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Integration test for the distributed probe, on a two shards collection.
+ * <br/> <br/>
+ * Each shard has a single "nike" shoe, so a per-shard count would accept the first member (eq1), while the
+ * collection-wide count must reject it.
+ * <br/> <br/>
+ * The same collection is used for checking that the core-local features (e.g. the shared work) are not applied to
+ * distributed requests.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class DistributedProbeCloudTestCase extends SolrCloudTestCase {
+	private final static String COLLECTION = "composite";
+	private final static String CONFIGSET = "composite";
+	private final static String HANDLER = "/search";
+	private final static String SHARED_WORK_HANDLER = "/shared";
+
+	@BeforeClass
+	public static void setupCluster() throws Exception {
+		configureCluster(2)
+			.addConfig(CONFIGSET, getFile("configsets/composite/conf").toPath())
+			.configure();
+
+		CollectionAdminRequest.createCollectionWithImplicitRouter(COLLECTION, CONFIGSET, "shard1,shard2", 1)
+			.process(cluster.getSolrClient());
+		waitForState("The collection is not active", COLLECTION, clusterShape(2, 1));
+
+		index("shard1", sdoc("id", "1", "text", "nike running shoes", "type", "shoe"));
+		index("shard2",
+				sdoc("id", "2", "text", "nike shoes", "type", "shoe"),
+				sdoc("id", "3", "text", "nike boots", "type", "boot"));
+		cluster.getSolrClient().commit(COLLECTION);
+	}
+
+	@Test
+	public void collectionWideCountRejectsTheMember() throws Exception {
+		final QueryResponse response = cluster.getSolrClient().query(COLLECTION, new SolrQuery("nike").setRequestHandler(HANDLER));
+
+		// The second member (no filter) wins
+		assertEquals(3, response.getResults().getNumFound());
+		assertNull(response.getFacetField("type"));
+	}
+
+	@Test
+	public void winnerAppliesItsOwnDefaults() throws Exception {
+		final QueryResponse response = cluster.getSolrClient().query(COLLECTION, new SolrQuery("running").setRequestHandler(HANDLER));
+
+		// The first member wins, with its filter and its facets, each applied once
+		assertEquals(1, response.getResults().getNumFound());
+		assertNotNull(response.getFacetField("type"));
+		assertEquals(1, response.getFacetField("type").getValues().get(0).getCount());
+	}
+
+	@Test
+	public void sharedWorkIsIgnoredByDistributedRequests() throws Exception {
+		final QueryResponse response = cluster.getSolrClient().query(
+				COLLECTION,
+				new SolrQuery("nike").addFilterQuery("type:shoe").setRequestHandler(SHARED_WORK_HANDLER));
+
+		// The shards never see the rewritten (shared work) params: the second member wins, with the requested filter
+		assertEquals(2, response.getResults().getNumFound());
+	}
+
+	private static void index(final String shard, final SolrInputDocument ... documents) throws Exception {
+		final UpdateRequest update = new UpdateRequest();
+		update.add(asList(documents));
+		update.setParam(ShardParams._ROUTE_, shard);
+		update.process(cluster.getSolrClient(), COLLECTION);
+	}
+}
@@ -0,0 +1,221 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.handler.component.SearchHandler;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test for {@link DistributedProbe} and the distributed execution of the chain.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class DistributedProbeTestCase extends BaseUnitTest {
+	private final static String SHARDS = "host1:8983/solr/c1,host2:8983/solr/c1";
+
+	private SolrCore core;
+	private CoreContainer container;
+
+	/**
+	 * Mimics a distributed response, recording the params of each execution.
+	 */
+	private Answer<?> returnNumFound(final long numFound, final List<SolrParams> executions) {
+		return invocation -> {
+			final SolrQueryRequest request = (SolrQueryRequest) invocation.getArguments()[0];
+			final SolrQueryResponse response = (SolrQueryResponse) invocation.getArguments()[1];
+			executions.add(request.getParams());
+
+			final SolrDocumentList documents = new SolrDocumentList();
+			documents.setNumFound(numFound);
+			response.addResponse(documents);
+			return null;
+		};
+	}
+
+	/**
+	 * Mimics a distributed count-only execution which ran out of time.
+	 */
+	private Answer<?> returnPartialResults(final List<SolrParams> executions) {
+		return invocation -> {
+			final SolrQueryRequest request = (SolrQueryRequest) invocation.getArguments()[0];
+			final SolrQueryResponse response = (SolrQueryResponse) invocation.getArguments()[1];
+			executions.add(request.getParams());
+
+			response.getResponseHeader().add(SolrQueryResponse.RESPONSE_HEADER_PARTIAL_RESULTS_KEY, true);
+			return null;
+		};
+	}
+
+	@Before
+	public void setUp() {
+		core = newCore();
+		container = mock(CoreContainer.class);
+		when(core.getCoreContainer()).thenReturn(container);
+
+		newRequest(core, new ModifiableSolrParams().add(CommonParams.Q, "shoes"));
+
+		args = chainArgs("gt0,gt0,always");
+		args.add(CompositeRequestHandler.RULES_HITS_KEY, CompositeRequestHandler.NUM_FOUND);
+		args.add(CompositeRequestHandler.PROBE_KEY, "true");
+
+		cut = new CompositeRequestHandler();
+	}
+
+	@Test
+	public void distributedRequests() {
+		assertFalse(DistributedProbe.distributed(qrequest));
+
+		params.set(ShardParams.SHARDS, SHARDS);
+		assertTrue(DistributedProbe.distributed(qrequest));
+
+		params.remove(ShardParams.SHARDS);
+		when(container.isZooKeeperAware()).thenReturn(true);
+		assertTrue(DistributedProbe.distributed(qrequest));
+
+		params.set(CommonParams.DISTRIB, false);
+		assertFalse(DistributedProbe.distributed(qrequest));
+	}
+
+	@Test
+	public void countOnlyParams() {
+		params.set(CommonParams.ROWS, 20);
+		params.set(CommonParams.START, 40);
+		params.set("facet", true);
+		params.set("facet.field", "brand");
+		params.set("hl", true);
+		params.set(CommonParams.FQ, "brand:nike");
+
+		final SolrParams probe = DistributedProbe.params(params, REQUEST_HANDLER_1_NAME);
+
+		assertEquals("0", probe.get(CommonParams.ROWS));
+		assertEquals("0", probe.get(CommonParams.START));
+		assertEquals("shoes", probe.get(CommonParams.Q));
+		assertEquals("brand:nike", probe.get(CommonParams.FQ));
+		assertEquals(REQUEST_HANDLER_1_NAME, probe.get(ShardParams.SHARDS_QT));
+		assertEquals("false", probe.get("facet"));
+		assertNull(probe.get("facet.field"));
+		assertEquals("false", probe.get("hl"));
+	}
+
+	@Test
+	public void hits() {
+		final SolrQueryResponse response = new SolrQueryResponse();
+		assertEquals(DistributedProbe.UNAVAILABLE, DistributedProbe.numFound(response));
+
+		final SolrDocumentList documents = new SolrDocumentList();
+		documents.setNumFound(1234);
+		response.addResponse(documents);
+		assertEquals(1234, DistributedProbe.numFound(response));
+
+		params.set(CommonParams.ROWS, 20);
+		assertEquals(20, DistributedProbe.hits(params, 1234, true));
+		assertEquals(1234, DistributedProbe.hits(params, 1234, false));
+	}
+
+	/**
+	 * In a distributed request, the non-winning members are executed with rows=0 only, while the winner is executed
+	 * twice (count-only and full). Shard requests are always routed to the chain members.
+	 */
+	@Test
+	public void onlyTheWinnerExecutesTheFullSearch() {
+		cut.init(args);
+		params.set(ShardParams.SHARDS, SHARDS);
+
+		final List<SolrParams> first = new ArrayList<>();
+		final List<SolrParams> second = new ArrayList<>();
+		doAnswer(returnNumFound(0, first)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnNumFound(42, second)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verifyZeroInteractions(rh3);
+
+		assertEquals(1, first.size());
+		assertEquals("0", first.get(0).get(CommonParams.ROWS));
+		assertEquals(REQUEST_HANDLER_1_NAME, first.get(0).get(ShardParams.SHARDS_QT));
+
+		assertEquals(2, second.size());
+		assertEquals("0", second.get(0).get(CommonParams.ROWS));
+		assertNull(second.get(1).get(CommonParams.ROWS));
+		assertEquals(REQUEST_HANDLER_2_NAME, second.get(1).get(ShardParams.SHARDS_QT));
+
+		assertEquals(42, ((SolrDocumentList) qresponse.getValues().get(CompositeRequestHandler.RESPONSE_KEY)).getNumFound());
+	}
+
+	/**
+	 * The probe is built on the step params: the member applies its defaults and appends to the probe on its own.
+	 */
+	@Test
+	public void memberDefaultsAreNotAppliedTwice() {
+		final NamedList<Object> defaults = new SimpleOrderedMap<>();
+		defaults.add("facet", "true");
+		final NamedList<Object> appends = new SimpleOrderedMap<>();
+		appends.add(CommonParams.FQ, "type:shoe");
+		final NamedList<Object> initArgs = new SimpleOrderedMap<>();
+		initArgs.add("defaults", defaults);
+		initArgs.add("appends", appends);
+		when(((SearchHandler) rh1).getInitArgs()).thenReturn(initArgs);
+
+		cut.init(args);
+		params.set(ShardParams.SHARDS, SHARDS);
+
+		final List<SolrParams> executions = new ArrayList<>();
+		doAnswer(returnNumFound(42, executions)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		final SolrParams probe = executions.get(0);
+		assertEquals("0", probe.get(CommonParams.ROWS));
+		assertEquals("false", probe.get("facet"));
+		assertNull(probe.getParams(CommonParams.FQ));
+	}
+
+	/**
+	 * A probe which runs out of the member deadline abandons the member: its full search is not executed.
+	 */
+	@Test
+	public void timedOutProbeAbandonsTheMember() {
+		args.add(CompositeRequestHandler.DEADLINES_KEY, "50,100");
+		cut.init(args);
+		params.set(ShardParams.SHARDS, SHARDS);
+
+		final List<SolrParams> first = new ArrayList<>();
+		final List<SolrParams> second = new ArrayList<>();
+		doAnswer(returnPartialResults(first)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnNumFound(42, second)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verifyZeroInteractions(rh3);
+
+		assertEquals(1, first.size());
+		assertEquals("0", first.get(0).get(CommonParams.ROWS));
+		assertEquals("50", first.get(0).get(CommonParams.TIME_ALLOWED));
+		assertTrue(cut.abandoned(qrequest).contains(REQUEST_HANDLER_1_NAME));
+
+		assertEquals(2, second.size());
+		assertEquals(42, ((SolrDocumentList) qresponse.getValues().get(CompositeRequestHandler.RESPONSE_KEY)).getNumFound());
+	}
+}
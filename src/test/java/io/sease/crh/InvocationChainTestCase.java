@@ -2,6 +2,7 @@ package io.sease.crh;
 
 import static java.util.Arrays.stream;
 import static java.util.stream.Collectors.joining;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -221,4 +222,39 @@ public class InvocationChainTestCase extends BaseUnitTest {
 		verify(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
 		verify(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
 	}		
-}
\ No newline at end of file
+
+	/**
+	 * Each composite request updates the metrics of the members it has invoked and the steps histogram.
+	 */
+	@Test
+	public void metricsAreCollectedForEachStep() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.RULES_KEY, "gt0,gt0,always");
+
+		doAnswer(returnZeroResults)
+				.when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		doAnswer(returnJustOneResult)
+				.when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.init(initArgs);
+		cut.handleRequestBody(qrequest, qresponse);
+		cut.handleRequestBody(qrequest, qresponse);
+
+		final ChainMetrics metrics = cut.metrics;
+		assertEquals(2, metrics.invocations(0).getCount());
+		assertEquals(0, metrics.wins(0).getCount());
+		assertEquals(2, metrics.latency(0).getCount());
+		assertEquals(1d, ChainMetrics.fallThroughRatio(metrics.invocations(0), metrics.wins(0)), 0);
+
+		assertEquals(2, metrics.invocations(1).getCount());
+		assertEquals(2, metrics.wins(1).getCount());
+		assertEquals(0d, ChainMetrics.fallThroughRatio(metrics.invocations(1), metrics.wins(1)), 0);
+
+		assertEquals(0, metrics.invocations(2).getCount());
+		assertEquals(0d, ChainMetrics.fallThroughRatio(metrics.invocations(2), metrics.wins(2)), 0);
+
+		assertEquals(2, metrics.steps().getCount());
+		assertEquals(2, metrics.steps().getSnapshot().getMax());
+	}
+}
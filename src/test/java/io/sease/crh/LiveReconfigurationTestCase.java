@@ -0,0 +1,165 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.PluginBag;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the live reconfiguration of the chain.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class LiveReconfigurationTestCase extends BaseUnitTest {
+	private final static String PARAMSET = "searchChain";
+
+	private SolrCore core;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		core = newCore();
+		newRequest(core, new ModifiableSolrParams().add(SAMPLE_KEY, SAMPLE_VALUE));
+
+		final PluginBag<SolrRequestHandler> handlers = mock(PluginBag.class);
+		when(handlers.contains(anyString())).thenReturn(true);
+		when(handlers.isLoaded(anyString())).thenReturn(false);
+		when(core.getRequestHandlers()).thenReturn(handlers);
+
+		doAnswer(returnResults(1)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(1)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		args = chainArgs("gt0,gt0,always");
+		args.add(CompositeRequestHandler.LIVE_PARAMS_KEY, PARAMSET);
+
+		cut = spy(new CompositeRequestHandler());
+		cut.init(args);
+	}
+
+	@After
+	public void tearDown() {
+		cut.close();
+	}
+
+	@Test
+	public void staticConfigurationWithoutParamset() {
+		doReturn(null).when(cut).liveParams(any(SolrQueryRequest.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		assertSame(cut, cut.engine(qrequest));
+		verify(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verifyZeroInteractions(rh2, rh3);
+	}
+
+	@Test
+	public void liveConfigurationIsApplied() {
+		doReturn(new ModifiableSolrParams()
+					.add(CompositeRequestHandler.CHAIN_KEY, REQUEST_HANDLER_2_NAME + "," + REQUEST_HANDLER_1_NAME)
+					.add(CompositeRequestHandler.RULES_KEY, "gt0,always"))
+				.when(cut).liveParams(any(SolrQueryRequest.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		final CompositeRequestHandler engine = cut.engine(qrequest);
+		assertEquals(2, engine.chain.size());
+		assertEquals(REQUEST_HANDLER_2_NAME, engine.chain.get(0));
+		verify(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verifyZeroInteractions(rh1, rh3);
+	}
+
+	@Test
+	public void unchangedParamsetReusesTheSameConfiguration() {
+		doReturn(new ModifiableSolrParams().add(CompositeRequestHandler.CHAIN_KEY, REQUEST_HANDLER_2_NAME))
+				.when(cut).liveParams(any(SolrQueryRequest.class));
+
+		assertSame(cut.engine(qrequest), cut.engine(qrequest));
+	}
+
+	@Test
+	public void invalidConfigurationKeepsThePreviousOne() {
+		doReturn(new ModifiableSolrParams()
+					.add(CompositeRequestHandler.CHAIN_KEY, REQUEST_HANDLER_2_NAME)
+					.add(CompositeRequestHandler.RULES_KEY, "always"))
+				.when(cut).liveParams(any(SolrQueryRequest.class));
+		final CompositeRequestHandler valid = cut.engine(qrequest);
+
+		doReturn(new ModifiableSolrParams()
+					.add(CompositeRequestHandler.CHAIN_KEY, REQUEST_HANDLER_1_NAME)
+					.add(CompositeRequestHandler.RULES_KEY, "gt0,gt0,gt0"))
+				.when(cut).liveParams(any(SolrQueryRequest.class));
+
+		assertSame(valid, cut.engine(qrequest));
+	}
+
+	@Test
+	public void swapDoesNotAffectTheInFlightRequests() throws Exception {
+		final AtomicReference<SolrParams> paramset = new AtomicReference<>(new ModifiableSolrParams()
+				.add(CompositeRequestHandler.SPECULATIVE_LOOKAHEAD_KEY, "2"));
+		doAnswer(invocation -> paramset.get()).when(cut).liveParams(any(SolrQueryRequest.class));
+
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			entered.countDown();
+			release.await(10, TimeUnit.SECONDS);
+			return returnResults(0).answer(invocation);
+		}).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(0)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(1)).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final Thread inFlight = new Thread(() -> {
+			try {
+				cut.handleRequestBody(qrequest, qresponse);
+			} catch (final Throwable throwable) {
+				failure.set(throwable);
+			}
+		});
+		inFlight.start();
+		assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+		// The paramset changes while the speculative request is still running
+		paramset.set(new ModifiableSolrParams()
+				.add(CompositeRequestHandler.CHAIN_KEY, REQUEST_HANDLER_3_NAME)
+				.add(CompositeRequestHandler.SPECULATIVE_LOOKAHEAD_KEY, "2"));
+
+		final SolrQueryRequest request = mock(SolrQueryRequest.class);
+		when(request.getCore()).thenReturn(core);
+		when(request.getParams()).thenReturn(new ModifiableSolrParams());
+		when(request.getContext()).thenReturn(new HashMap<>());
+		final SolrQueryResponse response = new SolrQueryResponse();
+		response.addResponseHeader(new SimpleOrderedMap<>());
+		cut.handleRequestBody(request, response);
+		assertEquals(1, cut.howManyFound(response));
+
+		// The in-flight request still submits the third member, on the executor it started with
+		release.countDown();
+		inFlight.join(10000);
+
+		assertNull(failure.get());
+		assertNull(qresponse.getException());
+		assertEquals(1, cut.howManyFound(qresponse));
+	}
+}
@@ -0,0 +1,127 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the paging affinity.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class PagingAffinityTestCase extends BaseUnitTest {
+	@Before
+	public void setUp() {
+		newRequest(newCore(), new ModifiableSolrParams().add(CommonParams.Q, "nike shoes"));
+		doAnswer(returnResults(1)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		args = chainArgs("gt0,gt0,always");
+		args.add(CompositeRequestHandler.AFFINITY_KEY, true);
+
+		cut = new CompositeRequestHandler();
+		cut.init(args);
+	}
+
+	@Test
+	public void tokenRoundTrip() {
+		final PagingAffinity token = PagingAffinity.decode(new PagingAffinity(2, 12345L, -7).encode());
+
+		assertEquals(2, token.index);
+		assertEquals(12345L, token.version);
+		assertEquals(-7, token.signature);
+	}
+
+	@Test
+	public void invalidTokens() {
+		assertNull(PagingAffinity.decode(null));
+		assertNull(PagingAffinity.decode(""));
+		assertNull(PagingAffinity.decode("not a token!"));
+		assertNull(PagingAffinity.decode("bm90IGEgdG9rZW4"));
+	}
+
+	@Test
+	public void followUpPages() {
+		final ModifiableSolrParams page = new ModifiableSolrParams();
+		assertFalse(PagingAffinity.followUp(page));
+
+		page.set(CursorMarkParams.CURSOR_MARK_PARAM, CursorMarkParams.CURSOR_MARK_START);
+		assertFalse(PagingAffinity.followUp(page));
+
+		page.set(CursorMarkParams.CURSOR_MARK_PARAM, "AoEjR0JQ");
+		assertTrue(PagingAffinity.followUp(page));
+
+		page.remove(CursorMarkParams.CURSOR_MARK_PARAM);
+		page.set(CommonParams.START, 10);
+		assertTrue(PagingAffinity.followUp(page));
+	}
+
+	@Test
+	public void pagesHaveTheSameSignature() {
+		final ModifiableSolrParams first = new ModifiableSolrParams().add(CommonParams.Q, "nike");
+		final ModifiableSolrParams second = new ModifiableSolrParams(first)
+				.add(CommonParams.START, "20")
+				.add(CompositeRequestHandler.AFFINITY_KEY, "token");
+
+		assertEquals(PagingAffinity.signature("fp", first), PagingAffinity.signature("fp", second));
+		assertFalse(PagingAffinity.signature("fp", first) == PagingAffinity.signature("another", first));
+	}
+
+	@Test
+	public void followUpPageGoesStraightToTheWinner() {
+		final String token = (String) execute().getResponseHeader().get(CompositeRequestHandler.AFFINITY_KEY);
+		assertNotNull(token);
+		verify(rh1, times(1)).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		params.set(CommonParams.START, 10);
+		params.set(CompositeRequestHandler.AFFINITY_KEY, token);
+		final SolrQueryResponse page = execute();
+
+		verify(rh1, times(1)).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verify(rh2, times(2)).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verifyZeroInteractions(rh3);
+		assertEquals(token, page.getResponseHeader().get(CompositeRequestHandler.AFFINITY_KEY));
+	}
+
+	@Test
+	public void tokenOfAnotherRequestIsIgnored() {
+		final String token = (String) execute().getResponseHeader().get(CompositeRequestHandler.AFFINITY_KEY);
+
+		params.set(CommonParams.Q, "adidas shoes");
+		params.set(CommonParams.START, 10);
+		params.set(CompositeRequestHandler.AFFINITY_KEY, token);
+		execute();
+
+		verify(rh1, times(2)).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+	}
+
+	@Test
+	public void noTokenIfNotEnabled() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.removeAll(CompositeRequestHandler.AFFINITY_KEY);
+		cut.init(initArgs);
+
+		assertNull(execute().getResponseHeader().get(CompositeRequestHandler.AFFINITY_KEY));
+	}
+
+	private SolrQueryResponse execute() {
+		final SolrQueryResponse response = new SolrQueryResponse();
+		response.addResponseHeader(new SimpleOrderedMap<>());
+		cut.handleRequestBody(qrequest, response);
+		return response;
+	}
+}
@@ -0,0 +1,185 @@
+package io.sease.crh;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the single-pass evaluation of the relaxation ladders.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class RelaxationLadderTestCase extends BaseUnitTest {
+	private final static String TEXT = "text";
+	private final static String TYPE = "type";
+
+	private Directory directory;
+	private DirectoryReader reader;
+	private IndexSearcher searcher;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = new RAMDirectory();
+		try (final IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			writer.addDocument(document("a b c", "shoe"));
+			writer.addDocument(document("a b", "shoe"));
+			writer.addDocument(document("a", "boot"));
+			writer.addDocument(document("b c", "shoe"));
+			writer.addDocument(document("d", "shoe"));
+		}
+		reader = DirectoryReader.open(directory);
+		searcher = new IndexSearcher(reader);
+
+		newRequest(newCore(), new ModifiableSolrParams().add(SAMPLE_KEY, SAMPLE_VALUE));
+
+		args = chainArgs("gt0,gt0,always");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		reader.close();
+		directory.close();
+	}
+
+	@Test
+	public void singlePassCountsEachLevel() throws Exception {
+		final int [] counts = RelaxationLadder.count(searcher, clauses("a", "b", "c"), null, new int [] {3, 2, 1}, partial -> false);
+
+		assertArrayEquals(new int [] {1, 3, 4}, counts);
+	}
+
+	@Test
+	public void filterIsSharedByAllTheLevels() throws Exception {
+		final int [] counts = RelaxationLadder.count(
+				searcher,
+				clauses("a", "b", "c"),
+				new TermQuery(new Term(TYPE, "shoe")),
+				new int [] {3, 2, 1},
+				partial -> false);
+
+		assertArrayEquals(new int [] {1, 3, 3}, counts);
+	}
+
+	@Test
+	public void countingStopsOnceTheOutcomeIsDecided() throws Exception {
+		final int [] counts = RelaxationLadder.count(searcher, clauses("a", "b", "c"), null, new int [] {3, 1}, partial -> partial[0] > 0);
+
+		assertArrayEquals(new int [] {1, 1}, counts);
+	}
+
+	@Test
+	public void outcomeIsDecidedByThePrecomputedLimits() {
+		final int [] limits = {2, 1};
+		final boolean [] outcomes = {false, true};
+
+		assertFalse(RelaxationLadder.decided(new int [] {0, 3}, limits, outcomes, 2));
+		assertFalse(RelaxationLadder.decided(new int [] {2, 0}, limits, outcomes, 2));
+		assertTrue(RelaxationLadder.decided(new int [] {2, 1}, limits, outcomes, 2));
+		assertTrue(RelaxationLadder.decided(new int [] {1, 0}, new int [] {1, 1}, new boolean [] {true, false}, 2));
+	}
+
+	@Test
+	public void pureDisjunction() {
+		final BooleanQuery disjunction = disjunction(BooleanClause.Occur.SHOULD);
+
+		assertNotNull(RelaxationLadder.disjunction(disjunction));
+		assertNotNull(RelaxationLadder.disjunction(new BoostQuery(disjunction, 2f)));
+		assertNull(RelaxationLadder.disjunction(disjunction(BooleanClause.Occur.MUST)));
+		assertNull(RelaxationLadder.disjunction(new TermQuery(new Term(TEXT, "a"))));
+		assertNull(RelaxationLadder.disjunction(new BooleanQuery.Builder().build()));
+	}
+
+	@Test
+	public void unavailableWithoutLadder() {
+		final Rule [] rules = { RuleCompiler.compile("gt0"), RuleCompiler.compile("gt0") };
+
+		assertEquals(0, RelaxationLadder.start(singletonList(qrequest), rules, true));
+		assertEquals(0, RelaxationLadder.start(asList(qrequest, qrequest), rules, true));
+	}
+
+	@Test
+	public void disabledByDefault() throws Exception {
+		cut = spy(new CompositeRequestHandler());
+		cut.init(args);
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verify(cut, never()).relaxation(any(SolrQueryRequest.class));
+		verify(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+	}
+
+	@Test
+	public void chainWalkStartsFromTheLadderOutcome() throws Exception {
+		final SimpleOrderedMap<Object> initArgs = new SimpleOrderedMap<>();
+		initArgs.addAll(args);
+		initArgs.add(CompositeRequestHandler.LADDER_KEY, true);
+
+		cut = spy(new CompositeRequestHandler());
+		cut.init(initArgs);
+		doReturn(1).when(cut).relaxation(any(SolrQueryRequest.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verify(rh1, never()).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verify(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verify(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+	}
+
+	private Document document(final String text, final String type) {
+		final Document document = new Document();
+		document.add(new TextField(TEXT, text, Field.Store.NO));
+		document.add(new StringField(TYPE, type, Field.Store.NO));
+		return document;
+	}
+
+	private List<Query> clauses(final String ... terms) {
+		final List<Query> clauses = new ArrayList<>();
+		for (final String term : terms) {
+			clauses.add(new TermQuery(new Term(TEXT, term)));
+		}
+		return clauses;
+	}
+
+	private BooleanQuery disjunction(final BooleanClause.Occur occur) {
+		return new BooleanQuery.Builder()
+				.add(new TermQuery(new Term(TEXT, "a")), BooleanClause.Occur.SHOULD)
+				.add(new TermQuery(new Term(TEXT, "b")), occur)
+				.build();
+	}
+}
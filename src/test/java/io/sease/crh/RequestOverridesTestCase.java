@@ -0,0 +1,220 @@
+package io.sease.crh;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.core.PluginBag;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the per-request chain and rules overrides.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class RequestOverridesTestCase extends BaseUnitTest {
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		final SolrCore core = newCore();
+		newRequest(core, new ModifiableSolrParams().add(SAMPLE_KEY, SAMPLE_VALUE));
+
+		final PluginBag<SolrRequestHandler> handlers = mock(PluginBag.class);
+		when(handlers.contains(anyString())).thenReturn(true);
+		when(handlers.isLoaded(anyString())).thenReturn(false);
+		when(core.getRequestHandlers()).thenReturn(handlers);
+
+		doAnswer(returnResults(1)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(1)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		args = chainArgs("gt0,gt0,always");
+		args.add(CompositeRequestHandler.OVERRIDES_KEY, 2);
+
+		cut = new CompositeRequestHandler();
+		cut.init(args);
+	}
+
+	@Test
+	public void configuredChainWithoutOverrides() {
+		cut.handleRequestBody(qrequest, qresponse);
+
+		assertSame(cut, cut.engine(qrequest));
+		verify(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verifyZeroInteractions(rh2, rh3);
+	}
+
+	@Test
+	public void overridesAreIgnoredIfNotEnabled() {
+		args.removeAll(CompositeRequestHandler.OVERRIDES_KEY);
+		cut.init(args);
+		params.add(CompositeRequestHandler.CHAIN_KEY, REQUEST_HANDLER_2_NAME);
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		assertSame(cut, cut.engine(qrequest));
+		verify(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verifyZeroInteractions(rh2, rh3);
+	}
+
+	@Test
+	public void requestOverridesAreApplied() {
+		params.add(CompositeRequestHandler.CHAIN_KEY, REQUEST_HANDLER_3_NAME + "," + REQUEST_HANDLER_2_NAME);
+		params.add(CompositeRequestHandler.RULES_KEY, "gt0,always");
+		doAnswer(returnResults(1)).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		final CompositeRequestHandler engine = cut.engine(qrequest);
+		assertEquals(2, engine.chain.size());
+		assertEquals(REQUEST_HANDLER_3_NAME, engine.chain.get(0));
+		verify(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verifyZeroInteractions(rh1, rh2);
+	}
+
+	@Test
+	public void compiledConfigurationsAreReused() {
+		params.add(CompositeRequestHandler.RULES_KEY, "eq1,gt0,always");
+
+		assertSame(cut.engine(qrequest), cut.engine(qrequest));
+	}
+
+	@Test
+	public void concurrentOverridesAreCompiledOnce() throws Exception {
+		cut = spy(new CompositeRequestHandler());
+		cut.init(args);
+		doAnswer(invocation -> {
+			Thread.sleep(50);
+			return invocation.callRealMethod();
+		}).when(cut).compile(any(), any(), any());
+		params.add(CompositeRequestHandler.RULES_KEY, "eq1,gt0,always");
+
+		final Set<CompositeRequestHandler> engines = ConcurrentHashMap.newKeySet();
+		final List<Thread> requests = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			requests.add(new Thread(() -> engines.add(cut.engine(qrequest))));
+		}
+		requests.forEach(Thread::start);
+		for (final Thread request : requests) {
+			request.join(10000);
+		}
+
+		assertEquals(1, engines.size());
+		verify(cut, times(1)).compile(any(), any(), any());
+	}
+
+	@Test
+	public void compiledConfigurationsAreBounded() {
+		params.set(CompositeRequestHandler.RULES_KEY, "eq1");
+		final CompositeRequestHandler first = cut.engine(qrequest);
+
+		params.set(CompositeRequestHandler.RULES_KEY, "eq2");
+		cut.engine(qrequest);
+		params.set(CompositeRequestHandler.RULES_KEY, "eq3");
+		cut.engine(qrequest);
+
+		params.set(CompositeRequestHandler.RULES_KEY, "eq1");
+		assertNotSame(first, cut.engine(qrequest));
+	}
+
+	@Test
+	public void slowCompilationsDoNotBlockTheOtherOverrides() throws Exception {
+		cut = spy(new CompositeRequestHandler());
+		cut.init(args);
+
+		final CountDownLatch compiling = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			if ("eq1".equals(invocation.getArgument(2))) {
+				compiling.countDown();
+				release.await(10, TimeUnit.SECONDS);
+			}
+			return invocation.callRealMethod();
+		}).when(cut).compile(any(), any(), any());
+
+		final CompletableFuture<CompositeRequestHandler> slow =
+				CompletableFuture.supplyAsync(() -> cut.engine(request(CompositeRequestHandler.RULES_KEY, "eq1")));
+		try {
+			assertTrue(compiling.await(10, TimeUnit.SECONDS));
+
+			final CompositeRequestHandler fast = CompletableFuture
+					.supplyAsync(() -> cut.engine(request(CompositeRequestHandler.RULES_KEY, "gt0")))
+					.get(5, TimeUnit.SECONDS);
+			assertNotSame(cut, fast);
+		} finally {
+			release.countDown();
+		}
+		assertNotSame(cut, slow.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void overriddenChainCanOnlyReferToTheConfiguredMembers() {
+		params.add(CompositeRequestHandler.CHAIN_KEY, "/admin/private," + REQUEST_HANDLER_3_NAME);
+
+		try {
+			cut.engine(qrequest);
+			fail();
+		} catch (final SolrException expected) {
+			assertEquals(SolrException.ErrorCode.BAD_REQUEST.code, expected.code());
+		}
+	}
+
+	@Test
+	public void allowedMembersCanBeConfigured() {
+		args.add(CompositeRequestHandler.OVERRIDES_MEMBERS_KEY, REQUEST_HANDLER_3_NAME + ",/rh4");
+		cut.init(args);
+
+		params.set(CompositeRequestHandler.CHAIN_KEY, "/rh4," + REQUEST_HANDLER_3_NAME);
+		assertEquals(asList("/rh4", REQUEST_HANDLER_3_NAME), cut.engine(qrequest).chain);
+
+		params.set(CompositeRequestHandler.CHAIN_KEY, REQUEST_HANDLER_1_NAME + "," + REQUEST_HANDLER_3_NAME);
+		try {
+			cut.engine(qrequest);
+			fail();
+		} catch (final SolrException expected) {
+			assertEquals(SolrException.ErrorCode.BAD_REQUEST.code, expected.code());
+		}
+	}
+
+	@Test
+	public void invalidOverridesAreBadRequests() {
+		params.add(CompositeRequestHandler.CHAIN_KEY, REQUEST_HANDLER_1_NAME);
+		params.add(CompositeRequestHandler.RULES_KEY, "gt0,gt0");
+
+		try {
+			cut.engine(qrequest);
+			fail();
+		} catch (final SolrException expected) {
+			assertEquals(SolrException.ErrorCode.BAD_REQUEST.code, expected.code());
+		}
+	}
+
+	private SolrQueryRequest request(final String name, final String value) {
+		final SolrQueryRequest request = mock(SolrQueryRequest.class);
+		final SolrCore core = qrequest.getCore();
+		when(request.getCore()).thenReturn(core);
+		when(request.getParams()).thenReturn(new ModifiableSolrParams().add(name, value));
+		return request;
+	}
+}
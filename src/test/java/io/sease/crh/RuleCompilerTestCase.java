@@ -0,0 +1,85 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.solr.common.SolrException;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link RuleCompiler}.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class RuleCompilerTestCase {
+	@Test
+	public void always() {
+		assertSame(Rule.ALWAYS, RuleCompiler.compile("always"));
+		assertTrue(Rule.ALWAYS.test(0, Float.NaN));
+		assertEquals(0, Rule.ALWAYS.saturation());
+	}
+
+	@Test
+	public void comparisons() {
+		assertTrue(RuleCompiler.compile("eq1").test(1, Float.NaN));
+		assertFalse(RuleCompiler.compile("eq1").test(2, Float.NaN));
+
+		assertTrue(RuleCompiler.compile("gt0").test(1, Float.NaN));
+		assertFalse(RuleCompiler.compile("gt0").test(0, Float.NaN));
+
+		assertTrue(RuleCompiler.compile("lt3").test(2, Float.NaN));
+		assertFalse(RuleCompiler.compile("lt3").test(3, Float.NaN));
+
+		assertTrue(RuleCompiler.compile("ge3").test(3, Float.NaN));
+		assertFalse(RuleCompiler.compile("ge3").test(2, Float.NaN));
+
+		assertTrue(RuleCompiler.compile("le3").test(3, Float.NaN));
+		assertFalse(RuleCompiler.compile("le3").test(4, Float.NaN));
+	}
+
+	@Test
+	public void range() {
+		final Rule rule = RuleCompiler.compile("between2and10");
+		assertFalse(rule.test(1, Float.NaN));
+		assertTrue(rule.test(2, Float.NaN));
+		assertTrue(rule.test(10, Float.NaN));
+		assertFalse(rule.test(11, Float.NaN));
+		assertEquals(11, rule.saturation());
+	}
+
+	@Test
+	public void maxScore() {
+		final Rule rule = RuleCompiler.compile("maxscorege1.5");
+		assertTrue(rule.test(0, 1.5f));
+		assertFalse(rule.test(100, 1.4f));
+		assertFalse(rule.test(100, Float.NaN));
+		assertEquals(Rule.UNBOUNDED, rule.saturation());
+	}
+
+	@Test
+	public void booleanCombinations() {
+		final Rule rule = RuleCompiler.compile("eq1 | gt0 & maxscoregt2");
+		assertTrue(rule.test(1, Float.NaN));
+		assertTrue(rule.test(5, 3f));
+		assertFalse(rule.test(5, 1f));
+		assertFalse(rule.test(0, 3f));
+
+		final Rule negation = RuleCompiler.compile("!between1and3");
+		assertTrue(negation.test(0, Float.NaN));
+		assertFalse(negation.test(2, Float.NaN));
+		assertEquals(4, negation.saturation());
+	}
+
+	@Test(expected = SolrException.class)
+	public void invalidExpression() {
+		RuleCompiler.compile("gtx");
+	}
+
+	@Test(expected = SolrException.class)
+	public void trailingGarbage() {
+		RuleCompiler.compile("gt1 always");
+	}
+}
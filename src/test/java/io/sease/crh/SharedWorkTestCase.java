@@ -0,0 +1,122 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.PluginBag;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.handler.component.SearchHandler;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.search.QueryParsing;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link SharedWork}.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class SharedWorkTestCase extends BaseUnitTest {
+	@Before
+	public void setUp() {
+		newRequest(newCore(), new ModifiableSolrParams().add(CommonParams.Q, "a b c"));
+	}
+
+	@Test(expected = SolrException.class)
+	public void sharedWorkParserMustBeRegistered() {
+		final SolrCore core = sharedWorkCore();
+		when(core.getQueryPlugin(SharedWorkQParserPlugin.NAME)).thenReturn(null);
+
+		cut = new CompositeRequestHandler();
+		cut.init(sharedWorkArgs());
+		cut.inform(core);
+	}
+
+	@Test
+	public void registeredSharedWorkParser() {
+		final SolrCore core = sharedWorkCore();
+		when(core.getQueryPlugin(SharedWorkQParserPlugin.NAME)).thenReturn(new SharedWorkQParserPlugin());
+
+		cut = new CompositeRequestHandler();
+		cut.init(sharedWorkArgs());
+		cut.inform(core);
+	}
+
+	@Test
+	public void memberDefTypeIsMovedToTheSharedWorkParser() throws Exception {
+		final SearchHandler member = member("defaults", "edismax");
+		final SharedWork work = SharedWork.create(qrequest, SharedWorkQParserPlugin.NAME, 3);
+
+		final SolrParams memberParams = work.params(0, member);
+		assertEquals(SharedWorkQParserPlugin.NAME, memberParams.get(QueryParsing.DEFTYPE));
+		assertEquals("edismax", memberParams.get(SharedWork.DEF_TYPE_KEY));
+		assertEquals("a b c", memberParams.get(CommonParams.Q));
+
+		// Params are computed once per member
+		assertSame(memberParams, work.params(0, member));
+	}
+
+	@Test
+	public void requestDefTypeWinsOverMemberDefaults() throws Exception {
+		params.set(QueryParsing.DEFTYPE, "dismax");
+		final SharedWork work = SharedWork.create(qrequest, SharedWorkQParserPlugin.NAME, 3);
+
+		assertEquals("dismax", work.params(1, member("defaults", "edismax")).get(SharedWork.DEF_TYPE_KEY));
+	}
+
+	@Test
+	public void invariantDefTypeIsNotTouched() throws Exception {
+		final SharedWork work = SharedWork.create(qrequest, SharedWorkQParserPlugin.NAME, 3);
+
+		final SolrParams memberParams = work.params(2, member("invariants", "edismax"));
+		assertNull(memberParams.get(QueryParsing.DEFTYPE));
+		assertNull(memberParams.get(SharedWork.DEF_TYPE_KEY));
+	}
+
+	@Test
+	public void filtersWithLocalParamsAreNotShared() throws Exception {
+		params.add(CommonParams.FQ, "{!tag=t1}f:x", "{!frange l=1}field");
+		final SharedWork work = SharedWork.create(qrequest, SharedWorkQParserPlugin.NAME, 3);
+
+		assertEquals(2, work.params(0, member("defaults", "edismax")).getParams(CommonParams.FQ).length);
+	}
+
+	private SearchHandler member(final String section, final String defType) {
+		final NamedList<Object> parameters = new SimpleOrderedMap<>();
+		parameters.add(QueryParsing.DEFTYPE, defType);
+
+		final NamedList<Object> initArgs = new SimpleOrderedMap<>();
+		initArgs.add(section, parameters);
+
+		final SearchHandler member = mock(SearchHandler.class);
+		when(member.getInitArgs()).thenReturn(initArgs);
+		return member;
+	}
+
+	private NamedList<Object> sharedWorkArgs() {
+		final NamedList<Object> sharedWorkArgs = chainArgs("gt0,gt0,always");
+		sharedWorkArgs.add(CompositeRequestHandler.SHARED_WORK_KEY, true);
+		return sharedWorkArgs;
+	}
+
+	@SuppressWarnings("unchecked")
+	private SolrCore sharedWorkCore() {
+		final PluginBag<SolrRequestHandler> handlers = mock(PluginBag.class);
+		when(handlers.contains(anyString())).thenReturn(true);
+
+		final SolrCore core = newCore();
+		when(core.getRequestHandlers()).thenReturn(handlers);
+		return core;
+	}
+}
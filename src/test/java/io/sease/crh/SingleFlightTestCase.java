@@ -0,0 +1,122 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the coalescing of identical concurrent requests.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class SingleFlightTestCase extends BaseUnitTest {
+	private final CountDownLatch entered = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private SolrCore core;
+
+	@Before
+	public void setUp() {
+		core = newCore();
+
+		doAnswer(invocation -> {
+			entered.countDown();
+			release.await(10, TimeUnit.SECONDS);
+			return returnResults(1).answer(invocation);
+		}).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		args = chainArgs("gt0,gt0,always");
+		args.add(CompositeRequestHandler.COALESCE_KEY, true);
+
+		cut = new CompositeRequestHandler();
+		cut.init(args);
+	}
+
+	@Test
+	public void leaderOutcomeIsShared() throws Exception {
+		final SolrQueryResponse leaderResponse = newResponse();
+		final Thread leader = new Thread(() -> cut.handleRequestBody(newRequest("nike"), leaderResponse));
+		leader.start();
+		assertEquals(true, entered.await(10, TimeUnit.SECONDS));
+
+		final SolrQueryResponse followerResponse = newResponse();
+		final Thread follower = new Thread(() -> cut.handleRequestBody(newRequest("nike"), followerResponse));
+		follower.start();
+		while (follower.getState() != Thread.State.TIMED_WAITING && follower.isAlive()) {
+			Thread.sleep(5);
+		}
+
+		release.countDown();
+		leader.join(10000);
+		follower.join(10000);
+
+		verify(rh1, times(1)).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verifyZeroInteractions(rh2, rh3);
+		assertEquals(1, cut.howManyFound(leaderResponse));
+		assertEquals(1, cut.howManyFound(followerResponse));
+		assertEquals(1, cut.metrics.coalesced().getCount());
+		assertEquals(0, cut.flights.inFlight());
+	}
+
+	@Test
+	public void differentRequestsAreNotCoalesced() {
+		assertNotNull(cut.flightKey(newRequest("nike")));
+		assertEquals(cut.flightKey(newRequest("nike")), cut.flightKey(newRequest("nike")));
+		assertEquals(false, cut.flightKey(newRequest("nike")).equals(cut.flightKey(newRequest("adidas"))));
+	}
+
+	@Test
+	public void debugRequestsAreNotCoalesced() {
+		final SolrQueryRequest request = newRequest("nike");
+		((ModifiableSolrParams) request.getParams()).set(CommonParams.DEBUG_QUERY, true);
+
+		assertNull(cut.flightKey(request));
+	}
+
+	@Test
+	public void followerFallsBackWithoutOutcome() {
+		final SingleFlight flights = new SingleFlight(10);
+		final CompletableFuture<SingleFlight.Outcome> leader = new CompletableFuture<>();
+		assertNull(flights.join("key", leader));
+		assertSame(leader, flights.join("key", new CompletableFuture<>()));
+
+		// The leader is still running
+		assertNull(flights.follow(leader));
+
+		// The leader outcome cannot be shared
+		flights.land("key", leader, null);
+		assertNull(flights.follow(leader));
+		assertEquals(0, flights.inFlight());
+	}
+
+	private SolrQueryRequest newRequest(final String query) {
+		final SolrQueryRequest request = mock(SolrQueryRequest.class);
+		when(request.getParams()).thenReturn(new ModifiableSolrParams().add(CommonParams.Q, query));
+		when(request.getContext()).thenReturn(new HashMap<>());
+		when(request.getCore()).thenReturn(core);
+		return request;
+	}
+
+	private SolrQueryResponse newResponse() {
+		final SolrQueryResponse response = new SolrQueryResponse();
+		response.addResponseHeader(new SimpleOrderedMap<>());
+		return response;
+	}
+}
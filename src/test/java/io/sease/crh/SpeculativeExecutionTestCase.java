@@ -0,0 +1,206 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for checking the speculative execution of the chain members.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class SpeculativeExecutionTestCase extends BaseUnitTest {
+	@Before
+	public void setUp() {
+		newRequest(newCore(), new ModifiableSolrParams().add(SAMPLE_KEY, SAMPLE_VALUE));
+		args = chainArgs("gt0,gt0,always");
+
+		cut = new CompositeRequestHandler();
+	}
+
+	@After
+	public void tearDown() {
+		cut.close();
+	}
+
+	/**
+	 * The members within the lookahead window must run at the same time.
+	 */
+	@Test
+	public void membersWithinTheWindowRunConcurrently() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.SPECULATIVE_LOOKAHEAD_KEY, "2");
+		cut.init(initArgs);
+
+		final CountDownLatch secondMemberStarted = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			assertTrue(secondMemberStarted.await(10, TimeUnit.SECONDS));
+			return returnResults(0).answer(invocation);
+		}).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		doAnswer(invocation -> {
+			secondMemberStarted.countDown();
+			return returnResults(3).answer(invocation);
+		}).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verify(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verify(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		assertEquals(3, cut.howManyFound(qresponse));
+	}
+
+	/**
+	 * Even if a later member completes first, the winner is the first member (in chain order) whose rule matches.
+	 */
+	@Test
+	public void winnerIsTheFirstMatchingMemberInChainOrder() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.SPECULATIVE_LOOKAHEAD_KEY, "3");
+		cut.init(initArgs);
+
+		doAnswer(invocation -> {
+			Thread.sleep(200);
+			return returnResults(1).answer(invocation);
+		}).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(5)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(9)).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		assertEquals(1, cut.howManyFound(qresponse));
+	}
+
+	/**
+	 * Once a winner has been found, a member which is still running must not be interrupted, and whatever it writes
+	 * must not leak into the caller response.
+	 */
+	@Test
+	public void losingMembersAreNotInterrupted() throws Exception {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.SPECULATIVE_LOOKAHEAD_KEY, "2");
+		cut.init(initArgs);
+
+		final CountDownLatch secondMemberStarted = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch secondMemberCompleted = new CountDownLatch(1);
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		doAnswer(invocation -> {
+			assertTrue(secondMemberStarted.await(10, TimeUnit.SECONDS));
+			return returnResults(1).answer(invocation);
+		}).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		doAnswer(invocation -> {
+			secondMemberStarted.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (final InterruptedException exception) {
+				interrupted.set(true);
+			}
+
+			((SolrQueryResponse) invocation.getArguments()[1]).getResponseHeader().add(SAMPLE_KEY, SAMPLE_VALUE);
+			secondMemberCompleted.countDown();
+			return returnResults(3).answer(invocation);
+		}).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+		assertEquals(1, cut.howManyFound(qresponse));
+
+		release.countDown();
+		assertTrue(secondMemberCompleted.await(10, TimeUnit.SECONDS));
+		assertFalse(interrupted.get());
+		assertNull(qresponse.getResponseHeader().get(SAMPLE_KEY));
+	}
+
+	/**
+	 * A losing member which completes after the outcome has been settled must not be recorded in the metrics.
+	 */
+	@Test
+	public void settledMembersAreNotRecorded() throws Exception {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.SPECULATIVE_LOOKAHEAD_KEY, "2");
+		cut.init(initArgs);
+
+		final CountDownLatch secondMemberStarted = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			assertTrue(secondMemberStarted.await(10, TimeUnit.SECONDS));
+			return returnResults(1).answer(invocation);
+		}).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		doAnswer(invocation -> {
+			secondMemberStarted.countDown();
+			release.await(10, TimeUnit.SECONDS);
+			return returnResults(3).answer(invocation);
+		}).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+		release.countDown();
+		Thread.sleep(200);
+
+		assertEquals(1, cut.metrics.invocations(0).getCount());
+		assertEquals(0, cut.metrics.invocations(1).getCount());
+		assertEquals(0, cut.metrics.latency(1).getCount());
+	}
+
+	/**
+	 * With a lookahead of 1 (the default) the chain is walked sequentially.
+	 */
+	@Test
+	public void defaultIsSequential() {
+		cut.init(args);
+
+		doAnswer(returnResults(1)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verify(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		verifyZeroInteractions(rh2, rh3);
+	}
+
+	@Test
+	public void speculativeStrategyIsChosenOnInit() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.SPECULATIVE_LOOKAHEAD_KEY, "2");
+		cut.init(initArgs);
+
+		assertTrue(cut.strategy instanceof SpeculativeExecution);
+	}
+
+	/**
+	 * The speculative mode executes the members within the window in full: the probe wouldn't be used.
+	 */
+	@Test(expected = SolrException.class)
+	public void probeIsRejected() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.SPECULATIVE_LOOKAHEAD_KEY, "2");
+		initArgs.add(CompositeRequestHandler.PROBE_KEY, "true");
+		cut.init(initArgs);
+	}
+
+	@Test(expected = SolrException.class)
+	public void adaptiveModeIsRejected() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.SPECULATIVE_LOOKAHEAD_KEY, "2");
+		initArgs.add(CompositeRequestHandler.ADAPTIVE_KEY, "true");
+		cut.init(initArgs);
+	}
+}
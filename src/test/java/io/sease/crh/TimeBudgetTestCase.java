@@ -0,0 +1,114 @@
+package io.sease.crh;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test for checking the time budget and the per-member deadlines.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class TimeBudgetTestCase extends BaseUnitTest {
+	private Answer<?> returnPartialResults(final int howMany) {
+		return invocation -> {
+			returnResults(howMany).answer(invocation);
+
+			final SolrQueryResponse response = (SolrQueryResponse) invocation.getArguments()[1];
+			response.getResponseHeader().add(SolrQueryResponse.RESPONSE_HEADER_PARTIAL_RESULTS_KEY, true);
+			return null;
+		};
+	}
+
+	@Before
+	public void setUp() {
+		newRequest(newCore(), new ModifiableSolrParams().add(SAMPLE_KEY, SAMPLE_VALUE));
+		when(qrequest.getStartTime()).thenReturn(System.currentTimeMillis());
+
+		args = chainArgs("gt0,gt0,always");
+		args.add(CompositeRequestHandler.DEADLINES_KEY, "50,100");
+
+		cut = new CompositeRequestHandler();
+	}
+
+	@Test
+	public void deadlinesWithoutBudget() {
+		cut.init(args);
+
+		assertEquals(50, cut.timeAllowed(qrequest, 0));
+		assertEquals(100, cut.timeAllowed(qrequest, 1));
+		assertEquals(0, cut.timeAllowed(qrequest, 2));
+		assertNull(cut.params(qrequest, 2).get(CommonParams.TIME_ALLOWED));
+	}
+
+	@Test
+	public void deadlinesAreCappedByTheRemainingBudget() {
+		final NamedList<Object> initArgs = args.clone();
+		initArgs.add(CompositeRequestHandler.TIME_BUDGET_RESERVE_KEY, "20");
+		cut.init(initArgs);
+
+		params.set(CommonParams.TIME_ALLOWED, "80");
+
+		assertEquals(50, cut.timeAllowed(qrequest, 0));
+		assertTrue(cut.timeAllowed(qrequest, 1) <= 60);
+		assertTrue(cut.timeAllowed(qrequest, 2) <= 80);
+		assertTrue(cut.timeAllowed(qrequest, 2) > 0);
+	}
+
+	@Test
+	public void membersRunWithTheirDeadline() {
+		cut.init(args);
+		doAnswer(returnResults(1)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		final ArgumentCaptor<SolrQueryRequest> request = ArgumentCaptor.forClass(SolrQueryRequest.class);
+		verify(rh1).handleRequest(request.capture(), any(SolrQueryResponse.class));
+		assertEquals("50", request.getValue().getParams().get(CommonParams.TIME_ALLOWED));
+	}
+
+	@Test
+	public void timedOutMemberIsAbandoned() {
+		cut.init(args);
+		doAnswer(returnPartialResults(5)).when(rh1).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		doAnswer(returnResults(3)).when(rh2).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verifyZeroInteractions(rh3);
+		assertEquals(3, cut.howManyFound(qresponse));
+		assertNull(qresponse.getResponseHeader().get(SolrQueryResponse.RESPONSE_HEADER_PARTIAL_RESULTS_KEY));
+		assertEquals(asList(REQUEST_HANDLER_1_NAME), qresponse.getResponseHeader().get(CompositeRequestHandler.ABANDONED_KEY));
+	}
+
+	@Test
+	public void exhaustedBudgetJumpsToTheFinalMember() {
+		cut.init(args);
+		params.set(CommonParams.TIME_ALLOWED, "100");
+		when(qrequest.getStartTime()).thenReturn(System.currentTimeMillis() - 1000);
+		doAnswer(returnResults(2)).when(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+
+		cut.handleRequestBody(qrequest, qresponse);
+
+		verifyZeroInteractions(rh1, rh2);
+		verify(rh3).handleRequest(any(SolrQueryRequest.class), any(SolrQueryResponse.class));
+		assertEquals(2, cut.howManyFound(qresponse));
+		assertEquals(
+				asList(REQUEST_HANDLER_1_NAME, REQUEST_HANDLER_2_NAME),
+				qresponse.getResponseHeader().get(CompositeRequestHandler.ABANDONED_KEY));
+	}
+}
@@ -0,0 +1,71 @@
+package io.sease.crh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link WinStatistics}.
+ *
+ * @author agazzarini
+ * @since 1.0
+ */
+public class WinStatisticsTestCase {
+	@Test
+	public void classification() {
+		assertEquals(0, WinStatistics.classify(null));
+		assertEquals(0, WinStatistics.classify("  "));
+		assertEquals(0, WinStatistics.classify("*:*"));
+
+		assertEquals(1, WinStatistics.classify("shoes"));
+		assertEquals(2, WinStatistics.classify("AB-1234"));
+		assertEquals(3, WinStatistics.classify("brand:nike"));
+		assertEquals(5, WinStatistics.classify("red shoes"));
+		assertEquals(13, WinStatistics.classify("red running shoes for women"));
+		assertEquals(
+				WinStatistics.classify("a b c d"),
+				WinStatistics.classify("a b c d e f g"));
+		assertNotEquals(
+				WinStatistics.classify("a b"),
+				WinStatistics.classify("a b1"));
+	}
+
+	@Test
+	public void noPredictionWithoutEnoughSamples() {
+		final WinStatistics statistics = new WinStatistics(3, 1f, 0.9f, 10f);
+		for (int i = 0; i < 9; i++) {
+			statistics.record(1, 2);
+		}
+		assertEquals(0, statistics.predict(1));
+
+		statistics.record(1, 2);
+		assertEquals(2, statistics.predict(1));
+
+		// Other classes are not affected
+		assertEquals(0, statistics.predict(2));
+	}
+
+	@Test
+	public void noPredictionWithoutEnoughConfidence() {
+		final WinStatistics statistics = new WinStatistics(3, 1f, 0.9f, 10f);
+		for (int i = 0; i < 50; i++) {
+			statistics.record(1, i % 4 == 0 ? 1 : 2);
+		}
+		assertEquals(0, statistics.predict(1));
+	}
+
+	@Test
+	public void oldObservationsDecay() {
+		final WinStatistics statistics = new WinStatistics(3, 0.9f, 0.9f, 5f);
+		for (int i = 0; i < 100; i++) {
+			statistics.record(1, 1);
+		}
+		assertEquals(1, statistics.predict(1));
+
+		for (int i = 0; i < 40; i++) {
+			statistics.record(1, 2);
+		}
+		assertEquals(2, statistics.predict(1));
+	}
+}